@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte-level {@link SortKeyExtractor} with the original String-based key
+ * extraction. Run with:
+ * <pre><code>mvn -Pjmh test-compile exec:exec</code></pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortKeyExtractorBenchmark {
+
+    /**
+     * The line which keys are extracted from.
+     */
+    private static final Text LINE = new Text(
+            "2012-09-08 21:20:01 INFO  [main] com.example.Server - Accepted CONNECTION from "
+                    + "10.1.2.3:52100 user=aholmes session=8f2c1e0a");
+
+    /**
+     * The 1-based start field.
+     */
+    @Param({"1", "3"})
+    private int startKey;
+
+    /**
+     * The 1-based end field.
+     */
+    @Param({"4"})
+    private int endKey;
+
+    /**
+     * Whether the key is lower-cased.
+     */
+    @Param({"false", "true"})
+    private boolean ignoreCase;
+
+    /**
+     * The extractor under test.
+     */
+    private SortKeyExtractor extractor;
+
+    /**
+     * The reused key.
+     */
+    private final Text key = new Text();
+
+    /**
+     * Create the extractor.
+     */
+    @Setup
+    public void setup() {
+        extractor = new SortKeyExtractor(startKey, endKey, " ", ignoreCase);
+    }
+
+    /**
+     * Benchmark the byte-level extractor.
+     *
+     * @return the key
+     * @throws IOException if something goes wrong
+     */
+    @Benchmark
+    public Text bytes() throws IOException {
+        extractor.extract(LINE, key);
+        return key;
+    }
+
+    /**
+     * Benchmark the String-based extraction which preceded {@link SortKeyExtractor}.
+     *
+     * @return the key
+     * @throws IOException if something goes wrong
+     */
+    @Benchmark
+    public Text strings() throws IOException {
+        return legacyExtractKey(LINE, startKey, endKey, " ", ignoreCase);
+    }
+
+    /**
+     * The original implementation of {@code SortRecordReader.extractKey}.
+     *
+     * @param value          the sort line
+     * @param startKey       the start key, or null if there isn't one
+     * @param endKey         the end key, or null if there isn't one
+     * @param fieldSeparator the field separator
+     * @param ignoreCase     whether the result should be lower-cased
+     * @return the key
+     * @throws IOException if something goes wrong
+     */
+    private static Text legacyExtractKey(final Text value, final Integer startKey,
+                                         final Integer endKey, final String fieldSeparator,
+                                         final boolean ignoreCase) throws IOException {
+
+        Text result = new Text();
+
+        if (startKey == null) {
+            result.set(value);
+        } else {
+            int startIdx = startKey - 1;
+
+            String[] parts = StringUtils.split(value.toString(), fieldSeparator);
+
+            if (startIdx >= parts.length) {
+                throw new IOException("Start index is greater than parts in line");
+            }
+
+            int endIdx = parts.length;
+
+            if (endKey != null) {
+                endIdx = endKey;
+                if (endIdx > parts.length) {
+                    throw new IOException("End index is greater than parts in line");
+                }
+            }
+
+            result.set(StringUtils.join(parts, fieldSeparator, startIdx, endIdx));
+        }
+
+        if (ignoreCase) {
+            result.set(result.toString().toLowerCase());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,869 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.io;
+
+import com.alexholmes.hadooputils.sort.SortConfig;
+import com.alexholmes.hadooputils.sort.SortKeyExtractor;
+import com.alexholmes.hadooputils.sort.SortManifest;
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapred.JobConf;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point and range lookups over the text output of a total-order
+ * {@link com.alexholmes.hadooputils.sort.Sort}, without running a job. Keys are extracted
+ * from lines with the {@link SortConfig} of the job configuration, which has to match the
+ * options used for the sort, and are compared as unsigned bytes.
+ * <p/>
+ * The part file which a key starts in is found from the first key of each part file, which
+ * is read from the {@link SortManifest} if there is one, or else from the first line of the
+ * file. Within a file, uncompressed files are split into fixed-size blocks and LZOP files
+ * with an index into their LZO blocks, and the block which a key starts in is found with a
+ * binary search, re-syncing on the first newline in each block that is probed. Other
+ * compressed files can't be seeked, so they are read from the start.
+ * <p/>
+ * Blocks are read through an LRU cache shared by all files, so repeated lookups of nearby
+ * keys, and the probes of the binary searches, mostly don't touch the file system. Cached
+ * LZO blocks are held decompressed.
+ * <p/>
+ * Instances aren't thread-safe.
+ */
+public class SortedTextReader implements Closeable {
+
+    /**
+     * The default size of the blocks that uncompressed files are read in, which is 64KB.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The default size of the block cache, which is 64MB.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The job configuration.
+     */
+    private final JobConf job;
+
+    /**
+     * Extracts the key from each line.
+     */
+    private final SortKeyExtractor extractor;
+
+    /**
+     * The part files, in order.
+     */
+    private final List<PartFile> parts = new ArrayList<PartFile>();
+
+    /**
+     * The size of the blocks that uncompressed files are read in.
+     */
+    private final int blockSize;
+
+    /**
+     * The maximum number of bytes held by the block cache.
+     */
+    private final long cacheBytes;
+
+    /**
+     * The cached blocks, least recently used first.
+     */
+    private final LinkedHashMap<String, byte[]> cache =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /**
+     * The number of bytes held by the block cache.
+     */
+    private long cachedBytes;
+
+    /**
+     * The number of block reads served by the cache.
+     */
+    private long cacheHits;
+
+    /**
+     * The number of block reads which missed the cache.
+     */
+    private long cacheMisses;
+
+    /**
+     * Constructor, which uses the default block and cache sizes.
+     *
+     * @param job       the job configuration, which holds the options used for the sort
+     * @param outputDir the output directory of the sort
+     * @throws IOException if something goes wrong
+     */
+    public SortedTextReader(final JobConf job, final Path outputDir) throws IOException {
+        this(job, outputDir, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param job        the job configuration, which holds the options used for the sort
+     * @param outputDir  the output directory of the sort
+     * @param blockSize  the size of the blocks that uncompressed files are read in
+     * @param cacheBytes the maximum number of bytes held by the block cache
+     * @throws IOException if something goes wrong
+     */
+    public SortedTextReader(final JobConf job, final Path outputDir, final int blockSize,
+                            final long cacheBytes) throws IOException {
+        this.job = job;
+        this.extractor = new SortConfig(job).createKeyExtractor();
+        this.blockSize = blockSize;
+        this.cacheBytes = cacheBytes;
+
+        FileSystem fs = outputDir.getFileSystem(job);
+        FileStatus[] files = fs.listStatus(outputDir, new PathFilter() {
+            @Override
+            public boolean accept(final Path path) {
+                return path.getName().startsWith("part-")
+                        && !path.getName().endsWith(LzoIndex.LZO_INDEX_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Output directory " + outputDir + " doesn't exist");
+        }
+        Arrays.sort(files);
+
+        // the manifest saves reading the first line of each file
+        //
+        Map<String, SortManifest.Part> described = new HashMap<String, SortManifest.Part>();
+        if (fs.exists(new Path(outputDir, SortManifest.MANIFEST_NAME))) {
+            for (SortManifest.Part part : SortManifest.read(job, outputDir).getParts()) {
+                described.put(part.getName(), part);
+            }
+        }
+
+        CompressionCodecFactory codecs = new CompressionCodecFactory(job);
+        for (FileStatus file : files) {
+            if (file.isDir()) {
+                throw new IOException("Part file " + file.getPath() + " isn't a text file");
+            }
+            CompressionCodec codec = codecs.getCodec(file.getPath());
+            PartFile part;
+            if (codec == null) {
+                part = new PlainPartFile(fs, file);
+            } else {
+                LzoIndex index = codec instanceof LzopCodec
+                        ? LzoIndex.readIndex(fs, file.getPath()) : null;
+                if (index != null && !index.isEmpty()) {
+                    part = new LzoPartFile(fs, file, codec, index);
+                } else {
+                    part = new StreamPartFile(fs, file, codec);
+                }
+            }
+            SortManifest.Part description = described.get(file.getPath().getName());
+            if (description != null) {
+                part.firstKey = description.getFirstKey();
+                part.firstKeyKnown = true;
+            }
+            parts.add(part);
+        }
+    }
+
+    /**
+     * Extract the sort key of a line, which can be used to look up the lines with the same
+     * key.
+     *
+     * @param line the line
+     * @return the key
+     * @throws IOException if something goes wrong
+     */
+    public Text extractKey(final Text line) throws IOException {
+        Text key = new Text();
+        extractor.extract(line, key);
+        return key;
+    }
+
+    /**
+     * Get the lines with a key, in output order.
+     *
+     * @param key the key, as returned by {@link #extractKey}
+     * @return the lines, which is empty if there are none
+     * @throws IOException if something goes wrong
+     */
+    public List<Text> get(final Text key) throws IOException {
+        List<Text> lines = new ArrayList<Text>();
+        Scanner scanner = new Scanner(key, key, true);
+        Text line = new Text();
+        while (scanner.next(line)) {
+            lines.add(new Text(line));
+        }
+        return lines;
+    }
+
+    /**
+     * Scan the lines whose keys are in a range, in output order.
+     *
+     * @param lower the inclusive lower bound, or null to start at the first line
+     * @param upper the exclusive upper bound, or null to end at the last line
+     * @return the scanner
+     * @throws IOException if something goes wrong
+     */
+    public Scanner scan(final Text lower, final Text upper) throws IOException {
+        return new Scanner(lower, upper, false);
+    }
+
+    /**
+     * Get the number of block reads served by the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Get the number of block reads which missed the cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (PartFile part : parts) {
+            part.close();
+        }
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Compare two keys as unsigned bytes.
+     *
+     * @param a the first key
+     * @param b the second key
+     * @return the comparison result
+     */
+    private static int compare(final Text a, final Text b) {
+        return WritableComparator.compareBytes(a.getBytes(), 0, a.getLength(),
+                b.getBytes(), 0, b.getLength());
+    }
+
+    /**
+     * The lines whose keys are in a range.
+     */
+    public final class Scanner {
+
+        /**
+         * The inclusive lower bound, or null if there isn't one.
+         */
+        private final Text lower;
+
+        /**
+         * The upper bound, or null if there isn't one.
+         */
+        private final Text upper;
+
+        /**
+         * Whether the upper bound is inclusive.
+         */
+        private final boolean upperInclusive;
+
+        /**
+         * The index of the part file being read.
+         */
+        private int part;
+
+        /**
+         * The position in the part file, or null once the scan has ended.
+         */
+        private Cursor cursor;
+
+        /**
+         * The key of the current line.
+         */
+        private final Text key = new Text();
+
+        /**
+         * Constructor, which positions the scanner just before the first line in range.
+         *
+         * @param lower          the inclusive lower bound, or null if there isn't one
+         * @param upper          the upper bound, or null if there isn't one
+         * @param upperInclusive whether the upper bound is inclusive
+         * @throws IOException if something goes wrong
+         */
+        private Scanner(final Text lower, final Text upper, final boolean upperInclusive)
+                throws IOException {
+            this.lower = lower;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+
+            // equal keys can span part files, so the scan starts in the last file whose
+            // first key is less than the lower bound
+            //
+            if (lower != null) {
+                for (int i = 0; i < parts.size(); i++) {
+                    Text first = parts.get(i).getFirstKey();
+                    if (first != null && compare(first, lower) < 0) {
+                        part = i;
+                    }
+                }
+            }
+            if (part < parts.size()) {
+                cursor = lower == null ? parts.get(part).start() : parts.get(part).find(lower);
+            }
+        }
+
+        /**
+         * Read the next line in range.
+         *
+         * @param line the line
+         * @return false if there are no more lines in range
+         * @throws IOException if something goes wrong
+         */
+        public boolean next(final Text line) throws IOException {
+            while (cursor != null) {
+                if (!cursor.readLine(line)) {
+                    part++;
+                    cursor = part < parts.size() ? parts.get(part).start() : null;
+                    continue;
+                }
+                extractor.extract(line, key);
+                if (lower != null && compare(key, lower) < 0) {
+                    continue;
+                }
+                if (upper != null) {
+                    int cmp = compare(key, upper);
+                    if (cmp > 0 || (cmp == 0 && !upperInclusive)) {
+                        cursor = null;
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A part file, which is read in numbered blocks through the cache.
+     */
+    private abstract class PartFile {
+
+        /**
+         * The file.
+         */
+        protected final Path path;
+
+        /**
+         * The number of blocks, or -1 if it isn't known until the file has been read.
+         */
+        protected final int blocks;
+
+        /**
+         * The first key, or null if the file is empty.
+         */
+        private Text firstKey;
+
+        /**
+         * Whether the first key has been read.
+         */
+        private boolean firstKeyKnown;
+
+        /**
+         * Constructor.
+         *
+         * @param path   the file
+         * @param blocks the number of blocks, or -1 if it isn't known
+         */
+        PartFile(final Path path, final int blocks) {
+            this.path = path;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Get the first key.
+         *
+         * @return the first key, or null if the file is empty
+         * @throws IOException if something goes wrong
+         */
+        Text getFirstKey() throws IOException {
+            if (!firstKeyKnown) {
+                Text line = new Text();
+                if (start().readLine(line)) {
+                    firstKey = extractKey(line);
+                }
+                firstKeyKnown = true;
+            }
+            return firstKey;
+        }
+
+        /**
+         * Position a cursor at the first line.
+         *
+         * @return the cursor
+         * @throws IOException if something goes wrong
+         */
+        Cursor start() throws IOException {
+            Cursor cursor = new Cursor(this);
+            cursor.seek(0);
+            return cursor;
+        }
+
+        /**
+         * Position a cursor at or before the first line whose key is at least a lower bound.
+         * The first line starting after the start of a block never has a smaller key than
+         * that of an earlier block, so the first block whose line is in range is found, and
+         * the scan starts from the line of the block before it.
+         *
+         * @param lower the lower bound
+         * @return the cursor
+         * @throws IOException if something goes wrong
+         */
+        Cursor find(final Text lower) throws IOException {
+            if (blocks < 0) {
+                return start();
+            }
+            Cursor probe = new Cursor(this);
+            Text line = new Text();
+            Text key = new Text();
+            int lo = 0;
+            int hi = blocks;
+            while (lo < hi) {
+                int mid = lo + (hi - lo) / 2;
+                boolean found = probe.seek(mid) && probe.readLine(line);
+                if (found) {
+                    extractor.extract(line, key);
+                }
+                if (!found || compare(key, lower) >= 0) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            Cursor cursor = new Cursor(this);
+            cursor.seek(Math.max(0, lo - 1));
+            return cursor;
+        }
+
+        /**
+         * Read a block through the cache.
+         *
+         * @param block the block number
+         * @return the block, or null if it's past the end of the file
+         * @throws IOException if something goes wrong
+         */
+        byte[] getBlock(final int block) throws IOException {
+            if (blocks >= 0 && block >= blocks) {
+                return null;
+            }
+            String id = path + "#" + block;
+            byte[] bytes = cache.get(id);
+            if (bytes != null) {
+                cacheHits++;
+                return bytes;
+            }
+            cacheMisses++;
+            bytes = load(block);
+            if (bytes != null) {
+                cache.put(id, bytes);
+                cachedBytes += bytes.length;
+                Iterator<byte[]> eldest = cache.values().iterator();
+                while (cachedBytes > cacheBytes && cache.size() > 1) {
+                    cachedBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Read a block from the file.
+         *
+         * @param block the block number
+         * @return the block, or null if it's past the end of the file
+         * @throws IOException if something goes wrong
+         */
+        protected abstract byte[] load(int block) throws IOException;
+
+        /**
+         * Close the file.
+         *
+         * @throws IOException if something goes wrong
+         */
+        protected abstract void close() throws IOException;
+    }
+
+    /**
+     * An uncompressed file, which is read in fixed-size blocks.
+     */
+    private final class PlainPartFile extends PartFile {
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The length of the file.
+         */
+        private final long length;
+
+        /**
+         * The open file, or null if it hasn't been opened.
+         */
+        private FSDataInputStream in;
+
+        /**
+         * Constructor.
+         *
+         * @param fs   the file system
+         * @param file the file
+         */
+        PlainPartFile(final FileSystem fs, final FileStatus file) {
+            super(file.getPath(), (int) ((file.getLen() + blockSize - 1) / blockSize));
+            this.fs = fs;
+            this.length = file.getLen();
+        }
+
+        @Override
+        protected byte[] load(final int block) throws IOException {
+            if (in == null) {
+                in = fs.open(path);
+            }
+            long start = (long) block * blockSize;
+            byte[] bytes = new byte[(int) Math.min(blockSize, length - start)];
+            in.readFully(start, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * An LZOP file with an index, which is read one LZO block at a time. Each block is
+     * decompressed on its own by replaying the file's LZOP header in front of it.
+     */
+    private final class LzoPartFile extends PartFile {
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The length of the file.
+         */
+        private final long length;
+
+        /**
+         * The codec.
+         */
+        private final CompressionCodec codec;
+
+        /**
+         * The offsets of the LZO blocks.
+         */
+        private final LzoIndex index;
+
+        /**
+         * The LZOP header, which is everything before the first block.
+         */
+        private byte[] header;
+
+        /**
+         * The open file, or null if it hasn't been opened.
+         */
+        private FSDataInputStream in;
+
+        /**
+         * Constructor.
+         *
+         * @param fs    the file system
+         * @param file  the file
+         * @param codec the codec
+         * @param index the offsets of the LZO blocks
+         */
+        LzoPartFile(final FileSystem fs, final FileStatus file, final CompressionCodec codec,
+                    final LzoIndex index) {
+            super(file.getPath(), index.getNumberOfBlocks());
+            this.fs = fs;
+            this.length = file.getLen();
+            this.codec = codec;
+            this.index = index;
+        }
+
+        @Override
+        protected byte[] load(final int block) throws IOException {
+            if (in == null) {
+                in = fs.open(path);
+                header = new byte[(int) index.getPosition(0)];
+                in.readFully(0, header, 0, header.length);
+            }
+            long start = index.getPosition(block);
+            long end = block + 1 < blocks ? index.getPosition(block + 1) : length;
+            byte[] compressed = new byte[(int) (end - start)];
+            in.readFully(start, compressed, 0, compressed.length);
+
+            Decompressor decompressor = CodecPool.getDecompressor(codec);
+            try {
+                InputStream decompressed = codec.createInputStream(new SequenceInputStream(
+                        new ByteArrayInputStream(header), new ByteArrayInputStream(compressed)),
+                        decompressor);
+                try {
+                    return IOUtils.toByteArray(decompressed);
+                } finally {
+                    decompressed.close();
+                }
+            } finally {
+                CodecPool.returnDecompressor(decompressor);
+            }
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * A compressed file which can't be seeked, which is read from the start in fixed-size
+     * blocks of decompressed bytes.
+     */
+    private final class StreamPartFile extends PartFile {
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The codec.
+         */
+        private final CompressionCodec codec;
+
+        /**
+         * The open file, or null if it hasn't been opened.
+         */
+        private InputStream in;
+
+        /**
+         * The number of the next block in the open file.
+         */
+        private int next;
+
+        /**
+         * Constructor.
+         *
+         * @param fs    the file system
+         * @param file  the file
+         * @param codec the codec
+         */
+        StreamPartFile(final FileSystem fs, final FileStatus file,
+                       final CompressionCodec codec) {
+            super(file.getPath(), -1);
+            this.fs = fs;
+            this.codec = codec;
+        }
+
+        @Override
+        protected byte[] load(final int block) throws IOException {
+            if (in == null || block < next) {
+                close();
+                in = codec.createInputStream(fs.open(path));
+                next = 0;
+            }
+            byte[] bytes = new byte[blockSize];
+            int length = 0;
+            while (next <= block) {
+                length = 0;
+                int read;
+                while (length < bytes.length
+                        && (read = in.read(bytes, length, bytes.length - length)) > 0) {
+                    length += read;
+                }
+                if (length == 0) {
+                    return null;
+                }
+                next++;
+            }
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * A position in a part file, which reads lines across block boundaries.
+     */
+    private static final class Cursor {
+
+        /**
+         * The part file.
+         */
+        private final PartFile part;
+
+        /**
+         * The current block number.
+         */
+        private int block;
+
+        /**
+         * The current block, or null at the end of the file.
+         */
+        private byte[] bytes;
+
+        /**
+         * The offset in the current block.
+         */
+        private int offset;
+
+        /**
+         * Constructor.
+         *
+         * @param part the part file
+         */
+        Cursor(final PartFile part) {
+            this.part = part;
+        }
+
+        /**
+         * Position the cursor at the first line of the file, or for later blocks at the first
+         * line which starts after the start of the block.
+         *
+         * @param start the block number
+         * @return false if there's no such line
+         * @throws IOException if something goes wrong
+         */
+        boolean seek(final int start) throws IOException {
+            block = start;
+            offset = 0;
+            bytes = part.getBlock(block);
+            if (start > 0) {
+                skipLine();
+            }
+            return bytes != null;
+        }
+
+        /**
+         * Skip to the start of the next line.
+         *
+         * @throws IOException if something goes wrong
+         */
+        private void skipLine() throws IOException {
+            while (bytes != null) {
+                for (int i = offset; i < bytes.length; i++) {
+                    if (bytes[i] == '\n') {
+                        offset = i + 1;
+                        return;
+                    }
+                }
+                nextBlock();
+            }
+        }
+
+        /**
+         * Read the next line, without its line terminator.
+         *
+         * @param line the line
+         * @return false at the end of the file
+         * @throws IOException if something goes wrong
+         */
+        boolean readLine(final Text line) throws IOException {
+            line.clear();
+            boolean read = false;
+            while (bytes != null) {
+                if (offset == bytes.length) {
+                    nextBlock();
+                    continue;
+                }
+                read = true;
+                for (int i = offset; i < bytes.length; i++) {
+                    if (bytes[i] == '\n') {
+                        line.append(bytes, offset, i - offset);
+                        offset = i + 1;
+                        stripCarriageReturn(line);
+                        return true;
+                    }
+                }
+                line.append(bytes, offset, bytes.length - offset);
+                nextBlock();
+            }
+            stripCarriageReturn(line);
+            return read;
+        }
+
+        /**
+         * Move to the start of the next block.
+         *
+         * @throws IOException if something goes wrong
+         */
+        private void nextBlock() throws IOException {
+            block++;
+            offset = 0;
+            bytes = part.getBlock(block);
+        }
+
+        /**
+         * Remove the carriage return of a CRLF line terminator, as
+         * {@link org.apache.hadoop.util.LineReader} does.
+         *
+         * @param line the line
+         */
+        private static void stripCarriageReturn(final Text line) {
+            int length = line.getLength();
+            if (length > 0 && line.getBytes()[length - 1] == '\r') {
+                line.set(line.getBytes(), 0, length - 1);
+            }
+        }
+    }
+}
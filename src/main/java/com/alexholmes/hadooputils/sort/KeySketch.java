@@ -0,0 +1,296 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A mergeable quantile sketch over sort keys, in the style of the KLL sketch. Keys are
+ * ordered as unsigned bytes, which is the order used by {@link SortKeyComparator}.
+ * <p/>
+ * The sketch is a stack of compactors. Keys are added to level 0, and every key at level
+ * {@code h} stands in for {@code 2^h} input keys. When a level fills up it's sorted, and
+ * every other key (starting at a random offset) is promoted to the next level while the
+ * rest are discarded. Memory is therefore bounded by {@code k} keys per level, with a
+ * logarithmic number of levels, and the rank error of the quantiles is roughly
+ * {@code 1 / k} of the number of keys.
+ * <p/>
+ * Two sketches can be merged by concatenating their levels and compacting again, which is
+ * how the sketches built by each map task in {@link SketchSampler} are combined.
+ */
+public class KeySketch implements Writable {
+
+    /**
+     * The default maximum number of keys held by each level.
+     */
+    public static final int DEFAULT_SIZE = 1024;
+
+    /**
+     * Orders keys as unsigned bytes.
+     */
+    private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(final byte[] a, final byte[] b) {
+            return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+        }
+    };
+
+    /**
+     * The maximum number of keys held by each level.
+     */
+    private int k;
+
+    /**
+     * The number of keys which have been added to this sketch and the sketches merged into it.
+     */
+    private long count;
+
+    /**
+     * The compactors, where index {@code h} holds keys with a weight of {@code 2^h}.
+     */
+    private final List<List<byte[]>> levels = new ArrayList<List<byte[]>>();
+
+    /**
+     * Picks which half of a level is promoted.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Constructor used for deserialization.
+     */
+    public KeySketch() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k the maximum number of keys held by each level
+     */
+    public KeySketch(final int k) {
+        if (k < 2) {
+            throw new IllegalArgumentException("Sketch size must be at least 2: " + k);
+        }
+        this.k = k;
+    }
+
+    /**
+     * Add a key.
+     *
+     * @param bytes  the key bytes
+     * @param offset the offset of the key
+     * @param length the length of the key
+     */
+    public void add(final byte[] bytes, final int offset, final int length) {
+        level(0).add(Arrays.copyOfRange(bytes, offset, offset + length));
+        count++;
+        compact();
+    }
+
+    /**
+     * Merge another sketch into this one.
+     *
+     * @param other the sketch to merge
+     */
+    public void merge(final KeySketch other) {
+        for (int h = 0; h < other.levels.size(); h++) {
+            level(h).addAll(other.levels.get(h));
+        }
+        count += other.count;
+        compact();
+    }
+
+    /**
+     * Get the number of keys which the sketch summarizes.
+     *
+     * @return the number of keys
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of keys held in memory.
+     *
+     * @return the number of retained keys
+     */
+    public int getRetained() {
+        int retained = 0;
+        for (List<byte[]> level : levels) {
+            retained += level.size();
+        }
+        return retained;
+    }
+
+    /**
+     * Get evenly spaced quantiles. The first quantile is the smallest key, and quantile
+     * {@code i} is the key whose rank is approximately {@code i * count / n}.
+     *
+     * @param n the number of quantiles
+     * @return the quantiles in ascending order, or an empty array if the sketch is empty
+     */
+    public byte[][] getQuantiles(final int n) {
+        // merge the levels into a single sorted list of weighted keys
+        //
+        List<WeightedKey> keys = new ArrayList<WeightedKey>(getRetained());
+        for (int h = 0; h < levels.size(); h++) {
+            for (byte[] key : levels.get(h)) {
+                keys.add(new WeightedKey(key, 1L << h));
+            }
+        }
+        if (keys.isEmpty()) {
+            return new byte[0][];
+        }
+        Collections.sort(keys);
+
+        long total = 0;
+        for (WeightedKey key : keys) {
+            total += key.weight;
+        }
+
+        byte[][] quantiles = new byte[n][];
+        int idx = 0;
+        long cumulative = keys.get(0).weight;
+        for (int i = 0; i < n; i++) {
+            double rank = (double) i * total / n;
+            while (idx < keys.size() - 1 && cumulative <= rank) {
+                idx++;
+                cumulative += keys.get(idx).weight;
+            }
+            quantiles[i] = keys.get(idx).key;
+        }
+        return quantiles;
+    }
+
+    /**
+     * Get a level, creating it if it doesn't exist.
+     *
+     * @param h the level
+     * @return the level
+     */
+    private List<byte[]> level(final int h) {
+        while (levels.size() <= h) {
+            levels.add(new ArrayList<byte[]>());
+        }
+        return levels.get(h);
+    }
+
+    /**
+     * Compact every level which is over capacity, promoting half its keys to the next level.
+     */
+    private void compact() {
+        for (int h = 0; h < levels.size(); h++) {
+            List<byte[]> level = levels.get(h);
+            if (level.size() < k) {
+                continue;
+            }
+            Collections.sort(level, KEY_ORDER);
+
+            // an odd key out stays behind so that no weight is lost
+            //
+            int size = level.size();
+            byte[] leftover = null;
+            if (size % 2 == 1) {
+                leftover = level.get(size - 1);
+                size--;
+            }
+            List<byte[]> next = level(h + 1);
+            for (int i = random.nextInt(2); i < size; i += 2) {
+                next.add(level.get(i));
+            }
+            level.clear();
+            if (leftover != null) {
+                level.add(leftover);
+            }
+        }
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, k);
+        WritableUtils.writeVLong(out, count);
+        WritableUtils.writeVInt(out, levels.size());
+        for (List<byte[]> level : levels) {
+            WritableUtils.writeVInt(out, level.size());
+            for (byte[] key : level) {
+                WritableUtils.writeVInt(out, key.length);
+                out.write(key);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        k = WritableUtils.readVInt(in);
+        count = WritableUtils.readVLong(in);
+        levels.clear();
+        int numLevels = WritableUtils.readVInt(in);
+        for (int h = 0; h < numLevels; h++) {
+            int size = WritableUtils.readVInt(in);
+            List<byte[]> level = level(h);
+            for (int i = 0; i < size; i++) {
+                byte[] key = new byte[WritableUtils.readVInt(in)];
+                in.readFully(key);
+                level.add(key);
+            }
+        }
+    }
+
+    /**
+     * A retained key and the number of input keys which it stands in for.
+     */
+    private static final class WeightedKey implements Comparable<WeightedKey> {
+
+        /**
+         * The key.
+         */
+        private final byte[] key;
+
+        /**
+         * The weight.
+         */
+        private final long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param key    the key
+         * @param weight the weight
+         */
+        private WeightedKey(final byte[] key, final long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+
+        @Override
+        public int compareTo(final WeightedKey o) {
+            return KEY_ORDER.compare(key, o.key);
+        }
+    }
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An in-process external merge sort, which sorts inputs that are too small to be worth the
+ * startup and shuffle costs of a MapReduce job. It honors the same {@link SortConfig}
+ * options as the MapReduce sort, and produces the same output layout, which is a single
+ * {@code part-00000} file followed by a {@code _SUCCESS} marker. The part file's stats are
+ * written for {@link SortManifest#collect} as a reducer's would be.
+ * <p/>
+ * Splits are read by a pool of threads, each of which buffers keys and lines until its share
+ * of {@code io.sort.mb} is used up, sorts them, and spills them to a compressed run on local
+ * disk using the map output codec. The runs are then merged at most {@code io.sort.factor}
+ * at a time until a single pass can write the output.
+ */
+public class LocalSortEngine {
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(LocalSortEngine.class);
+
+    /**
+     * The name of the output file.
+     */
+    public static final String PART_FILE = "part-00000";
+
+    /**
+     * The name of the marker file written once the output is complete.
+     */
+    public static final String SUCCESS_FILE = "_SUCCESS";
+
+    /**
+     * An estimate of the memory used by each buffered record in addition to its bytes.
+     */
+    private static final int RECORD_OVERHEAD = 64;
+
+    /**
+     * Orders records by their sort key bytes, which is the same order as
+     * {@link SortKeyComparator}.
+     */
+    private static final Comparator<Record> RECORD_COMPARATOR = new Comparator<Record>() {
+        @Override
+        public int compare(final Record a, final Record b) {
+            return compareKeys(a.key, b.key);
+        }
+    };
+
+    /**
+     * The job configuration.
+     */
+    private final JobConf job;
+
+    /**
+     * Whether only the first line of each run of equal keys is written.
+     */
+    private final boolean unique;
+
+    /**
+     * The number of threads which generate runs.
+     */
+    private final int threads;
+
+    /**
+     * The number of bytes each thread buffers before spilling a run.
+     */
+    private final long spillBytes;
+
+    /**
+     * The maximum number of runs merged at once.
+     */
+    private final int mergeFactor;
+
+    /**
+     * The codec used to compress runs.
+     */
+    private final CompressionCodec spillCodec;
+
+    /**
+     * The local directory which holds the runs.
+     */
+    private File spillDir;
+
+    /**
+     * The number of runs written by the last sort, including intermediate merges.
+     */
+    private int runs;
+
+    /**
+     * The first key written to the output, or null if nothing has been written.
+     */
+    private Text firstKey;
+
+    /**
+     * The last key written to the output.
+     */
+    private final Text lastKey = new Text();
+
+    /**
+     * Constructor.
+     *
+     * @param job the job configuration
+     */
+    public LocalSortEngine(final JobConf job) {
+        this(job, job.getLong("io.sort.mb", 100) * 1024 * 1024
+                / Math.max(1, new SortConfig(job).getLocalThreads()));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param job        the job configuration
+     * @param spillBytes the number of bytes each thread buffers before spilling a run
+     */
+    LocalSortEngine(final JobConf job, final long spillBytes) {
+        SortConfig sortConfig = new SortConfig(job);
+        this.job = job;
+        this.unique = sortConfig.getUnique();
+        this.threads = sortConfig.getLocalThreads();
+        this.spillBytes = Math.max(1, spillBytes);
+        this.mergeFactor = Math.max(2, job.getInt("io.sort.factor", 10));
+        this.spillCodec = ReflectionUtils.newInstance(
+                job.getMapOutputCompressorClass(DefaultCodec.class), job);
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one local sort thread is required");
+        }
+    }
+
+    /**
+     * Get the number of bytes in the job's input paths.
+     *
+     * @param job the job configuration
+     * @return the number of input bytes
+     * @throws IOException if something goes wrong
+     */
+    public static long getInputSize(final JobConf job) throws IOException {
+        long bytes = 0;
+        for (Path input : FileInputFormat.getInputPaths(job)) {
+            FileSystem fs = input.getFileSystem(job);
+            if (fs.exists(input)) {
+                bytes += fs.getContentSummary(input).getLength();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Sort the job's input paths into the supplied output directory, which must not exist.
+     *
+     * @param outputDir the output directory
+     * @return the number of lines written
+     * @throws IOException if something goes wrong
+     */
+    public long sort(final Path outputDir) throws IOException {
+        FileSystem fs = outputDir.getFileSystem(job);
+        if (fs.exists(outputDir)) {
+            throw new FileAlreadyExistsException("Output directory " + outputDir
+                    + " already exists");
+        }
+
+        // the key and line are always read separately, since runs hold both
+        //
+        JobConf conf = new JobConf(job);
+        new SortConfig(conf).setKeyIsLine(false);
+        SortInputFormat inf = new SortInputFormat();
+        inf.configure(conf);
+        InputSplit[] splits = inf.getSplits(conf, threads);
+
+        runs = 0;
+        spillDir = File.createTempFile("sort", ".runs");
+        if (!spillDir.delete() || !spillDir.mkdir()) {
+            throw new IOException("Couldn't create local sort directory " + spillDir);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, splits.length)));
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<List<Run>>> futures = new ArrayList<Future<List<Run>>>();
+            for (InputSplit split : splits) {
+                futures.add(executor.submit(new RunGenerator(inf, conf, split)));
+            }
+            executor.shutdown();
+
+            List<Run> sorted = new ArrayList<Run>();
+            for (Future<List<Run>> future : futures) {
+                try {
+                    sorted.addAll(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while sorting");
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to sort split", e.getCause());
+                }
+            }
+            LOG.info("Wrote " + sorted.size() + " runs from " + splits.length + " splits in "
+                    + (System.currentTimeMillis() - start) + "ms");
+
+            // merge the smallest runs first so that each record is rewritten as few times
+            // as possible
+            //
+            while (sorted.size() > mergeFactor) {
+                Collections.sort(sorted);
+                List<Run> batch = new ArrayList<Run>(sorted.subList(0, mergeFactor));
+                sorted.removeAll(batch);
+                sorted.add(mergeToRun(batch));
+            }
+
+            long lines = writeOutput(sorted, fs, outputDir);
+            LOG.info("Sorted " + lines + " lines using " + runs + " runs in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return lines;
+        } finally {
+            executor.shutdownNow();
+            delete(spillDir);
+        }
+    }
+
+    /**
+     * Get the number of runs written by the last sort, including intermediate merges.
+     *
+     * @return the number of runs
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * Write the final merge to the output directory, compressing it if the job's output is
+     * compressed.
+     *
+     * @param sorted    the runs
+     * @param fs        the output file system
+     * @param outputDir the output directory
+     * @return the number of lines written
+     * @throws IOException if something goes wrong
+     */
+    private long writeOutput(final List<Run> sorted, final FileSystem fs, final Path outputDir)
+            throws IOException {
+        CompressionCodec codec = null;
+        String name = PART_FILE;
+        if (FileOutputFormat.getCompressOutput(job)) {
+            codec = ReflectionUtils.newInstance(
+                    FileOutputFormat.getOutputCompressorClass(job, GzipCodec.class), job);
+            name += codec.getDefaultExtension();
+        }
+
+        fs.mkdirs(outputDir);
+        OutputStream out = fs.create(new Path(outputDir, name));
+        if (codec != null) {
+            out = codec.createOutputStream(out);
+        }
+        DataOutputStream lines = new DataOutputStream(out);
+        long written;
+        try {
+            written = merge(sorted, lines, true);
+        } finally {
+            lines.close();
+        }
+
+        Path stats = SortManifest.getStatsPath(outputDir, PART_FILE);
+        FSDataOutputStream statsOut = fs.create(stats);
+        try {
+            new SortManifest.Part(PART_FILE, written, firstKey,
+                    firstKey == null ? null : lastKey).write(statsOut);
+        } finally {
+            statsOut.close();
+        }
+        fs.create(new Path(outputDir, SUCCESS_FILE)).close();
+        return written;
+    }
+
+    /**
+     * Merge runs into a new run.
+     *
+     * @param batch the runs
+     * @return the new run
+     * @throws IOException if something goes wrong
+     */
+    private Run mergeToRun(final List<Run> batch) throws IOException {
+        Run run = createRun();
+        DataOutputStream out = run.create();
+        try {
+            run.records = merge(batch, out, false);
+        } finally {
+            out.close();
+        }
+        return run;
+    }
+
+    /**
+     * Merge sorted runs, deleting them once they have been read.
+     *
+     * @param sorted the runs
+     * @param out    where the merged records are written
+     * @param lines  whether to write just the lines, rather than records which can be read
+     *               back as a run, in which case the first and last keys are remembered
+     * @return the number of records written
+     * @throws IOException if something goes wrong
+     */
+    long merge(final List<Run> sorted, final DataOutputStream out, final boolean lines)
+            throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                Math.max(1, sorted.size()));
+        try {
+            for (Run run : sorted) {
+                RunReader reader = new RunReader(run);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            long written = 0;
+            Text first = new Text();
+            Text previous = new Text();
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!unique || written == 0 || compareKeys(previous, reader.key) != 0) {
+                    write(out, reader.key, reader.line, lines);
+                    if (written == 0) {
+                        first.set(reader.key);
+                    }
+                    written++;
+                    previous.set(reader.key);
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            if (lines) {
+                firstKey = written == 0 ? null : new Text(first);
+                lastKey.set(previous);
+            }
+            return written;
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Sort the buffered records and spill them to a new run.
+     *
+     * @param records the records, which are cleared
+     * @return the run
+     * @throws IOException if something goes wrong
+     */
+    Run spill(final List<Record> records) throws IOException {
+        Collections.sort(records, RECORD_COMPARATOR);
+        Run run = createRun();
+        DataOutputStream out = run.create();
+        try {
+            Text previous = null;
+            for (Record record : records) {
+                if (unique && previous != null && compareKeys(previous, record.key) == 0) {
+                    continue;
+                }
+                write(out, record.key, record.line, false);
+                run.records++;
+                previous = record.key;
+            }
+        } finally {
+            out.close();
+        }
+        records.clear();
+        return run;
+    }
+
+    /**
+     * Allocate a new run in the spill directory.
+     *
+     * @return the run
+     */
+    private synchronized Run createRun() {
+        return new Run(new File(spillDir, "run-" + runs++));
+    }
+
+    /**
+     * Write a record.
+     *
+     * @param out   the output
+     * @param key   the sort key
+     * @param line  the sort line
+     * @param lines whether to write just the line, rather than the key and line
+     * @throws IOException if something goes wrong
+     */
+    private static void write(final DataOutputStream out, final Text key, final Text line,
+                              final boolean lines) throws IOException {
+        if (lines) {
+            out.write(line.getBytes(), 0, line.getLength());
+            out.write('\n');
+        } else {
+            key.write(out);
+            line.write(out);
+        }
+    }
+
+    /**
+     * Compare two sort keys as unsigned bytes.
+     *
+     * @param a the first key
+     * @param b the second key
+     * @return the comparison result
+     */
+    private static int compareKeys(final Text a, final Text b) {
+        return WritableComparator.compareBytes(a.getBytes(), 0, a.getLength(),
+                b.getBytes(), 0, b.getLength());
+    }
+
+    /**
+     * Delete the spill directory and any runs left in it.
+     *
+     * @param dir the directory
+     */
+    private static void delete(final File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    LOG.warn("Couldn't delete " + file);
+                }
+            }
+        }
+        if (!dir.delete()) {
+            LOG.warn("Couldn't delete " + dir);
+        }
+    }
+
+    /**
+     * A buffered key and line.
+     */
+    static final class Record {
+
+        /**
+         * The sort key.
+         */
+        private final Text key;
+
+        /**
+         * The sort line.
+         */
+        private final Text line;
+
+        /**
+         * Constructor.
+         *
+         * @param key  the sort key
+         * @param line the sort line
+         */
+        Record(final Text key, final Text line) {
+            this.key = key;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A sorted, compressed run on local disk.
+     */
+    final class Run implements Comparable<Run> {
+
+        /**
+         * The file which holds the run.
+         */
+        private final File file;
+
+        /**
+         * The number of records in the run.
+         */
+        private long records;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file which holds the run
+         */
+        Run(final File file) {
+            this.file = file;
+        }
+
+        /**
+         * Create the run file.
+         *
+         * @return a stream which writes to the run
+         * @throws IOException if something goes wrong
+         */
+        DataOutputStream create() throws IOException {
+            return new DataOutputStream(spillCodec.createOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file))));
+        }
+
+        /**
+         * Open the run file.
+         *
+         * @return a stream which reads the run
+         * @throws IOException if something goes wrong
+         */
+        DataInputStream open() throws IOException {
+            return new DataInputStream(new BufferedInputStream(spillCodec.createInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))));
+        }
+
+        @Override
+        public int compareTo(final Run o) {
+            return records < o.records ? -1 : (records == o.records ? 0 : 1);
+        }
+    }
+
+    /**
+     * Reads the records of a run in order.
+     */
+    private final class RunReader implements Comparable<RunReader> {
+
+        /**
+         * The run.
+         */
+        private final Run run;
+
+        /**
+         * The run contents.
+         */
+        private final DataInputStream in;
+
+        /**
+         * The number of records which haven't been read.
+         */
+        private long remaining;
+
+        /**
+         * The current sort key.
+         */
+        private final Text key = new Text();
+
+        /**
+         * The current sort line.
+         */
+        private final Text line = new Text();
+
+        /**
+         * Constructor.
+         *
+         * @param run the run
+         * @throws IOException if something goes wrong
+         */
+        RunReader(final Run run) throws IOException {
+            this.run = run;
+            this.in = run.open();
+            this.remaining = run.records;
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return false if the run has been fully read
+         * @throws IOException if something goes wrong
+         */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            try {
+                key.readFields(in);
+                line.readFields(in);
+            } catch (EOFException e) {
+                throw new IOException("Run " + run.file + " is truncated", e);
+            }
+            remaining--;
+            return true;
+        }
+
+        /**
+         * Close and delete the run.
+         */
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOG.warn("Couldn't close " + run.file, e);
+            }
+            if (!run.file.delete()) {
+                LOG.warn("Couldn't delete " + run.file);
+            }
+        }
+
+        @Override
+        public int compareTo(final RunReader o) {
+            return compareKeys(key, o.key);
+        }
+    }
+
+    /**
+     * Reads a split and spills it as sorted runs.
+     */
+    private class RunGenerator implements Callable<List<Run>> {
+
+        /**
+         * The input format.
+         */
+        private final InputFormat<Text, Text> inf;
+
+        /**
+         * The job configuration.
+         */
+        private final JobConf conf;
+
+        /**
+         * The split.
+         */
+        private final InputSplit split;
+
+        /**
+         * Constructor.
+         *
+         * @param inf   the input format
+         * @param conf  the job configuration
+         * @param split the split
+         */
+        @SuppressWarnings("unchecked")
+        RunGenerator(final InputFormat inf, final JobConf conf, final InputSplit split) {
+            this.inf = (InputFormat<Text, Text>) inf;
+            this.conf = conf;
+            this.split = split;
+        }
+
+        @Override
+        public List<Run> call() throws IOException {
+            List<Run> result = new ArrayList<Run>();
+            List<Record> records = new ArrayList<Record>();
+            long buffered = 0;
+            RecordReader<Text, Text> reader = inf.getRecordReader(split, conf, Reporter.NULL);
+            try {
+                Text key = reader.createKey();
+                Text line = reader.createValue();
+                while (reader.next(key, line)) {
+                    records.add(new Record(key, line));
+                    buffered += key.getLength() + line.getLength() + RECORD_OVERHEAD;
+                    key = reader.createKey();
+                    line = reader.createValue();
+                    if (buffered >= spillBytes) {
+                        result.add(spill(records));
+                        buffered = 0;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (!records.isEmpty()) {
+                result.add(spill(records));
+            }
+            return result;
+        }
+    }
+}
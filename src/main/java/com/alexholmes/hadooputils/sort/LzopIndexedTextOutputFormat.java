@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link TextOutputFormat} for LZOP-compressed output which writes the LZO index of each
+ * output file as it's compressed, rather than re-reading the file afterwards with
+ * {@link com.hadoop.compression.lzo.LzoIndexer}. The offset of each compressed block is
+ * appended to the index as the block is written, and the index is written next to the
+ * output file with the {@link LzoIndex#LZO_INDEX_SUFFIX} suffix, so both are committed
+ * together when the task finishes.
+ * <p/>
+ * If the output isn't compressed with {@link LzopCodec} this behaves the same as
+ * {@link TextOutputFormat}.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LzopIndexedTextOutputFormat<K, V> extends TextOutputFormat<K, V> {
+
+    @Override
+    public RecordWriter<K, V> getRecordWriter(final FileSystem ignored, final JobConf job,
+                                              final String name, final Progressable progress)
+            throws IOException {
+        if (!getCompressOutput(job)) {
+            return super.getRecordWriter(ignored, job, name, progress);
+        }
+        Class<? extends CompressionCodec> codecClass =
+                getOutputCompressorClass(job, LzopCodec.class);
+        if (!LzopCodec.class.isAssignableFrom(codecClass)) {
+            return super.getRecordWriter(ignored, job, name, progress);
+        }
+
+        LzopCodec codec = (LzopCodec) ReflectionUtils.newInstance(codecClass, job);
+        Path file = FileOutputFormat.getTaskOutputPath(job,
+                name + codec.getDefaultExtension());
+        Path index = file.suffix(LzoIndex.LZO_INDEX_SUFFIX);
+        FileSystem fs = file.getFileSystem(job);
+        FSDataOutputStream fileOut = fs.create(file, progress);
+        FSDataOutputStream indexOut;
+        try {
+            indexOut = fs.create(index, progress);
+        } catch (IOException e) {
+            fileOut.close();
+            throw e;
+        }
+        String separator = job.get("mapred.textoutputformat.separator", "\t");
+        return new LineRecordWriter<K, V>(new DataOutputStream(
+                codec.createIndexedOutputStream(fileOut, indexOut)), separator);
+    }
+}
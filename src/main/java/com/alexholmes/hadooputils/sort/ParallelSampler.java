@@ -0,0 +1,336 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.InputSampler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A sampler which works like {@link InputSampler.RandomSampler}, except that splits are read
+ * concurrently by a bounded pool of threads, and sampling stops once a time budget has been
+ * used up. Keys are produced by the job's {@link InputFormat}, which for {@link Sort} is
+ * {@link SortInputFormat}, so the samples are the extracted sort keys.
+ * <p/>
+ * Each split contributes at most its share of the total number of samples, which it selects
+ * with reservoir sampling. When the time budget runs out the splits which are being read
+ * stop early and contribute what they have so far, and the splits which haven't been
+ * started are skipped.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ParallelSampler<K, V> implements InputSampler.Sampler<K, V> {
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(ParallelSampler.class);
+
+    /**
+     * The default number of threads used to read splits.
+     */
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * How many records are read between checks of the clock. Splits also stop as soon as
+     * another thread notices that the time budget has been used up.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    /**
+     * The probability with which a key will be chosen.
+     */
+    private final double freq;
+
+    /**
+     * The total number of samples to obtain from all selected splits.
+     */
+    private final int numSamples;
+
+    /**
+     * The maximum number of splits to examine.
+     */
+    private final int maxSplitsSampled;
+
+    /**
+     * The number of threads used to read splits.
+     */
+    private final int threads;
+
+    /**
+     * The time budget in milliseconds, or 0 if there isn't one.
+     */
+    private final long timeBudgetMillis;
+
+    /**
+     * Set once the time budget has been used up, to stop the splits which are being read.
+     */
+    private final AtomicBoolean expired = new AtomicBoolean();
+
+    /**
+     * The number of splits which weren't read because the time budget was used up.
+     */
+    private final AtomicInteger skippedSplits = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param freq             probability with which a key will be chosen
+     * @param numSamples       total number of samples to obtain from all selected splits
+     * @param maxSplitsSampled the maximum number of splits to examine
+     * @param threads          the number of threads used to read splits
+     * @param timeBudgetMillis the time budget in milliseconds, or 0 if there isn't one
+     */
+    public ParallelSampler(final double freq, final int numSamples, final int maxSplitsSampled,
+                           final int threads, final long timeBudgetMillis) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one sampling thread is required");
+        }
+        this.freq = freq;
+        this.numSamples = numSamples;
+        this.maxSplitsSampled = maxSplitsSampled;
+        this.threads = threads;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K[] getSample(final InputFormat<K, V> inf, final JobConf job) throws IOException {
+        InputSplit[] splits = inf.getSplits(job, job.getNumMapTasks());
+        Random r = new Random();
+        long seed = r.nextLong();
+        r.setSeed(seed);
+        LOG.debug("seed: " + seed);
+
+        // shuffle the splits so that the ones we sample are spread across the input
+        //
+        for (int i = 0; i < splits.length; ++i) {
+            InputSplit tmp = splits[i];
+            int j = r.nextInt(splits.length);
+            splits[i] = splits[j];
+            splits[j] = tmp;
+        }
+
+        int splitsToSample = Math.min(maxSplitsSampled, splits.length);
+        if (splitsToSample == 0) {
+            return (K[]) new Object[0];
+        }
+        int samplesPerSplit = Math.max(1, (numSamples + splitsToSample - 1) / splitsToSample);
+
+        long start = System.currentTimeMillis();
+        long deadline = timeBudgetMillis > 0 ? start + timeBudgetMillis : Long.MAX_VALUE;
+        expired.set(false);
+        skippedSplits.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, splitsToSample));
+        List<Future<List<K>>> futures = new ArrayList<Future<List<K>>>();
+        try {
+            for (int i = 0; i < splitsToSample; i++) {
+                futures.add(executor.submit(new SplitSampler(inf, job, splits[i],
+                        samplesPerSplit, r.nextLong(), deadline)));
+            }
+            executor.shutdown();
+
+            List<K> samples = new ArrayList<K>();
+            for (Future<List<K>> future : futures) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    expired.set(true);
+                }
+                try {
+                    if (!expired.get()) {
+                        samples.addAll(future.get(remaining, TimeUnit.MILLISECONDS));
+                        continue;
+                    }
+                } catch (TimeoutException e) {
+                    expired.set(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while sampling");
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to sample split", e.getCause());
+                }
+
+                // the split has been told to stop, so wait for it to hand over whatever
+                // it has sampled
+                //
+                samples.addAll(get(future));
+            }
+
+            int skipped = skippedSplits.get();
+            if (skipped > 0) {
+                LOG.warn("Sampling time budget of " + timeBudgetMillis + "ms used up, skipped "
+                        + skipped + " of " + splitsToSample + " splits");
+            }
+            LOG.info("Sampled " + samples.size() + " keys from " + (splitsToSample - skipped)
+                    + " splits in " + (System.currentTimeMillis() - start) + "ms");
+
+            // the per-split quotas are rounded up, so trim any excess
+            //
+            while (samples.size() > numSamples) {
+                int idx = r.nextInt(samples.size());
+                samples.set(idx, samples.get(samples.size() - 1));
+                samples.remove(samples.size() - 1);
+            }
+            return (K[]) samples.toArray();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for a split which has been told to stop.
+     *
+     * @param future the split
+     * @return the samples from the split
+     * @throws IOException if the split failed
+     */
+    private List<K> get(final Future<List<K>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sampling");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to sample split", e.getCause());
+        }
+    }
+
+    /**
+     * Samples a single split.
+     */
+    private class SplitSampler implements Callable<List<K>> {
+
+        /**
+         * The input format.
+         */
+        private final InputFormat<K, V> inf;
+
+        /**
+         * The job configuration.
+         */
+        private final JobConf job;
+
+        /**
+         * The split.
+         */
+        private final InputSplit split;
+
+        /**
+         * The maximum number of samples to take from the split.
+         */
+        private final int maxSamples;
+
+        /**
+         * The random number generator seed.
+         */
+        private final long seed;
+
+        /**
+         * The time at which sampling stops.
+         */
+        private final long deadline;
+
+        /**
+         * Constructor.
+         *
+         * @param inf        the input format
+         * @param job        the job configuration
+         * @param split      the split
+         * @param maxSamples the maximum number of samples to take from the split
+         * @param seed       the random number generator seed
+         * @param deadline   the time at which sampling stops
+         */
+        SplitSampler(final InputFormat<K, V> inf, final JobConf job, final InputSplit split,
+                     final int maxSamples, final long seed, final long deadline) {
+            this.inf = inf;
+            this.job = job;
+            this.split = split;
+            this.maxSamples = maxSamples;
+            this.seed = seed;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public List<K> call() throws IOException {
+            Random r = new Random(seed);
+            List<K> samples = new ArrayList<K>();
+            if (expired.get()) {
+                skippedSplits.incrementAndGet();
+                return samples;
+            }
+            RecordReader<K, V> reader = inf.getRecordReader(split, job, Reporter.NULL);
+            try {
+                K key = reader.createKey();
+                V value = reader.createValue();
+                long records = 0;
+                long chosen = 0;
+                while (reader.next(key, value)) {
+                    if (expired.get()) {
+                        break;
+                    }
+                    if (++records % DEADLINE_CHECK_INTERVAL == 0
+                            && System.currentTimeMillis() > deadline) {
+                        expired.set(true);
+                        break;
+                    }
+                    if (r.nextDouble() > freq) {
+                        continue;
+                    }
+                    // reservoir sampling, so that every chosen key is equally likely to
+                    // be kept
+                    //
+                    chosen++;
+                    if (samples.size() < maxSamples) {
+                        samples.add(key);
+                        key = reader.createKey();
+                    } else {
+                        long idx = (long) (r.nextDouble() * chosen);
+                        if (idx < maxSamples) {
+                            samples.set((int) idx, key);
+                            key = reader.createKey();
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return samples;
+        }
+    }
+}
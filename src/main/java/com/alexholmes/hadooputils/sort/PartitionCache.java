@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache of total-order partition boundaries for sorts which are run repeatedly over
+ * similar inputs. Entries are keyed by the input path pattern, the key plan and the number
+ * of reducers, and hold the weighted candidate keys of a {@link PartitionPlan}.
+ * <p/>
+ * The candidates and their initial weights come from a sampler. After each job the weights
+ * are refined using the number of bytes that each reducer actually received, on the
+ * assumption that bytes are spread across a partition in proportion to the weights of the
+ * candidates within it. The refined weights are blended with the previous ones, so the
+ * partitions become more balanced over successive runs without over-reacting to a single
+ * run.
+ * <p/>
+ * An entry is used in place of sampling as long as it was refreshed within the configured
+ * time to live, and has enough distinct candidates for the number of reducers.
+ */
+public class PartitionCache extends PartitionPlan {
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(PartitionCache.class);
+
+    /**
+     * How much of the weight comes from the latest job when the weights are refined.
+     */
+    private static final double REFINE_RATE = 0.5;
+
+    /**
+     * The cache entry.
+     */
+    private final Path entry;
+
+    /**
+     * Constructor.
+     *
+     * @param job          the job configuration, with the number of reducers already set
+     * @param cacheDir     the directory which holds the cache entries
+     * @param inputPattern the input path pattern
+     */
+    public PartitionCache(final JobConf job, final Path cacheDir, final String inputPattern) {
+        super(job);
+
+        // keys compared by SortCaseFoldingComparator have the same key definitions as plain
+        // whole lines, but their boundaries are in a different order
+        //
+        SortConfig sortConfig = new SortConfig(job);
+        String id = inputPattern
+                + "\n" + sortConfig.createKeyExtractor().getKeys()
+                + "\n" + sortConfig.getFieldSeparator("")
+                + "\n" + getNumPartitions()
+                + (sortConfig.getComparatorFoldsCase() ? "\nfolded" : "");
+        this.entry = new Path(cacheDir, MD5Hash.digest(id).toString());
+    }
+
+    /**
+     * Get the path of the cache entry.
+     *
+     * @return the cache entry
+     */
+    public Path getEntry() {
+        return entry;
+    }
+
+    /**
+     * Get the path where the partition file for the job is written.
+     *
+     * @return the partition file
+     */
+    public Path getPartitionFile() {
+        return entry.suffix(".partitions");
+    }
+
+    /**
+     * Load the cache entry, if there's one which is still valid.
+     *
+     * @param ttlMillis the number of milliseconds for which an entry remains valid after it
+     *                  was last refreshed
+     * @return true if the entry was loaded
+     * @throws IOException if something goes wrong
+     */
+    public boolean load(final long ttlMillis) throws IOException {
+        FileSystem fs = entry.getFileSystem(getJob());
+        if (!fs.exists(entry)) {
+            return false;
+        }
+        FileStatus status = fs.getFileStatus(entry);
+        if (System.currentTimeMillis() - status.getModificationTime() > ttlMillis) {
+            LOG.info("Partition cache entry " + entry + " has expired");
+            return false;
+        }
+
+        List<Text> keys = new ArrayList<Text>();
+        List<Double> loaded = new ArrayList<Double>();
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, entry, getJob());
+        try {
+            Text key = new Text();
+            DoubleWritable weight = new DoubleWritable();
+            while (reader.next(key, weight)) {
+                keys.add(new Text(key));
+                loaded.add(weight.get());
+            }
+        } finally {
+            reader.close();
+        }
+        double[] weights = new double[loaded.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = loaded.get(i);
+        }
+        setCandidates(keys, weights);
+
+        if (!hasEnoughCandidates()) {
+            LOG.info("Partition cache entry " + entry + " doesn't have enough candidates");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Refine the candidate weights using the number of bytes received by each partition.
+     * Each partition's share of the bytes is spread over its candidates in proportion to
+     * their current weights, and then blended with the current weights. Partitions which
+     * only hold a split heavy key credit their bytes to that key.
+     *
+     * @param partitionBytes the number of bytes received by each partition
+     * @throws IOException if something goes wrong
+     */
+    public void refine(final long[] partitionBytes) throws IOException {
+        int numPartitions = getNumPartitions();
+        if (partitionBytes.length != numPartitions) {
+            throw new IllegalArgumentException("Expected byte counts for " + numPartitions
+                    + " partitions, but got " + partitionBytes.length);
+        }
+        int[] boundaries = getBoundaries();
+        double[] weights = getWeights();
+        int numCandidates = getCandidates().size();
+
+        double totalBytes = 0;
+        for (long bytes : partitionBytes) {
+            totalBytes += bytes;
+        }
+        if (totalBytes == 0) {
+            return;
+        }
+
+        double[] refined = new double[weights.length];
+        int start = 0;
+        for (int p = 0; p < numPartitions; p++) {
+            int end = p < boundaries.length ? boundaries[p] : numCandidates;
+            if (start == end) {
+                refined[start] += partitionBytes[p] / totalBytes;
+                continue;
+            }
+            double partitionWeight = 0;
+            for (int i = start; i < end; i++) {
+                partitionWeight += weights[i];
+            }
+            for (int i = start; i < end; i++) {
+                double share = partitionWeight > 0
+                        ? weights[i] / partitionWeight : 1.0 / (end - start);
+                refined[i] += share * partitionBytes[p] / totalBytes;
+            }
+            start = end;
+        }
+
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (1 - REFINE_RATE) * weights[i] / total + REFINE_RATE * refined[i];
+        }
+    }
+
+    /**
+     * Write the candidates and their weights to the cache entry.
+     *
+     * @throws IOException if something goes wrong
+     */
+    public void save() throws IOException {
+        FileSystem fs = entry.getFileSystem(getJob());
+        Path tmp = entry.suffix(".tmp");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, getJob(), tmp,
+                Text.class, DoubleWritable.class);
+        try {
+            List<Text> candidates = getCandidates();
+            double[] weights = getWeights();
+            DoubleWritable weight = new DoubleWritable();
+            for (int i = 0; i < candidates.size(); i++) {
+                weight.set(weights[i]);
+                writer.append(candidates.get(i), weight);
+            }
+        } finally {
+            writer.close();
+        }
+        fs.delete(entry, false);
+        if (!fs.rename(tmp, entry)) {
+            throw new IOException("Failed to rename " + tmp + " to " + entry);
+        }
+    }
+
+    /**
+     * Get the number of bytes received by each reducer of a finished job, with
+     * {@link SortReport#getReducerBytes}.
+     *
+     * @param client    the job client
+     * @param result    the finished job
+     * @param outputDir the job output directory
+     * @return the number of bytes received by each reducer
+     * @throws IOException if something goes wrong
+     */
+    public long[] getPartitionBytes(final JobClient client, final RunningJob result,
+                                    final Path outputDir) throws IOException {
+        return SortReport.getReducerBytes(getJob(), client, result, outputDir,
+                getNumPartitions());
+    }
+}
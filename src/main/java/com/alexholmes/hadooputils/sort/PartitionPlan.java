@@ -0,0 +1,391 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.InputSampler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the total-order partition boundaries from a set of weighted candidate keys, so that
+ * every partition receives an equal share of the weight. The candidates come from a sampler,
+ * with duplicate samples collapsed into a single candidate whose weight is the number of
+ * times it was sampled.
+ * <p/>
+ * If heavy keys can be split, a candidate whose weight is at least a partition's share can
+ * be used as several consecutive boundaries. Its records are then spread over a run of
+ * adjacent partitions by {@link SkewTotalOrderPartitioner}, which keeps the output in total
+ * order since the partitions in between only hold that one key. Heavy keys can't be split
+ * for unique sorts, since every copy of a key has to reach the same reducer.
+ */
+public class PartitionPlan {
+
+    /**
+     * The job configuration.
+     */
+    private final JobConf job;
+
+    /**
+     * The number of partitions.
+     */
+    private final int numPartitions;
+
+    /**
+     * Whether a heavy key can be used as more than one boundary.
+     */
+    private final boolean splitHeavyKeys;
+
+    /**
+     * Whether the sampled keys have a position suffix, for stable sorts.
+     */
+    private final boolean stable;
+
+    /**
+     * The candidate keys, in sorted order.
+     */
+    private final List<Text> candidates = new ArrayList<Text>();
+
+    /**
+     * The weight of each candidate, which is the share of the input which sorts at or after
+     * it, and before the next candidate.
+     */
+    private double[] weights = new double[0];
+
+    /**
+     * Constructor.
+     *
+     * @param job the job configuration, with the number of reducers already set
+     */
+    public PartitionPlan(final JobConf job) {
+        this.job = job;
+        this.numPartitions = job.getNumReduceTasks();
+        SortConfig sortConfig = new SortConfig(job);
+        this.stable = sortConfig.getStable();
+        this.splitHeavyKeys = sortConfig.getSplitHeavyKeys() && !sortConfig.getUnique()
+                && !sortConfig.getCount() && !stable;
+    }
+
+    /**
+     * Get the job configuration.
+     *
+     * @return the job configuration
+     */
+    protected JobConf getJob() {
+        return job;
+    }
+
+    /**
+     * Get the number of partitions.
+     *
+     * @return the number of partitions
+     */
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * Get the candidate keys.
+     *
+     * @return the candidates, in sorted order
+     */
+    protected List<Text> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Get the candidate weights.
+     *
+     * @return the weight of each candidate
+     */
+    protected double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Replace the candidates.
+     *
+     * @param keys       the candidate keys, in sorted order
+     * @param newWeights the weight of each candidate
+     */
+    protected void setCandidates(final List<Text> keys, final double[] newWeights) {
+        candidates.clear();
+        candidates.addAll(keys);
+        weights = newWeights;
+    }
+
+    /**
+     * Populate the candidates by sampling the input. Duplicate samples are collapsed into a
+     * single candidate whose weight is the number of times it was sampled.
+     *
+     * @param sampler the sampler
+     * @param <K>     the key type
+     * @param <V>     the value type
+     * @throws IOException if something goes wrong
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> void sample(final InputSampler.Sampler<K, V> sampler) throws IOException {
+        InputFormat<K, V> inf = job.getInputFormat();
+        K[] samples = sampler.getSample(inf, job);
+        if (stable) {
+            // the split points are sort keys, so that all the lines with the same key go to
+            // the same reducer
+            //
+            for (int i = 0; i < samples.length; i++) {
+                Text sample = (Text) samples[i];
+                Text key = new Text();
+                key.set(sample.getBytes(), 0,
+                        SortStableGroupingComparator.keyLength(sample.getLength()));
+                samples[i] = (K) key;
+            }
+        }
+        final RawComparator<K> comparator = job.getOutputKeyComparator();
+        Arrays.sort(samples, comparator);
+
+        List<Text> keys = new ArrayList<Text>();
+        List<Double> sampled = new ArrayList<Double>();
+        for (K sample : samples) {
+            int last = keys.size() - 1;
+            if (last >= 0 && comparator.compare((K) keys.get(last), sample) == 0) {
+                sampled.set(last, sampled.get(last) + 1);
+            } else {
+                keys.add(new Text((Text) sample));
+                sampled.add(1.0);
+            }
+        }
+        double[] counts = new double[sampled.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = sampled.get(i);
+        }
+        setCandidates(keys, counts);
+    }
+
+    /**
+     * Whether there are enough distinct candidates to choose the boundaries from.
+     *
+     * @return true if there are enough candidates
+     */
+    public boolean hasEnoughCandidates() {
+        if (numPartitions <= 1) {
+            return true;
+        }
+        return candidates.size() >= (splitHeavyKeys ? 2 : numPartitions);
+    }
+
+    /**
+     * Choose the boundaries which split the candidates into partitions of equal weight.
+     *
+     * @return the indexes of the candidates which start partitions 1 onwards, which are
+     *         strictly increasing unless heavy keys are split
+     * @throws IOException if there aren't enough distinct candidates
+     */
+    int[] getBoundaries() throws IOException {
+        if (!hasEnoughCandidates()) {
+            throw new IOException("Only " + candidates.size() + " distinct keys were sampled,"
+                    + " which isn't enough for " + numPartitions + " partitions");
+        }
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double share = total / numPartitions;
+
+        int[] boundaries = new int[numPartitions - 1];
+        double before = 0;
+        int idx = 0;
+        for (int i = 1; i < numPartitions; i++) {
+            double target = share * i;
+            while (idx < candidates.size()) {
+                // a heavy key is used as the boundary for every target it covers, otherwise
+                // the boundary is the candidate closest to the target
+                //
+                boolean heavy = splitHeavyKeys && weights[idx] >= share
+                        && before + weights[idx] > target;
+                if (heavy || before + weights[idx] / 2 >= target) {
+                    break;
+                }
+                before += weights[idx];
+                idx++;
+            }
+
+            int boundary;
+            if (splitHeavyKeys) {
+                boundary = Math.max(idx, i == 1 ? 1 : boundaries[i - 2]);
+                boundary = Math.min(boundary, candidates.size() - 1);
+            } else {
+                // boundaries have to be strictly increasing, and leave a candidate for each
+                // of the remaining partitions
+                //
+                boundary = Math.max(idx, i == 1 ? 1 : boundaries[i - 2] + 1);
+                boundary = Math.min(boundary, candidates.size() - (numPartitions - i));
+            }
+            boundaries[i - 1] = boundary;
+        }
+        return boundaries;
+    }
+
+    /**
+     * Describe the heavy keys which are spread over more than one partition.
+     *
+     * @return one line per split key, giving the key and the partitions it's spread over
+     * @throws IOException if there aren't enough distinct candidates
+     */
+    public List<String> getSplitKeys() throws IOException {
+        List<String> splits = new ArrayList<String>();
+        int[] boundaries = getBoundaries();
+        for (int i = 0; i < boundaries.length; i++) {
+            int j = i;
+            while (j + 1 < boundaries.length && boundaries[j + 1] == boundaries[i]) {
+                j++;
+            }
+            if (j > i) {
+                // the key's records can go to any partition from the one before its first
+                // boundary through to the one starting at its last boundary
+                //
+                splits.add("key '" + printable(candidates.get(boundaries[i]))
+                        + "' split across reducers " + i + "-" + (j + 1));
+            }
+            i = j;
+        }
+        return splits;
+    }
+
+    /**
+     * Whether any heavy keys are spread over more than one partition.
+     *
+     * @return true if any boundaries are repeated
+     * @throws IOException if there aren't enough distinct candidates
+     */
+    public boolean hasSplitKeys() throws IOException {
+        return !getSplitKeys().isEmpty();
+    }
+
+    /**
+     * Get the share of the sampled input which the boundaries send to each partition. A
+     * heavy key which is split across partitions is shared equally between them, as
+     * {@link SkewTotalOrderPartitioner} spreads it.
+     *
+     * @return the share of each partition, which add up to 1 unless nothing was sampled
+     * @throws IOException if there aren't enough distinct candidates
+     */
+    public double[] getPartitionShares() throws IOException {
+        int[] boundaries = getBoundaries();
+        double[] shares = new double[numPartitions];
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        if (total == 0) {
+            return shares;
+        }
+
+        int start = 0;
+        for (int p = 0; p < numPartitions; p++) {
+            int end = p < boundaries.length ? boundaries[p] : candidates.size();
+            for (int c = start; c < end; c++) {
+                shares[p] += weights[c] / total;
+            }
+            start = Math.max(start, end);
+        }
+
+        // a run of equal boundaries puts all of the key in the partition after the run, but
+        // it's spread from the partition before the run through to that one
+        //
+        for (int i = 0; i < boundaries.length; i++) {
+            int j = i;
+            while (j + 1 < boundaries.length && boundaries[j + 1] == boundaries[i]) {
+                j++;
+            }
+            if (j > i) {
+                double share = weights[boundaries[i]] / total;
+                shares[j + 1] -= share;
+                for (int p = i; p <= j + 1; p++) {
+                    shares[p] += share / (j - i + 2);
+                }
+            }
+            i = j;
+        }
+        return shares;
+    }
+
+    /**
+     * Get the keys which start partitions 1 onwards.
+     *
+     * @return the split points, in sorted order
+     * @throws IOException if there aren't enough distinct candidates
+     */
+    public List<Text> getSplitPoints() throws IOException {
+        List<Text> points = new ArrayList<Text>();
+        for (int boundary : getBoundaries()) {
+            points.add(candidates.get(boundary));
+        }
+        return points;
+    }
+
+    /**
+     * Write the partition file read by {@link SkewTotalOrderPartitioner} and
+     * {@link org.apache.hadoop.mapred.lib.TotalOrderPartitioner}.
+     *
+     * @param partitionFile the partition file
+     * @throws IOException if something goes wrong
+     */
+    public void writePartitionFile(final Path partitionFile) throws IOException {
+        List<Text> points = getSplitPoints();
+        FileSystem fs = partitionFile.getFileSystem(job);
+        fs.delete(partitionFile, false);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, job, partitionFile,
+                job.getMapOutputKeyClass(), NullWritable.class);
+        try {
+            for (Text point : points) {
+                writer.append(point, NullWritable.get());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Render a key for display, escaping bytes which aren't printable ASCII. Typed keys are
+     * binary, so this shows their encoded form.
+     *
+     * @param key the key
+     * @return the printable key
+     */
+    static String printable(final Text key) {
+        StringBuilder sb = new StringBuilder();
+        byte[] bytes = key.getBytes();
+        for (int i = 0; i < key.getLength(); i++) {
+            int b = bytes[i] & 0xff;
+            if (b >= 0x20 && b < 0x7f && b != '\\') {
+                sb.append((char) b);
+            } else {
+                sb.append(String.format("\\x%02x", b));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the number of reducers for a sort from the size of its input, so that each reducer
+ * receives roughly {@link SortConfig#getBytesPerReducer()} bytes.
+ * <p/>
+ * A few splits are sampled to find the average line length, the compression ratio of the
+ * input files and the number of distinct sort keys. The distinct keys in the whole input are
+ * estimated from the sample with the Guaranteed-Error Estimator of Charikar et al., which
+ * scales up the keys seen only once in the sample and counts the repeated keys as they are.
+ * The number of reducers is never more than the estimated number of distinct keys, since
+ * every copy of a key normally goes to the same reducer, and for unique sorts the bytes are
+ * scaled down by the fraction of lines which are distinct, as they are for --count.
+ */
+public class ReducerEstimator {
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(ReducerEstimator.class);
+
+    /**
+     * The maximum number of splits which are sampled.
+     */
+    static final int SAMPLE_SPLITS = 10;
+
+    /**
+     * The maximum number of records read from each sampled split.
+     */
+    static final int RECORDS_PER_SPLIT = 1000;
+
+    /**
+     * The maximum number of compressed bytes read from each sampled file to find its
+     * compression ratio.
+     */
+    static final int COMPRESSED_SAMPLE_BYTES = 1024 * 1024;
+
+    /**
+     * The job configuration.
+     */
+    private final JobConf job;
+
+    /**
+     * The maximum number of reducers, which is the cluster's capacity.
+     */
+    private final int maxReducers;
+
+    /**
+     * Why the last estimate was chosen.
+     */
+    private String summary;
+
+    /**
+     * Constructor.
+     *
+     * @param job         the job configuration, with the input paths set
+     * @param maxReducers the maximum number of reducers
+     */
+    public ReducerEstimator(final JobConf job, final int maxReducers) {
+        this.job = job;
+        this.maxReducers = Math.max(1, maxReducers);
+    }
+
+    /**
+     * Sample the input and pick the number of reducers.
+     *
+     * @return the number of reducers
+     * @throws IOException if something goes wrong
+     */
+    public int estimate() throws IOException {
+        SortConfig sortConfig = new SortConfig(job);
+        long inputBytes = LocalSortEngine.getInputSize(job);
+
+        // the key and line are read separately, since the line lengths are needed, and the
+        // keys are read without the position suffix of stable sorts so that they can be counted
+        //
+        JobConf conf = new JobConf(job);
+        new SortConfig(conf).setKeyIsLine(false).setStable(false);
+        SortInputFormat inf = new SortInputFormat();
+        inf.configure(conf);
+        InputSplit[] splits = inf.getSplits(conf, conf.getNumMapTasks());
+
+        // spread the sampled splits evenly over the input
+        //
+        int step = Math.max(1, splits.length / SAMPLE_SPLITS);
+        long records = 0;
+        long lineBytes = 0;
+        Map<Text, Integer> keys = new HashMap<Text, Integer>();
+        Set<Path> files = new LinkedHashSet<Path>();
+        for (int i = 0; i < splits.length && i / step < SAMPLE_SPLITS; i += step) {
+            if (splits[i] instanceof FileSplit) {
+                files.add(((FileSplit) splits[i]).getPath());
+            }
+            RecordReader<Text, Text> reader = getRecordReader(inf, conf, splits[i]);
+            try {
+                Text key = reader.createKey();
+                Text line = reader.createValue();
+                for (int n = 0; n < RECORDS_PER_SPLIT && reader.next(key, line); n++) {
+                    records++;
+                    lineBytes += line.getLength() + 1;
+                    Integer count = keys.get(key);
+                    if (count == null) {
+                        keys.put(key, 1);
+                        key = reader.createKey();
+                    } else {
+                        keys.put(key, count + 1);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        double ratio = getCompressionRatio(files);
+        long uncompressedBytes = (long) (inputBytes * ratio);
+        long singletons = 0;
+        for (Integer count : keys.values()) {
+            if (count == 1) {
+                singletons++;
+            }
+        }
+        long totalRecords = records == 0 ? 0 : uncompressedBytes * records / lineBytes;
+        long distinct = estimateDistinct(records, keys.size(), singletons, totalRecords);
+        double outputFraction = (sortConfig.getUnique() || sortConfig.getCount())
+                && totalRecords > 0
+                ? Math.min(1.0, (double) distinct / totalRecords) : 1.0;
+        long bytesPerReducer = sortConfig.getBytesPerReducer();
+
+        int reducers = choose(uncompressedBytes, outputFraction, distinct, bytesPerReducer,
+                maxReducers);
+
+        StringBuilder sb = new StringBuilder()
+                .append("Chose ").append(reducers).append(" reduces for ")
+                .append(StringUtils.byteDesc(inputBytes)).append(" of input");
+        if (ratio != 1.0) {
+            sb.append(String.format(" (%s uncompressed, compression ratio %.1f)",
+                    StringUtils.byteDesc(uncompressedBytes), ratio));
+        }
+        sb.append(" with ~").append(totalRecords).append(" lines and ~").append(distinct)
+                .append(" distinct keys");
+        if (outputFraction < 1.0) {
+            sb.append(String.format(" (%.0f%% of the lines are kept by -u or --count)",
+                    outputFraction * 100));
+        }
+        sb.append(", aiming at ").append(StringUtils.byteDesc(bytesPerReducer))
+                .append(" per reducer");
+        long wanted = reducersFor((long) (uncompressedBytes * outputFraction), bytesPerReducer);
+        if (reducers < wanted) {
+            sb.append(reducers == maxReducers && maxReducers <= distinct
+                    ? ", capped at the cluster's " + maxReducers + " reduce slots"
+                    : ", capped at the number of distinct keys");
+        }
+        summary = sb.toString();
+        LOG.info(summary + " from " + records + " lines sampled from " + files.size()
+                + " files");
+        return reducers;
+    }
+
+    /**
+     * Get why the last estimate was chosen.
+     *
+     * @return the reasoning behind the last estimate, or null if there hasn't been one
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    /**
+     * Estimate the number of distinct keys in the input from a sample, using the
+     * Guaranteed-Error Estimator. Keys which were seen more than once are likely to be
+     * common, so they are counted once, whereas each key seen only once stands for about
+     * {@code sqrt(total / sampled)} distinct keys.
+     *
+     * @param sampled    the number of sampled records
+     * @param distinct   the number of distinct keys in the sample
+     * @param singletons the number of keys which were seen once in the sample
+     * @param total      the estimated number of records in the input
+     * @return the estimated number of distinct keys in the input, which is at most
+     *         {@code total}
+     */
+    static long estimateDistinct(final long sampled, final long distinct,
+                                 final long singletons, final long total) {
+        if (sampled == 0 || total <= sampled) {
+            return Math.min(total, distinct);
+        }
+        double estimate = Math.sqrt((double) total / sampled) * singletons
+                + (distinct - singletons);
+        return Math.min(total, Math.max(distinct, (long) estimate));
+    }
+
+    /**
+     * Pick the number of reducers.
+     *
+     * @param uncompressedBytes the number of uncompressed input bytes
+     * @param outputFraction    the fraction of the input which reaches the reducers
+     * @param distinct          the estimated number of distinct keys
+     * @param bytesPerReducer   the number of bytes each reducer should receive
+     * @param maxReducers       the maximum number of reducers
+     * @return the number of reducers
+     */
+    static int choose(final long uncompressedBytes, final double outputFraction,
+                      final long distinct, final long bytesPerReducer, final int maxReducers) {
+        long reducers = reducersFor((long) (uncompressedBytes * outputFraction),
+                bytesPerReducer);
+        reducers = Math.min(reducers, Math.max(1, distinct));
+        return (int) Math.max(1, Math.min(reducers, maxReducers));
+    }
+
+    /**
+     * The number of reducers needed for each to receive at most the supplied bytes.
+     *
+     * @param bytes           the number of bytes
+     * @param bytesPerReducer the number of bytes each reducer should receive
+     * @return the number of reducers
+     */
+    private static long reducersFor(final long bytes, final long bytesPerReducer) {
+        return Math.max(1, (bytes + bytesPerReducer - 1) / bytesPerReducer);
+    }
+
+    /**
+     * Find the ratio of uncompressed to compressed bytes by decompressing the start of each
+     * compressed file. Uncompressed files have a ratio of 1.
+     *
+     * @param files the files
+     * @return the ratio, which is 1 if none of the files are compressed
+     * @throws IOException if something goes wrong
+     */
+    private double getCompressionRatio(final Set<Path> files) throws IOException {
+        CompressionCodecFactory factory = new CompressionCodecFactory(job);
+        long compressed = 0;
+        long uncompressed = 0;
+        byte[] buf = new byte[64 * 1024];
+        for (Path file : files) {
+            CompressionCodec codec = factory.getCodec(file);
+            if (codec == null) {
+                // uncompressed files count towards the ratio with the same weight
+                //
+                long sample = Math.min(COMPRESSED_SAMPLE_BYTES,
+                        file.getFileSystem(job).getFileStatus(file).getLen());
+                compressed += sample;
+                uncompressed += sample;
+                continue;
+            }
+            CountingInputStream raw = new CountingInputStream(
+                    file.getFileSystem(job).open(file));
+            InputStream in = codec.createInputStream(raw);
+            try {
+                int n;
+                while (raw.getByteCount() < COMPRESSED_SAMPLE_BYTES
+                        && (n = in.read(buf)) > 0) {
+                    uncompressed += n;
+                }
+                compressed += raw.getByteCount();
+            } finally {
+                in.close();
+            }
+        }
+        if (compressed == 0) {
+            return 1.0;
+        }
+        return Math.max(1.0, (double) uncompressed / compressed);
+    }
+
+    /**
+     * Open a split.
+     *
+     * @param inf   the input format
+     * @param conf  the job configuration
+     * @param split the split
+     * @return the record reader
+     * @throws IOException if something goes wrong
+     */
+    @SuppressWarnings("unchecked")
+    private static RecordReader<Text, Text> getRecordReader(final SortInputFormat inf,
+                                                            final JobConf conf,
+                                                            final InputSplit split)
+            throws IOException {
+        return inf.getRecordReader(split, conf, Reporter.NULL);
+    }
+}
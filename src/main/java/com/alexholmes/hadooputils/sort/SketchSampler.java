@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.mapred.lib.InputSampler;
+import org.apache.hadoop.mapred.lib.TotalOrderPartitioner;
+
+import java.io.IOException;
+
+/**
+ * A sampler which runs a map-only job over every split of the input. Each map task builds a
+ * {@link KeySketch} of the sort keys produced by the job's input format, and the client
+ * merges the sketches and returns a fixed number of evenly spaced quantiles per reducer,
+ * from which {@link PartitionPlan} chooses the {@link TotalOrderPartitioner} split points.
+ * A heavy key shows up as a run of equal quantiles.
+ * <p/>
+ * Unlike the client-side samplers this looks at every key, so the partitions are balanced
+ * even when the input is skewed, and memory use is bounded by the sketch size rather than
+ * the number of samples. The sketches are written next to the partition file and are removed
+ * once they have been merged.
+ * <p/>
+ * The keys returned by {@link #getSample} are {@link Text}s, which is the map output key
+ * type of {@link Sort} jobs.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class SketchSampler<K, V> implements InputSampler.Sampler<K, V> {
+
+    /**
+     * The logger.
+     */
+    private static final Log LOG = LogFactory.getLog(SketchSampler.class);
+
+    /**
+     * Configuration for the maximum number of keys held by each level of the sketches.
+     */
+    public static final String SKETCH_SIZE = "sort.sketch.size";
+
+    /**
+     * The number of quantiles returned for each reducer.
+     */
+    public static final int QUANTILES_PER_PARTITION = 16;
+
+    /**
+     * The maximum number of keys held by each level of the sketches.
+     */
+    private final int sketchSize;
+
+    /**
+     * Constructor.
+     *
+     * @param sketchSize the maximum number of keys held by each level of the sketches
+     */
+    public SketchSampler(final int sketchSize) {
+        if (sketchSize < 2) {
+            throw new IllegalArgumentException("Sketch size must be at least 2: " + sketchSize);
+        }
+        this.sketchSize = sketchSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K[] getSample(final InputFormat<K, V> inf, final JobConf job) throws IOException {
+        Path sketchDir = new Path(TotalOrderPartitioner.getPartitionFile(job) + "_sketches");
+        FileSystem fs = sketchDir.getFileSystem(job);
+        fs.delete(sketchDir, true);
+
+        JobConf sketchJob = new JobConf(job);
+        sketchJob.setJobName(job.getJobName() + "-sketch");
+        sketchJob.setInputFormat(inf.getClass());
+        sketchJob.setMapperClass(SketchMapper.class);
+        sketchJob.setNumReduceTasks(0);
+        sketchJob.setMapOutputKeyClass(NullWritable.class);
+        sketchJob.setMapOutputValueClass(KeySketch.class);
+        sketchJob.setOutputKeyClass(NullWritable.class);
+        sketchJob.setOutputValueClass(KeySketch.class);
+        sketchJob.setOutputFormat(SequenceFileOutputFormat.class);
+        sketchJob.setInt(SKETCH_SIZE, sketchSize);
+        FileOutputFormat.setCompressOutput(sketchJob, false);
+        FileOutputFormat.setOutputPath(sketchJob, sketchDir);
+
+        try {
+            JobClient.runJob(sketchJob);
+
+            KeySketch merged = new KeySketch(sketchSize);
+            KeySketch sketch = new KeySketch(sketchSize);
+            for (FileStatus status : fs.listStatus(sketchDir, new PathFilter() {
+                @Override
+                public boolean accept(final Path path) {
+                    return path.getName().startsWith("part-");
+                }
+            })) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath(), job);
+                try {
+                    while (reader.next(NullWritable.get(), sketch)) {
+                        merged.merge(sketch);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            LOG.info("Merged sketches of " + merged.getCount() + " keys, retaining "
+                    + merged.getRetained());
+
+            byte[][] quantiles = merged.getQuantiles(
+                    job.getNumReduceTasks() * QUANTILES_PER_PARTITION);
+            Text[] samples = new Text[quantiles.length];
+            for (int i = 0; i < quantiles.length; i++) {
+                samples[i] = new Text(quantiles[i]);
+            }
+            return (K[]) samples;
+        } finally {
+            fs.delete(sketchDir, true);
+        }
+    }
+
+    /**
+     * Builds a sketch of all the keys in a split, and writes it out when the split is done.
+     */
+    public static class SketchMapper extends MapReduceBase
+            implements Mapper<Text, Writable, NullWritable, KeySketch> {
+
+        /**
+         * The sketch of the keys in the split.
+         */
+        private KeySketch sketch;
+
+        /**
+         * The output, which is saved so the sketch can be written in {@link #close()}.
+         */
+        private OutputCollector<NullWritable, KeySketch> output;
+
+        @Override
+        public void configure(final JobConf job) {
+            super.configure(job);
+            sketch = new KeySketch(job.getInt(SKETCH_SIZE, KeySketch.DEFAULT_SIZE));
+        }
+
+        @Override
+        public void map(final Text key, final Writable value,
+                        final OutputCollector<NullWritable, KeySketch> collector,
+                        final Reporter reporter) throws IOException {
+            output = collector;
+            sketch.add(key.getBytes(), 0, key.getLength());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (output != null) {
+                output.collect(NullWritable.get(), sketch);
+            }
+        }
+    }
+}
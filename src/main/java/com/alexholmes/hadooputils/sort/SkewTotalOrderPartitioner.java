@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.lib.TotalOrderPartitioner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A total-order partitioner which, unlike {@link TotalOrderPartitioner}, accepts repeated
+ * split points. A key which appears as a split point more than once is a heavy key, and its
+ * records are spread round-robin over every partition which can hold it without breaking
+ * the total order: from the partition before its first split point, through to the
+ * partition which starts at its last one. All other keys are partitioned exactly as they
+ * would be by {@link TotalOrderPartitioner}.
+ * <p/>
+ * Split points are read from the file set with
+ * {@link TotalOrderPartitioner#setPartitionFile}, and keys are compared as unsigned bytes,
+ * which is the order used by {@link SortKeyComparator}.
+ */
+public class SkewTotalOrderPartitioner implements Partitioner<Text, Writable> {
+
+    /**
+     * The split points, in sorted order.
+     */
+    private byte[][] splitPoints;
+
+    /**
+     * The number of records which have been partitioned, used to spread heavy keys.
+     */
+    private long records;
+
+    /**
+     * Constructor. The split points are read when the partitioner is configured.
+     */
+    public SkewTotalOrderPartitioner() {
+    }
+
+    /**
+     * Constructor with the split points already known.
+     *
+     * @param splitPoints the split points, in sorted order
+     */
+    SkewTotalOrderPartitioner(final byte[][] splitPoints) {
+        this.splitPoints = splitPoints;
+    }
+
+    @Override
+    public void configure(final JobConf job) {
+        Path partitionFile = new Path(TotalOrderPartitioner.getPartitionFile(job));
+        try {
+            FileSystem fs = partitionFile.getFileSystem(job);
+            List<byte[]> points = new ArrayList<byte[]>();
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, partitionFile, job);
+            try {
+                Text key = new Text();
+                while (reader.next(key, NullWritable.get())) {
+                    byte[] point = new byte[key.getLength()];
+                    System.arraycopy(key.getBytes(), 0, point, 0, point.length);
+                    points.add(point);
+                }
+            } finally {
+                reader.close();
+            }
+            if (points.size() != job.getNumReduceTasks() - 1) {
+                throw new IOException("Wrong number of partitions in keyset: " + points.size());
+            }
+            splitPoints = points.toArray(new byte[points.size()][]);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read partitions file", e);
+        }
+    }
+
+    @Override
+    public int getPartition(final Text key, final Writable value, final int numPartitions) {
+        int first = search(key, false);
+        int last = search(key, true);
+
+        // a key which is a single split point starts the partition after it, as it does with
+        // TotalOrderPartitioner, and only repeated split points are spread
+        //
+        if (last - first < 2) {
+            return last;
+        }
+        return first + (int) (records++ % (last - first + 1));
+    }
+
+    /**
+     * Find the number of split points which are less than (or equal to) a key.
+     *
+     * @param key       the key
+     * @param inclusive whether split points equal to the key are counted
+     * @return the number of split points
+     */
+    private int search(final Text key, final boolean inclusive) {
+        int low = 0;
+        int high = splitPoints.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            byte[] point = splitPoints[mid];
+            int cmp = WritableComparator.compareBytes(point, 0, point.length,
+                    key.getBytes(), 0, key.getLength());
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -16,18 +16,36 @@
 
 package com.alexholmes.hadooputils.sort;
 
+import com.alexholmes.hadooputils.io.FileUtils;
+import com.hadoop.compression.lzo.LzoIndex;
 import com.hadoop.compression.lzo.LzoIndexer;
 import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroInputFormat;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroOutputFormat;
+import org.apache.avro.mapred.FsInput;
+import org.apache.avro.mapred.Pair;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.*;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.mapred.lib.InputSampler;
 import org.apache.hadoop.mapred.lib.TotalOrderPartitioner;
 import org.apache.hadoop.util.Tool;
@@ -52,40 +70,158 @@ public class Sort<K, V> extends Configured implements Tool {
      */
     private RunningJob jobResult = null;
 
+    /**
+     * The first line found out of order by the last check.
+     */
+    private String disorder = null;
+
+    /**
+     * The performance report of the last sort job.
+     */
+    private SortReport report = null;
+
+    /**
+     * The block size assumed when {@code dfs.block.size} isn't set, which is the HDFS
+     * default of 64MB.
+     */
+    private static final long DEFAULT_BLOCK_SIZE = 64L * 1024 * 1024;
+
     /**
      * Usage string.
      */
     private static final String[] USAGE = {
             "bin/hadoop jar hadoop-utils-<version>.jar com.alexholmes.hadooputils.sort.Sort "
                     + "[OPTION]... INPUT_DIR OUTPUT_DIR",
+            "  or:  bin/hadoop jar hadoop-utils-<version>.jar "
+                    + "com.alexholmes.hadooputils.sort.Sort -c [OPTION]... INPUT_DIR",
             "",
             "Ordering options:",
+            "-b, --ignore-leading-blanks",
+            "         Ignore leading blanks.",
             "-f, --ignore-case",
             "         Fold lower case to upper case characters.",
+            "-g, --general-numeric-sort",
+            "         Compare according to general numerical value.",
+            "-h, --human-numeric-sort",
+            "         Compare human readable numbers (e.g., 2K 1G).",
+            "-M, --month-sort",
+            "         Compare (unknown) < 'JAN' < ... < 'DEC'.",
+            "-n, --numeric-sort",
+            "         Compare according to string numerical value.",
+            "--reverse",
+            "         Reverse the result of comparisons.",
             "",
             "Other options:",
             "",
             "-m MAPS",
             "         The number of map tasks.",
             "-r REDUCERS",
-            "         The number of reduce tasks.",
+            "         The number of reduce tasks, or 'auto' to pick it from the input size,",
+            "         its compression ratio and an estimate of the distinct keys.",
+            "--bytes-per-reducer BYTES",
+            "         The number of input bytes each reducer should receive with -r auto",
+            "         (default 1073741824, 1GB).",
             "-k, --key POS1[,POS2]",
             "         Start a key at POS1 (origin 1), end it at POS2 (default end of line).",
+            "         May be repeated, in which case later keys are only compared when",
+            "         earlier keys are equal. POS is F[.C][OPTS], where F is the field",
+            "         number and C the character position in the field, both origin 1.",
+            "         OPTS is one or more single-letter ordering options, which override",
+            "         the global ordering options for that key.",
             "-t, --field-separator SEP",
             "         Use SEP instead of non-blank to blank transition.",
             "-u, --unique",
             "         Output only the first of an equal run.",
+            "--count",
+            "         Output the first line of each equal run once, prefixed with the",
+            "         number of lines in the run, like uniq -c.",
+            "--count-cache BYTES",
+            "         Memory each map task uses to count lines before the shuffle with",
+            "         --count (default 16777216, 16MB).",
+            "-s, --stable",
+            "         Keep lines with equal keys in input order, so that -u keeps the",
+            "         first of an equal run in the input.",
+            "--merge",
+            "         Merge input files which are each already sorted with the same",
+            "         options, without re-sorting or shuffling them. Use -r and",
+            "         --total-order to split the merge into key ranges across tasks.",
+            "-c, --check",
+            "         Check whether the files in INPUT_DIR are sorted with the supplied",
+            "         options, in file name order, rather than sorting them. Each file is",
+            "         checked by its own map task, which also compares its last key with",
+            "         the first key of the next file. Exits with 1 and reports the first",
+            "         line out of order if they aren't sorted.",
+            "--head N",
+            "         Output only the first N lines of the sorted output. Each map task",
+            "         keeps its best N lines in a bounded heap, so at most N lines per map",
+            "         are shuffled, to a single reducer.",
+            "--tail N",
+            "         Output only the last N lines of the sorted output, as with --head.",
+            "--unique-cache NUM_KEYS",
+            "         Number of recently seen keys each map task remembers to drop",
+            "         duplicates before the shuffle with -u (default 10000, 0 disables).",
             "--total-order PCNT NUM_SAMPLES MAX_SPLITS",
             "         Produce total order across all reducer files.",
             "           PCNT = Probability with which a key will be chosen (range 0.0 - 1.0).",
             "           NUM_SAMPLES = Number of samples which will be extracted.",
             "           MAX_SPLITS = Number of input splits to extract samples from.",
+            "--total-order-sketch SKETCH_SIZE",
+            "         Produce total order across all reducer files, using a job which",
+            "         sketches the distribution of every key rather than sampling.",
+            "           SKETCH_SIZE = Keys held per sketch level (0 for the default, 1024).",
+            "--sampler-threads NUM_THREADS",
+            "         Number of threads which read splits concurrently for --total-order",
+            "         sampling (default 8).",
+            "--sampler-timeout SECONDS",
+            "         Stop --total-order sampling after this many seconds and use the",
+            "         samples collected so far (default 0, meaning no limit).",
+            "--partition-cache DIR",
+            "         Cache total-order partition boundaries in DIR, keyed by the input,",
+            "         keys and number of reducers, and reuse them instead of sampling.",
+            "         The boundaries are refined after each job using the bytes each",
+            "         reducer received.",
+            "--partition-cache-ttl SECONDS",
+            "         How long a cached entry stays valid after it was last refreshed",
+            "         (default 604800, one week).",
+            "--no-split-heavy-keys",
+            "         With total order, send every copy of a heavy key to one reducer",
+            "         rather than spreading it over several adjacent reducers.",
+            "--local-threshold BYTES",
+            "         Sort in-process on this machine rather than running a MapReduce job",
+            "         when the input is smaller than BYTES (default 0, meaning never). The",
+            "         output is a single part file regardless of the number of reducers.",
+            "--local-threads NUM_THREADS",
+            "         Number of threads used by in-process sorts (default is the number",
+            "         of processors).",
+            "--combine-split BYTES",
+            "         Maximum size of the splits that input files are packed into when",
+            "         they are much smaller than it (default is the block size, 0",
+            "         disables packing).",
             "--map-codec CODEC",
             "         Compression codec for map intermediary outputs.",
             "--codec CODEC",
             "         Compression codec for final outputs.",
             "--lzop-index",
-            "         Creates LZOP indexes for the output files.",
+            "         Creates LZOP indexes for the output files as they are written.",
+            "--key-index N",
+            "         Write a sparse index of every Nth key and its offset, and a Bloom",
+            "         filter of all keys, alongside each output file. Text output must",
+            "         be uncompressed.",
+            "--output-layout LAYOUT",
+            "         Write the output as text (the default), seqfile (sequence files of",
+            "         sort keys and lines) or mapfile (Bloom map files of sort keys and",
+            "         lines, indexed every N keys with --key-index).",
+            "--sequence-file",
+            "         The inputs are sequence files, which are sorted by their keys with the",
+            "         raw comparator registered for the key class, and written as sequence",
+            "         files with the same key and value classes. Only --reverse applies to",
+            "         the order, and --total-order is the only sampler supported.",
+            "--avro-key PATH",
+            "         The inputs are Avro container files, which are sorted by the field",
+            "         at PATH, such as user.id, and written as Avro container files with",
+            "         the same schema. The field is compared in its serialized form. Only",
+            "         --reverse and -u apply, and --total-order is the only sampler",
+            "         supported.",
     };
 
     /**
@@ -99,6 +235,24 @@ public class Sort<K, V> extends Configured implements Tool {
         return -1;
     }
 
+    /**
+     * Parse the name of an output layout given to {@code --output-layout}.
+     *
+     * @param name the name
+     * @return the layout
+     * @throws IllegalArgumentException if the name isn't a layout
+     */
+    static SortIndexedOutputFormat.Layout parseLayout(final String name) {
+        if ("text".equals(name)) {
+            return SortIndexedOutputFormat.Layout.TEXT;
+        } else if ("seqfile".equals(name)) {
+            return SortIndexedOutputFormat.Layout.SEQUENCE_FILE;
+        } else if ("mapfile".equals(name)) {
+            return SortIndexedOutputFormat.Layout.MAP_FILE;
+        }
+        throw new IllegalArgumentException("Unknown output layout " + name);
+    }
+
     /**
      * The driver for sort program which works with command-line arguments.
      *
@@ -120,44 +274,114 @@ public class Sort<K, V> extends Configured implements Tool {
         Class<? extends CompressionCodec> codecClass = null;
         Class<? extends CompressionCodec> mapCodecClass = null;
         boolean createLzopIndex = false;
+        Double samplePcnt = null;
+        int numSamples = 0;
+        int maxSplits = 0;
+        int samplerThreads = ParallelSampler.DEFAULT_THREADS;
+        int samplerTimeoutSecs = 0;
+        Integer sketchSize = null;
+        List<SortKeySpec> keys = new ArrayList<SortKeySpec>();
         for (int i = 0; i < args.length; ++i) {
             try {
                 if ("-m".equals(args[i])) {
                     numMapTasks = Integer.parseInt(args[++i]);
                 } else if ("-r".equals(args[i])) {
-                    numReduceTasks = Integer.parseInt(args[++i]);
+                    if ("auto".equals(args[++i])) {
+                        sortConfig.setAutoReducers(true);
+                    } else {
+                        numReduceTasks = Integer.parseInt(args[i]);
+                    }
+                } else if ("--bytes-per-reducer".equals(args[i])) {
+                    sortConfig.setBytesPerReducer(Long.parseLong(args[++i]));
+                } else if ("-b".equals(args[i])
+                        || "--ignore-leading-blanks".equals(args[i])) {
+                    sortConfig.setIgnoreLeadingBlanks(true);
                 } else if ("-f".equals(args[i]) || "--ignore-case".equals(args[i])) {
                     sortConfig.setIgnoreCase(true);
+                } else if ("-g".equals(args[i])
+                        || "--general-numeric-sort".equals(args[i])) {
+                    sortConfig.setGeneralNumeric(true);
+                } else if ("-h".equals(args[i]) || "--human-numeric-sort".equals(args[i])) {
+                    sortConfig.setHumanNumeric(true);
+                } else if ("-M".equals(args[i]) || "--month-sort".equals(args[i])) {
+                    sortConfig.setMonth(true);
+                } else if ("-n".equals(args[i]) || "--numeric-sort".equals(args[i])) {
+                    sortConfig.setNumeric(true);
+                } else if ("--reverse".equals(args[i])) {
+                    sortConfig.setReverse(true);
                 } else if ("-u".equals(args[i]) || "--unique".equals(args[i])) {
                     sortConfig.setUnique(true);
+                } else if ("--count".equals(args[i])) {
+                    sortConfig.setCount(true);
+                } else if ("--count-cache".equals(args[i])) {
+                    sortConfig.setCountCacheBytes(Long.parseLong(args[++i]));
+                } else if ("-s".equals(args[i]) || "--stable".equals(args[i])) {
+                    sortConfig.setStable(true);
+                } else if ("--merge".equals(args[i])) {
+                    sortConfig.setMerge(true);
+                } else if ("-c".equals(args[i]) || "--check".equals(args[i])) {
+                    sortConfig.setCheck(true);
+                } else if ("--head".equals(args[i])) {
+                    sortConfig.setHead(Integer.parseInt(args[++i]));
+                } else if ("--tail".equals(args[i])) {
+                    sortConfig.setTail(Integer.parseInt(args[++i]));
+                } else if ("--unique-cache".equals(args[i])) {
+                    sortConfig.setUniqueCacheSize(Integer.parseInt(args[++i]));
                 } else if ("-k".equals(args[i]) || "--key".equals(args[i])) {
-                    String[] parts = StringUtils.split(args[++i], ",");
-                    sortConfig.setStartKey(Integer.valueOf(parts[0]));
-                    if (parts.length > 1) {
-                        sortConfig.setEndKey(Integer.valueOf(parts[1]));
-                    }
+                    keys.add(SortKeySpec.parse(args[++i]));
                 } else if ("-t".equals(args[i]) || "--field-separator".equals(args[i])) {
                     sortConfig.setFieldSeparator(args[++i]);
                 } else if ("--total-order".equals(args[i])) {
-                    double pcnt = Double.parseDouble(args[++i]);
-                    int numSamples = Integer.parseInt(args[++i]);
-                    int maxSplits = Integer.parseInt(args[++i]);
+                    samplePcnt = Double.parseDouble(args[++i]);
+                    numSamples = Integer.parseInt(args[++i]);
+                    maxSplits = Integer.parseInt(args[++i]);
                     if (0 >= maxSplits) {
                         maxSplits = Integer.MAX_VALUE;
                     }
-                    sampler = new InputSampler.RandomSampler<K, V>(pcnt, numSamples, maxSplits);
+                } else if ("--total-order-sketch".equals(args[i])) {
+                    sketchSize = Integer.parseInt(args[++i]);
+                    if (0 >= sketchSize) {
+                        sketchSize = KeySketch.DEFAULT_SIZE;
+                    }
+                } else if ("--partition-cache".equals(args[i])) {
+                    sortConfig.setPartitionCacheDir(args[++i]);
+                } else if ("--partition-cache-ttl".equals(args[i])) {
+                    sortConfig.setPartitionCacheTtl(Long.parseLong(args[++i]));
+                } else if ("--no-split-heavy-keys".equals(args[i])) {
+                    sortConfig.setSplitHeavyKeys(false);
+                } else if ("--local-threshold".equals(args[i])) {
+                    sortConfig.setLocalThreshold(Long.parseLong(args[++i]));
+                } else if ("--local-threads".equals(args[i])) {
+                    sortConfig.setLocalThreads(Integer.parseInt(args[++i]));
+                } else if ("--combine-split".equals(args[i])) {
+                    sortConfig.setCombineSplitBytes(Long.parseLong(args[++i]));
+                } else if ("--sampler-threads".equals(args[i])) {
+                    samplerThreads = Integer.parseInt(args[++i]);
+                } else if ("--sampler-timeout".equals(args[i])) {
+                    samplerTimeoutSecs = Integer.parseInt(args[++i]);
                 } else if ("--map-codec".equals(args[i])) {
                     mapCodecClass = (Class<? extends CompressionCodec>) Class.forName(args[++i]);
                 } else if ("--codec".equals(args[i])) {
                     codecClass = (Class<? extends CompressionCodec>) Class.forName(args[++i]);
                 } else if ("--lzop-index".equals(args[i])) {
                     createLzopIndex = true;
+                } else if ("--key-index".equals(args[i])) {
+                    sortConfig.setKeyIndexInterval(Integer.parseInt(args[++i]));
+                } else if ("--output-layout".equals(args[i])) {
+                    sortConfig.setOutputLayout(parseLayout(args[++i]));
+                } else if ("--sequence-file".equals(args[i])) {
+                    sortConfig.setSequenceFile(true);
+                } else if ("--avro-key".equals(args[i])) {
+                    sortConfig.setAvroKey(args[++i]);
                 } else {
                     otherArgs.add(args[i]);
                 }
             } catch (NumberFormatException except) {
                 System.out.println("ERROR: Integer expected instead of " + args[i]);
                 return printUsage();
+            } catch (IllegalArgumentException except) {
+                System.out.println("ERROR: " + except.getMessage());
+                return printUsage();
             } catch (ArrayIndexOutOfBoundsException except) {
                 System.out.println("ERROR: Required parameter missing from "
                         + args[i - 1]);
@@ -165,6 +389,98 @@ public class Sort<K, V> extends Configured implements Tool {
             }
         }
 
+        if (sortConfig.getHead() > 0 && sortConfig.getTail() > 0) {
+            System.out.println("ERROR: --head and --tail can't be combined");
+            return printUsage();
+        }
+        if ((sortConfig.getHead() > 0 || sortConfig.getTail() > 0) && sortConfig.getMerge()) {
+            System.out.println("ERROR: --head and --tail can't be combined with --merge");
+            return printUsage();
+        }
+        if (sortConfig.getCount() && (sortConfig.getHead() > 0 || sortConfig.getTail() > 0
+                || sortConfig.getMerge())) {
+            System.out.println("ERROR: --count can't be combined with --head, --tail or --merge");
+            return printUsage();
+        }
+        if (sortConfig.getCount() && sortConfig.getIndexedOutput()) {
+            System.out.println("ERROR: --count can't be combined with --key-index or "
+                    + "--output-layout");
+            return printUsage();
+        }
+        if (sortConfig.getSequenceFile() && (!keys.isEmpty() || sortConfig.getUnique()
+                || sortConfig.getCount() || sortConfig.getStable() || sortConfig.getMerge()
+                || sortConfig.getCheck() || sortConfig.getHead() > 0 || sortConfig.getTail() > 0
+                || sortConfig.getIndexedOutput() || sketchSize != null)) {
+            System.out.println("ERROR: --sequence-file can only be combined with --reverse, "
+                    + "--total-order and the job options");
+            return printUsage();
+        }
+        if (sortConfig.getMerge() && sortConfig.getAutoReducers()) {
+            System.out.println("ERROR: -r auto can't be combined with --merge");
+            return printUsage();
+        }
+        if (sortConfig.getSequenceFile() && sortConfig.getAutoReducers()) {
+            System.out.println("ERROR: -r auto can't be combined with --sequence-file");
+            return printUsage();
+        }
+        if (sortConfig.getAvroKey() != null && (!keys.isEmpty() || sortConfig.getCount()
+                || sortConfig.getStable() || sortConfig.getMerge() || sortConfig.getCheck()
+                || sortConfig.getHead() > 0 || sortConfig.getTail() > 0
+                || sortConfig.getIndexedOutput() || sortConfig.getSequenceFile()
+                || sketchSize != null)) {
+            System.out.println("ERROR: --avro-key can only be combined with --reverse, -u, "
+                    + "--total-order and the job options");
+            return printUsage();
+        }
+        if (sortConfig.getAvroKey() != null && !sortConfig.getGlobalModifiers()
+                .replace(String.valueOf(SortKeySpec.REVERSE), "").isEmpty()) {
+            System.out.println("ERROR: --avro-key can't be combined with ordering options "
+                    + "other than --reverse");
+            return printUsage();
+        }
+        if (sortConfig.getAvroKey() != null && sortConfig.getAutoReducers()) {
+            System.out.println("ERROR: -r auto can't be combined with --avro-key");
+            return printUsage();
+        }
+        if (samplePcnt != null && sketchSize != null) {
+            System.out.println("ERROR: --total-order and --total-order-sketch can't be combined");
+            return printUsage();
+        }
+        try {
+            if (samplePcnt != null) {
+                sampler = new ParallelSampler<K, V>(samplePcnt, numSamples, maxSplits,
+                        samplerThreads, samplerTimeoutSecs * 1000L);
+            } else if (sketchSize != null) {
+                sampler = new SketchSampler<K, V>(sketchSize);
+            }
+        } catch (IllegalArgumentException except) {
+            System.out.println("ERROR: " + except.getMessage());
+            return printUsage();
+        }
+
+        if (!keys.isEmpty()) {
+            sortConfig.setKeySpecs(keys);
+        }
+
+        // compile the key plan up-front so that bad key definitions are reported here,
+        // rather than in the map tasks
+        //
+        try {
+            sortConfig.createKeyExtractor();
+        } catch (IllegalArgumentException except) {
+            System.out.println("ERROR: " + except.getMessage());
+            return printUsage();
+        }
+
+        if (sortConfig.getCheck()) {
+            if (otherArgs.size() != 1) {
+                System.out.println("ERROR: Wrong number of parameters: "
+                        + otherArgs.size() + " instead of 1.");
+                return printUsage();
+            }
+            return runCheck(new JobConf(sortConfig.getConfig()), otherArgs.get(0)) ? 0 : 1;
+        }
+
         // Make sure there are exactly 2 parameters left.
         if (otherArgs.size() != 2) {
             System.out.println("ERROR: Wrong number of parameters: "
@@ -188,8 +504,8 @@ public class Sort<K, V> extends Configured implements Tool {
      * @param sampler           sampler, if required
      * @param codecClass        the compression codec for compressing final outputs
      * @param mapCodecClass     the compression codec for compressing intermediary map outputs
-     * @param createLzopIndexes whether or not a MR job should be launched to create LZOP indexes
-     *                          for the job output files
+     * @param createLzopIndexes whether or not to create LZOP indexes for the job output files,
+     *                          which are written as the output is compressed
      * @param inputDirAsString  input directory in CSV-form
      * @param outputDirAsString output directory
      * @return true if the job completed successfully
@@ -206,6 +522,72 @@ public class Sort<K, V> extends Configured implements Tool {
 
         jobConf.setJarByClass(Sort.class);
         jobConf.setJobName("sorter");
+        report = null;
+        SortReport jobReport = new SortReport();
+
+        if (mapCodecClass != null) {
+            jobConf.setMapOutputCompressorClass(mapCodecClass);
+        }
+
+        if (codecClass != null) {
+            jobConf.setBoolean("mapred.output.compress", true);
+            jobConf.setClass("mapred.output.compression.codec",
+                    codecClass, CompressionCodec.class);
+        }
+
+        // LZOP indexes are written by the output format while it compresses each file, which
+        // saves re-reading the output afterwards
+        //
+        if (createLzopIndexes && codecClass != null && LzopCodec.class.equals(codecClass)) {
+            jobConf.setOutputFormat(LzopIndexedTextOutputFormat.class);
+        }
+
+        // the output is written with its keys, and optionally a key index, so that it can be
+        // searched without being scanned
+        //
+        if (new SortConfig(jobConf).getIndexedOutput()) {
+            jobConf.setOutputFormat(SortIndexedOutputFormat.class);
+        }
+
+        FileInputFormat.setInputPaths(jobConf, inputDirAsString);
+        FileOutputFormat.setOutputPath(jobConf, new Path(outputDirAsString));
+
+        if (new SortConfig(jobConf).getMerge()) {
+            return runMerge(jobConf, numReduceTasks, sampler);
+        }
+        if (new SortConfig(jobConf).getSequenceFile()) {
+            return runSequenceFile(jobConf, numMapTasks, numReduceTasks, sampler);
+        }
+        if (new SortConfig(jobConf).getAvroKey() != null) {
+            return runAvro(jobConf, numMapTasks, numReduceTasks, sampler);
+        }
+
+        // inputs which are small enough are sorted in-process, which avoids the job startup
+        // and shuffle costs
+        //
+        // top-N sorts always run as a job, since they shuffle very little
+        //
+        boolean top = new SortConfig(jobConf).getHead() > 0
+                || new SortConfig(jobConf).getTail() > 0;
+        boolean count = new SortConfig(jobConf).getCount();
+        if ((top || count) && new SortConfig(jobConf).getStable()) {
+            // the map-side heaps and counts need plain keys to find equal keys, and the heaps
+            // break ties by input position themselves
+            //
+            System.out.println("Ignoring --stable, which isn't supported with --head, --tail "
+                    + "and --count");
+            new SortConfig(jobConf).setStable(false);
+        }
+        boolean stable = new SortConfig(jobConf).getStable();
+        long localThreshold = new SortConfig(jobConf).getLocalThreshold();
+        boolean indexed = new SortConfig(jobConf).getIndexedOutput();
+        if (localThreshold > 0 && !top && !stable && !count && !indexed) {
+            long inputBytes = LocalSortEngine.getInputSize(jobConf);
+            if (inputBytes < localThreshold) {
+                return runLocal(jobConf, inputBytes, codecClass, createLzopIndexes,
+                        outputDirAsString);
+            }
+        }
 
         JobClient client = new JobClient(jobConf);
         ClusterStatus cluster = client.getClusterStatus();
@@ -213,8 +595,16 @@ public class Sort<K, V> extends Configured implements Tool {
         if (numMapTasks != null) {
             jobConf.setNumMapTasks(numMapTasks);
         }
-        if (numReduceTasks != null) {
+        String reducerSummary = null;
+        if (top) {
+            jobConf.setNumReduceTasks(1);
+        } else if (numReduceTasks != null) {
             jobConf.setNumReduceTasks(numReduceTasks);
+        } else if (new SortConfig(jobConf).getAutoReducers()) {
+            ReducerEstimator estimator = new ReducerEstimator(jobConf,
+                    cluster.getMaxReduceTasks());
+            jobConf.setNumReduceTasks(estimator.estimate());
+            reducerSummary = estimator.getSummary();
         } else {
             int numReduces = (int) (cluster.getMaxReduceTasks() * 0.9);
             String sortReduces = jobConf.get("test.sort.reduces_per_host");
@@ -229,40 +619,468 @@ public class Sort<K, V> extends Configured implements Tool {
         jobConf.setMapperClass(IdentityMapper.class);
         jobConf.setReducerClass(SortReduce.class);
 
+        SortConfig sortConfig = new SortConfig(jobConf);
+        if (top) {
+            // each map task only emits the lines which could be in the output, and the
+            // single reducer keeps the first or last of them
+            //
+            jobConf.setMapperClass(SortTopMapper.class);
+            jobConf.setReducerClass(SortTopReduce.class);
+        } else if (count) {
+            // lines are counted in each map task, and the partial counts are added up by the
+            // combiner and reducer
+            //
+            jobConf.setMapperClass(SortCountMapper.class);
+            jobConf.setCombinerClass(SortCountCombiner.class);
+        } else if (stable) {
+            // lines with equal keys have distinct keys until they are grouped in the reducer,
+            // which keeps them in input order, so duplicates can't be removed any earlier
+            //
+            jobConf.setOutputValueGroupingComparator(SortStableGroupingComparator.class);
+            jobConf.setPartitionerClass(SortStablePartitioner.class);
+        } else if (sortConfig.getUnique()) {
+            // remove as many duplicates as possible before the shuffle
+            //
+            jobConf.setCombinerClass(SortUniqueCombiner.class);
+            if (sortConfig.getUniqueCacheSize() > 0) {
+                jobConf.setMapperClass(SortUniqueMapper.class);
+            }
+        }
+
         jobConf.setInputFormat(SortInputFormat.class);
 
+        // small input files are packed into combined splits, since otherwise each one starts
+        // its own map task
+        //
+        long combineSplitBytes = sortConfig.getCombineSplitBytes(
+                jobConf.getLong("dfs.block.size", DEFAULT_BLOCK_SIZE));
+        if (!stable && combineSplitBytes > 0
+                && SortCombineInputFormat.isSmallFileInput(jobConf, combineSplitBytes)) {
+            System.out.println("Packing small input files into splits of up to "
+                    + combineSplitBytes + " bytes.");
+            jobConf.setInputFormat(SortCombineInputFormat.class);
+            jobConf.setLong("mapred.max.split.size", combineSplitBytes);
+        }
+
+        // case-insensitive sorts of whole lines compare the lines themselves and ignore case as
+        // they compare them, so the lines aren't lower-cased and shipped as both key and value;
+        // key sketches rank plain bytes, so they still need lower-cased keys
+        //
+        boolean comparatorFoldsCase = sortConfig.canFoldCaseInComparator()
+                && !(sampler instanceof SketchSampler);
+        sortConfig.setComparatorFoldsCase(comparatorFoldsCase);
+        if (comparatorFoldsCase) {
+            // SkewTotalOrderPartitioner compares plain bytes, so heavy keys aren't spread
+            //
+            sortConfig.setSplitHeavyKeys(false);
+            jobConf.setPartitionerClass(SortCaseFoldingPartitioner.class);
+            if (!sortConfig.getUnique()) {
+                // the reducer writes a group's key for each of its lines, so lines which only
+                // differ in case have to be in separate groups
+                //
+                jobConf.setOutputValueGroupingComparator(SortKeyComparator.class);
+            }
+        }
+
+        // if the key is the entire line there's no need to also ship the line as the value,
+        // which halves the map output and shuffle volume
+        //
+        sortConfig.setKeyIsLine(sortConfig.createKeyExtractor().isKeyWholeLine());
+
         jobConf.setMapOutputKeyClass(Text.class);
-        jobConf.setMapOutputValueClass(Text.class);
+        if (count) {
+            jobConf.setMapOutputValueClass(SortCountWritable.class);
+        } else {
+            jobConf.setMapOutputValueClass(sortConfig.getKeyIsLine()
+                    ? NullWritable.class : Text.class);
+        }
+        jobConf.setOutputKeyComparatorClass(comparatorFoldsCase
+                ? SortCaseFoldingComparator.class : SortKeyComparator.class);
         jobConf.setOutputKeyClass(Text.class);
         jobConf.setOutputValueClass(Text.class);
 
-        if (mapCodecClass != null) {
-            jobConf.setMapOutputCompressorClass(mapCodecClass);
+        PartitionCache partitionCache = null;
+        double[] partitionShares = null;
+        if (sampler != null && top) {
+            System.out.println("Not sampling the input, since --head and --tail use a "
+                    + "single reducer");
+        } else if (sampler != null) {
+            PartitionPlan partitionPlan;
+            Path partitionFile;
+
+            long samplingStart = System.currentTimeMillis();
+            if (sortConfig.getPartitionCacheDir() != null) {
+                partitionCache = new PartitionCache(jobConf,
+                        new Path(sortConfig.getPartitionCacheDir()), inputDirAsString);
+                partitionPlan = partitionCache;
+                partitionFile = partitionCache.getPartitionFile();
+                TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
+                if (partitionCache.load(
+                        TimeUnit.SECONDS.toMillis(sortConfig.getPartitionCacheTtl()))) {
+                    System.out.println("Using cached partition boundaries from "
+                            + partitionCache.getEntry());
+                } else {
+                    System.out.println("Sampling input to effect total-order sort...");
+                    partitionCache.sample(sampler);
+                }
+            } else {
+                System.out.println("Sampling input to effect total-order sort...");
+                Path inputDir = FileInputFormat.getInputPaths(jobConf)[0];
+
+                FileSystem fileSystem = FileSystem.get(jobConf);
+
+                if (fileSystem.exists(inputDir) && fileSystem.isFile(inputDir)) {
+                    inputDir = inputDir.getParent();
+                }
+                inputDir = inputDir.makeQualified(inputDir.getFileSystem(jobConf));
+                partitionFile = new Path(inputDir, "_sortPartitioning");
+                TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
+                partitionPlan = new PartitionPlan(jobConf);
+                partitionPlan.sample(sampler);
+            }
+            long writeStart = System.currentTimeMillis();
+            jobReport.setPhase(SortReport.SAMPLING, writeStart - samplingStart);
+            partitionPlan.writePartitionFile(partitionFile);
+            jobReport.setPhase(SortReport.PARTITION_FILE,
+                    System.currentTimeMillis() - writeStart);
+            partitionShares = partitionPlan.getPartitionShares();
+
+            // heavy keys which are used as more than one split point need a partitioner
+            // which can spread them over several reducers
+            //
+            List<String> splitKeys = partitionPlan.getSplitKeys();
+            for (String splitKey : splitKeys) {
+                System.out.println("Heavy " + splitKey);
+            }
+            jobConf.setPartitionerClass(splitKeys.isEmpty()
+                    ? TotalOrderPartitioner.class : SkewTotalOrderPartitioner.class);
+            if (comparatorFoldsCase) {
+                // the split points have to be found with the job's comparator rather than
+                // by comparing bytes
+                //
+                jobConf.setBoolean("total.order.partitioner.natural.order", false);
+            }
+            URI partitionUri = new URI(partitionFile.toString()
+                    + "#" + "_sortPartitioning");
+            DistributedCache.addCacheFile(partitionUri, jobConf);
+            DistributedCache.createSymlink(jobConf);
         }
 
-        if (codecClass != null) {
-            jobConf.setBoolean("mapred.output.compress", true);
-            jobConf.setClass("mapred.output.compression.codec",
-                    codecClass, CompressionCodec.class);
+        System.out.println("Running on "
+                + cluster.getTaskTrackers()
+                + " nodes to sort from "
+                + FileInputFormat.getInputPaths(jobConf)[0] + " into "
+                + FileOutputFormat.getOutputPath(jobConf)
+                + " with " + jobConf.getNumReduceTasks() + " reduces.");
+        if (reducerSummary != null) {
+            System.out.println(reducerSummary + ".");
+        }
+        Date startTime = new Date();
+        System.out.println("Job started: " + startTime);
+        jobResult = client.submitJob(jobConf);
+        jobReport.setPhase(SortReport.SUBMIT, System.currentTimeMillis() - startTime.getTime());
+        try {
+            if (!client.monitorAndPrintJob(jobConf, jobResult)) {
+                throw new IOException("Job failed!");
+            }
+        } catch (InterruptedException except) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for job " + jobResult.getID());
+        }
+        Date endTime = new Date();
+        jobReport.setPhase(SortReport.JOB, endTime.getTime() - startTime.getTime());
+        System.out.println("Job ended: " + endTime);
+        System.out.println("The job took "
+                + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
+                + " seconds.");
+
+        if (jobResult.isSuccessful()) {
+            Path outputDir = FileOutputFormat.getOutputPath(jobConf);
+
+            // top-N sorts have a single small part file, which SortTopReduce doesn't describe
+            //
+            if (!top) {
+                long indexStart = System.currentTimeMillis();
+                SortManifest.collect(jobConf, outputDir).write(jobConf, outputDir);
+                jobReport.setPhase(SortReport.INDEX, System.currentTimeMillis() - indexStart);
+            }
+            jobReport.addTaskPhases(client.getMapTaskReports(jobResult.getID()),
+                    client.getReduceTaskReports(jobResult.getID()));
+            jobReport.addKeyStats(jobResult.getCounters());
+            jobReport.setReducerBytes(partitionShares, SortReport.getReducerBytes(jobConf,
+                    client, jobResult, outputDir, jobConf.getNumReduceTasks()));
+            jobReport.write(jobConf, outputDir);
+            report = jobReport;
+            if (partitionCache != null) {
+                partitionCache.refine(partitionCache.getPartitionBytes(client, jobResult,
+                        FileOutputFormat.getOutputPath(jobConf)));
+                partitionCache.save();
+            }
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Check whether the files in a directory are sorted, with a map-only job which checks
+     * each file in its own map task. Each task reports the first line out of order in its
+     * file, or the first line of the next file if that's out of order with its last line,
+     * and the report for the earliest file is the first line out of order overall.
+     *
+     * @param jobConf          sort configuration
+     * @param inputDirAsString input directory in CSV-form
+     * @return true if the files are sorted
+     * @throws IOException if something went wrong
+     */
+    public boolean runCheck(final JobConf jobConf, final String inputDirAsString)
+            throws IOException {
+        jobConf.setJarByClass(Sort.class);
+        jobConf.setJobName("sort checker");
 
         FileInputFormat.setInputPaths(jobConf, inputDirAsString);
-        FileOutputFormat.setOutputPath(jobConf, new Path(outputDirAsString));
+        Path reportDir = new Path(jobConf.get("hadoop.tmp.dir", "/tmp"),
+                "sort-check-" + System.currentTimeMillis());
+        FileOutputFormat.setOutputPath(jobConf, reportDir);
 
-        if (sampler != null) {
-            System.out.println("Sampling input to effect total-order sort...");
-            jobConf.setPartitionerClass(TotalOrderPartitioner.class);
-            Path inputDir = FileInputFormat.getInputPaths(jobConf)[0];
+        jobConf.setNumReduceTasks(0);
+        jobConf.setInputFormat(SortCheckInputFormat.class);
+        jobConf.setMapperClass(SortCheckMapper.class);
+        jobConf.setOutputKeyClass(Text.class);
+        jobConf.setOutputValueClass(NullWritable.class);
+        jobConf.setBoolean("mapred.output.compress", false);
+
+        System.out.println("Checking " + FileInputFormat.getInputPaths(jobConf)[0]
+                + " is sorted.");
+        Date startTime = new Date();
+        System.out.println("Job started: " + startTime);
+        disorder = null;
+        FileSystem fs = reportDir.getFileSystem(jobConf);
+        try {
+            jobResult = JobClient.runJob(jobConf);
+
+            // each report is prefixed with the index of the file whose task found it
+            //
+            int first = Integer.MAX_VALUE;
+            for (FileStatus report : fs.listStatus(reportDir)) {
+                if (!report.getPath().getName().startsWith("part-")) {
+                    continue;
+                }
+                for (String line : FileUtils.readLines(fs, report.getPath())) {
+                    int tab = line.indexOf('\t');
+                    int index = Integer.parseInt(line.substring(0, tab));
+                    if (index < first) {
+                        first = index;
+                        disorder = line.substring(tab + 1);
+                    }
+                }
+            }
+        } finally {
+            fs.delete(reportDir, true);
+        }
+        Date endTime = new Date();
+        System.out.println("Job ended: " + endTime);
+        System.out.println("The job took "
+                + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
+                + " seconds.");
+
+        if (!jobResult.isSuccessful()) {
+            return false;
+        }
+        if (disorder != null) {
+            System.out.println("sort: " + disorder);
+            return false;
+        }
+        System.out.println("Sorted.");
+        return true;
+    }
+
+    /**
+     * Merge inputs which are already sorted with a map-only job. Each map task merges one
+     * key range of every input file, so the output files are in total order. The ranges
+     * are chosen by sampling the inputs, so there's only more than one of them if a sampler
+     * is supplied.
+     *
+     * @param jobConf   sort configuration, with the input and output paths set
+     * @param numRanges the number of key ranges, or null for one
+     * @param sampler   sampler, if the merge is split into key ranges
+     * @return true if the job completed successfully
+     * @throws IOException if something went wrong
+     */
+    private boolean runMerge(final JobConf jobConf, final Integer numRanges,
+                             final InputSampler.Sampler<K, V> sampler)
+            throws IOException {
+        jobConf.setJobName("merger");
+        SortConfig sortConfig = new SortConfig(jobConf);
+
+        int ranges = numRanges == null ? 1 : numRanges;
+        if (ranges > 1 && sampler == null) {
+            System.out.println("Merging into a single file, since key ranges need "
+                    + "--total-order or --total-order-sketch");
+            ranges = 1;
+        }
+        if (ranges > 1) {
+            // compressed files without an LZOP index are read from the start by every range
+            //
+            CompressionCodecFactory codecs = new CompressionCodecFactory(jobConf);
+            int unseekable = 0;
+            for (String file : SortMergeInputFormat.listFiles(jobConf)) {
+                Path path = new Path(file);
+                CompressionCodec codec = codecs.getCodec(path);
+                if (codec != null && !(codec instanceof LzopCodec && path.getFileSystem(jobConf)
+                        .exists(path.suffix(LzoIndex.LZO_INDEX_SUFFIX)))) {
+                    unseekable++;
+                }
+            }
+            if (unseekable > 0) {
+                System.out.println("WARNING: " + unseekable + " compressed input files don't "
+                        + "have LZOP indexes, so each of the " + ranges + " key ranges "
+                        + "decompresses them from the start");
+            }
+
+            System.out.println("Sampling input to split the merge into key ranges...");
 
-            FileSystem fileSystem = FileSystem.get(jobConf);
+            // a key can't be spread over several ranges, since each range is a contiguous
+            // run of keys from every input file
+            //
+            sortConfig.setSplitHeavyKeys(false);
+            jobConf.setNumReduceTasks(ranges);
+            jobConf.setInputFormat(SortInputFormat.class);
+            jobConf.setMapOutputKeyClass(Text.class);
+            jobConf.setOutputKeyComparatorClass(SortKeyComparator.class);
 
+            // hidden files in the input are ignored by the merge; the partition file is set
+            // before sampling since samplers such as SketchSampler write alongside it
+            //
+            Path inputDir = FileInputFormat.getInputPaths(jobConf)[0];
+            FileSystem fileSystem = inputDir.getFileSystem(jobConf);
             if (fileSystem.exists(inputDir) && fileSystem.isFile(inputDir)) {
                 inputDir = inputDir.getParent();
             }
-            inputDir = inputDir.makeQualified(inputDir.getFileSystem(jobConf));
-            Path partitionFile = new Path(inputDir, "_sortPartitioning");
+            inputDir = inputDir.makeQualified(fileSystem);
+            Path partitionFile = new Path(inputDir, "_mergePartitioning");
+            TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
+            PartitionPlan partitionPlan = new PartitionPlan(jobConf);
+            partitionPlan.sample(sampler);
+            partitionPlan.writePartitionFile(partitionFile);
+            sortConfig.setMergePartitionFile(partitionFile.toString());
+        }
+
+        jobConf.setNumMapTasks(ranges);
+        jobConf.setNumReduceTasks(0);
+        jobConf.setInputFormat(SortMergeInputFormat.class);
+        SortMergeOutputFormat.setOutputFormat(jobConf, jobConf.getOutputFormat().getClass());
+        jobConf.setOutputFormat(SortMergeOutputFormat.class);
+        jobConf.setMapperClass(IdentityMapper.class);
+        jobConf.setOutputKeyClass(Text.class);
+        jobConf.setOutputValueClass(NullWritable.class);
+
+        System.out.println("Merging " + FileInputFormat.getInputPaths(jobConf)[0] + " into "
+                + FileOutputFormat.getOutputPath(jobConf) + " with " + ranges
+                + " key ranges.");
+        Date startTime = new Date();
+        System.out.println("Job started: " + startTime);
+        try {
+            jobResult = JobClient.runJob(jobConf);
+        } finally {
+            if (sortConfig.getMergePartitionFile() != null) {
+                Path partitionFile = new Path(sortConfig.getMergePartitionFile());
+                partitionFile.getFileSystem(jobConf).delete(partitionFile, false);
+            }
+        }
+        Date endTime = new Date();
+        System.out.println("Job ended: " + endTime);
+        System.out.println("The job took "
+                + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
+                + " seconds.");
+
+        return jobResult.isSuccessful();
+    }
+
+    /**
+     * Sort sequence files by their keys. Keys and values are read and written as raw bytes,
+     * and the keys are compared with the raw comparator registered for the key class by
+     * {@link SortSequenceFileComparator}, so neither is deserialized unless the key class has
+     * no raw comparator. The key and value classes are read from the header of the first
+     * input file, and every input file must have the same classes.
+     *
+     * @param jobConf        sort configuration, with the input and output paths set
+     * @param numMapTasks    number of map tasks
+     * @param numReduceTasks number of reduce tasks
+     * @param sampler        sampler, if required
+     * @return true if the job completed successfully
+     * @throws IOException        if something went wrong
+     * @throws URISyntaxException if a URI wasn't correctly formed
+     */
+    private boolean runSequenceFile(final JobConf jobConf, final Integer numMapTasks,
+                                    final Integer numReduceTasks,
+                                    final InputSampler.Sampler<K, V> sampler)
+            throws IOException, URISyntaxException {
+        jobConf.setJobName("sequence file sorter");
+
+        String[] files = SortMergeInputFormat.listFiles(jobConf);
+        if (files.length == 0) {
+            System.out.println("ERROR: No input files in "
+                    + FileInputFormat.getInputPaths(jobConf)[0]);
+            return false;
+        }
+        Path first = new Path(files[0]);
+        SequenceFile.Reader header = new SequenceFile.Reader(first.getFileSystem(jobConf),
+                first, jobConf);
+        Class<?> keyClass;
+        Class<?> valueClass;
+        try {
+            keyClass = header.getKeyClass();
+            valueClass = header.getValueClass();
+        } finally {
+            header.close();
+        }
+        if (!WritableComparable.class.isAssignableFrom(keyClass)) {
+            System.out.println("ERROR: The key class " + keyClass.getName() + " of " + first
+                    + " isn't a WritableComparable");
+            return false;
+        }
+
+        jobConf.setInputFormat(SequenceFileAsBinaryInputFormat.class);
+        jobConf.setMapperClass(IdentityMapper.class);
+        jobConf.setReducerClass(IdentityReducer.class);
+        jobConf.setMapOutputKeyClass(BytesWritable.class);
+        jobConf.setMapOutputValueClass(BytesWritable.class);
+        jobConf.setOutputKeyClass(BytesWritable.class);
+        jobConf.setOutputValueClass(BytesWritable.class);
+        jobConf.setOutputFormat(SequenceFileAsBinaryOutputFormat.class);
+        SequenceFileAsBinaryOutputFormat.setSequenceFileOutputKeyClass(jobConf, keyClass);
+        SequenceFileAsBinaryOutputFormat.setSequenceFileOutputValueClass(jobConf, valueClass);
+        jobConf.setOutputKeyComparatorClass(SortSequenceFileComparator.class);
+
+        // the raw values can't be compressed one record at a time, so compressed output uses
+        // block compression
+        //
+        if (FileOutputFormat.getCompressOutput(jobConf)) {
+            SequenceFileOutputFormat.setOutputCompressionType(jobConf,
+                    SequenceFile.CompressionType.BLOCK);
+        }
+
+        JobClient client = new JobClient(jobConf);
+        ClusterStatus cluster = client.getClusterStatus();
+        if (numMapTasks != null) {
+            jobConf.setNumMapTasks(numMapTasks);
+        }
+        jobConf.setNumReduceTasks(numReduceTasks != null
+                ? numReduceTasks : (int) (cluster.getMaxReduceTasks() * 0.9));
+
+        Path partitionFile = null;
+        if (sampler != null) {
+            System.out.println("Sampling input to effect total-order sort...");
+            Path inputDir = first.getParent().makeQualified(first.getFileSystem(jobConf));
+            partitionFile = new Path(inputDir, "_sortPartitioning");
             TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
             InputSampler.writePartitionFile(jobConf, sampler);
+
+            // the split points are ordered by the key comparator rather than by their bytes,
+            // so they can't be searched with a trie
+            //
+            jobConf.setBoolean("total.order.partitioner.natural.order", false);
+            jobConf.setPartitionerClass(TotalOrderPartitioner.class);
             URI partitionUri = new URI(partitionFile.toString()
                     + "#" + "_sortPartitioning");
             DistributedCache.addCacheFile(partitionUri, jobConf);
@@ -271,26 +1089,180 @@ public class Sort<K, V> extends Configured implements Tool {
 
         System.out.println("Running on "
                 + cluster.getTaskTrackers()
-                + " nodes to sort from "
+                + " nodes to sort " + keyClass.getName() + " keys from "
                 + FileInputFormat.getInputPaths(jobConf)[0] + " into "
                 + FileOutputFormat.getOutputPath(jobConf)
                 + " with " + jobConf.getNumReduceTasks() + " reduces.");
         Date startTime = new Date();
         System.out.println("Job started: " + startTime);
-        jobResult = JobClient.runJob(jobConf);
+        try {
+            jobResult = JobClient.runJob(jobConf);
+        } finally {
+            if (partitionFile != null) {
+                partitionFile.getFileSystem(jobConf).delete(partitionFile, false);
+            }
+        }
         Date endTime = new Date();
         System.out.println("Job ended: " + endTime);
         System.out.println("The job took "
                 + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
                 + " seconds.");
 
-        if (jobResult.isSuccessful()) {
-            if (createLzopIndexes && codecClass != null && LzopCodec.class.equals(codecClass)) {
-                new LzoIndexer(jobConf).index(new Path(outputDirAsString));
+        return jobResult.isSuccessful();
+    }
+
+    /**
+     * Sort Avro container files by a field of their records. Each record is shuffled with
+     * its field projected into a key by {@link SortAvroKey}, and the keys are compared in
+     * their serialized form by Avro's binary comparison. The schema is read from the first
+     * input file, and every input file must have the same schema.
+     *
+     * @param jobConf        sort configuration, with the input and output paths set
+     * @param numMapTasks    number of map tasks
+     * @param numReduceTasks number of reduce tasks
+     * @param sampler        sampler, if required
+     * @return true if the job completed successfully
+     * @throws IOException if something went wrong
+     */
+    private boolean runAvro(final JobConf jobConf, final Integer numMapTasks,
+                            final Integer numReduceTasks,
+                            final InputSampler.Sampler<K, V> sampler)
+            throws IOException {
+        jobConf.setJobName("avro sorter");
+        SortConfig sortConfig = new SortConfig(jobConf);
+
+        Path first = null;
+        for (String file : SortMergeInputFormat.listFiles(jobConf)) {
+            if (file.endsWith(AvroOutputFormat.EXT)) {
+                first = new Path(file);
+                break;
             }
-            return true;
         }
-        return false;
+        if (first == null) {
+            System.out.println("ERROR: No Avro input files in "
+                    + FileInputFormat.getInputPaths(jobConf)[0]);
+            return false;
+        }
+        DataFileReader<GenericRecord> header = new DataFileReader<GenericRecord>(
+                new FsInput(first, jobConf), new GenericDatumReader<GenericRecord>());
+        Schema schema;
+        try {
+            schema = header.getSchema();
+        } finally {
+            header.close();
+        }
+        SortAvroKey sortKey;
+        try {
+            sortKey = new SortAvroKey(schema, sortConfig.getAvroKey(), sortConfig.getReverse());
+        } catch (IllegalArgumentException except) {
+            System.out.println("ERROR: " + except.getMessage());
+            return false;
+        }
+
+        AvroJob.setInputSchema(jobConf, schema);
+        AvroJob.setMapperClass(jobConf, SortAvroMapper.class);
+        AvroJob.setMapOutputSchema(jobConf, Pair.getPairSchema(sortKey.getSchema(), schema));
+        AvroJob.setReducerClass(jobConf, SortAvroReduce.class);
+        AvroJob.setOutputSchema(jobConf, schema);
+
+        // AvroJob keeps any formats which are already set, such as text output formats
+        //
+        jobConf.setInputFormat(AvroInputFormat.class);
+        jobConf.setOutputFormat(AvroOutputFormat.class);
+
+        JobClient client = new JobClient(jobConf);
+        ClusterStatus cluster = client.getClusterStatus();
+        if (numMapTasks != null) {
+            jobConf.setNumMapTasks(numMapTasks);
+        }
+        jobConf.setNumReduceTasks(numReduceTasks != null
+                ? numReduceTasks : (int) (cluster.getMaxReduceTasks() * 0.9));
+
+        if (sampler != null && jobConf.getNumReduceTasks() > 1) {
+            System.out.println("Sampling input to effect total-order sort...");
+            Path inputDir = first.getParent().makeQualified(first.getFileSystem(jobConf));
+            Path partitionFile = new Path(inputDir, "_avroSortPartitioning");
+            SortAvroPartitioner.writePartitionFile(jobConf, sampler, partitionFile);
+            sortConfig.setAvroPartitionFile(partitionFile.toString());
+            jobConf.setPartitionerClass(SortAvroPartitioner.class);
+        }
+
+        System.out.println("Running on "
+                + cluster.getTaskTrackers()
+                + " nodes to sort " + schema.getFullName() + " records by "
+                + sortConfig.getAvroKey() + " from "
+                + FileInputFormat.getInputPaths(jobConf)[0] + " into "
+                + FileOutputFormat.getOutputPath(jobConf)
+                + " with " + jobConf.getNumReduceTasks() + " reduces.");
+        Date startTime = new Date();
+        System.out.println("Job started: " + startTime);
+        try {
+            jobResult = JobClient.runJob(jobConf);
+        } finally {
+            if (sortConfig.getAvroPartitionFile() != null) {
+                Path partitionFile = new Path(sortConfig.getAvroPartitionFile());
+                partitionFile.getFileSystem(jobConf).delete(partitionFile, false);
+            }
+        }
+        Date endTime = new Date();
+        System.out.println("Job ended: " + endTime);
+        System.out.println("The job took "
+                + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
+                + " seconds.");
+
+        return jobResult.isSuccessful();
+    }
+
+    /**
+     * Sort the input in-process with a {@link LocalSortEngine}.
+     *
+     * @param jobConf           sort configuration, with the input and output paths set
+     * @param inputBytes        the number of input bytes
+     * @param codecClass        the compression codec for compressing final outputs
+     * @param createLzopIndexes whether or not to create LZOP indexes for the output files
+     * @param outputDirAsString output directory
+     * @return true if the sort completed successfully
+     * @throws IOException if something went wrong
+     */
+    private boolean runLocal(final JobConf jobConf, final long inputBytes,
+                             final Class<? extends CompressionCodec> codecClass,
+                             final boolean createLzopIndexes, final String outputDirAsString)
+            throws IOException {
+        LocalSortEngine engine = new LocalSortEngine(jobConf);
+        System.out.println("Sorting " + inputBytes + " bytes in-process from "
+                + FileInputFormat.getInputPaths(jobConf)[0] + " into "
+                + FileOutputFormat.getOutputPath(jobConf) + " with "
+                + new SortConfig(jobConf).getLocalThreads() + " threads.");
+        Date startTime = new Date();
+        System.out.println("Sort started: " + startTime);
+        long lines = engine.sort(new Path(outputDirAsString));
+        Date endTime = new Date();
+        System.out.println("Sort ended: " + endTime);
+        System.out.println("The sort took "
+                + TimeUnit.MILLISECONDS.toSeconds(endTime.getTime() - startTime.getTime())
+                + " seconds to write " + lines + " lines using " + engine.getRuns() + " runs.");
+
+        jobResult = null;
+        Path outputDir = new Path(outputDirAsString);
+        if (createLzopIndexes && codecClass != null && LzopCodec.class.equals(codecClass)) {
+            new LzoIndexer(jobConf).index(outputDir);
+        }
+
+        // the single part file is described in the same way as a job's output
+        //
+        SortReport localReport = new SortReport()
+                .setPhase(SortReport.JOB, endTime.getTime() - startTime.getTime());
+        long indexStart = System.currentTimeMillis();
+        SortManifest manifest = SortManifest.collect(jobConf, outputDir);
+        manifest.write(jobConf, outputDir);
+        localReport.setPhase(SortReport.INDEX, System.currentTimeMillis() - indexStart);
+        long[] bytes = new long[manifest.getParts().size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = manifest.getParts().get(i).getBytes();
+        }
+        localReport.setReducerBytes(null, bytes).write(jobConf, outputDir);
+        report = localReport;
+        return true;
     }
 
     /**
@@ -307,9 +1279,31 @@ public class Sort<K, V> extends Configured implements Tool {
     /**
      * Get the last job that was run using this instance.
      *
-     * @return the results of the last job that was run
+     * @return the results of the last job that was run, or null if the last sort ran
+     *         in-process
      */
     public RunningJob getResult() {
         return jobResult;
     }
+
+    /**
+     * Get the performance report of the last sort run using this instance, which is also
+     * written to its output directory (see {@link SortReport}). In-process sorts only report
+     * their total time, the time taken to write the manifest and the size of their output.
+     *
+     * @return the report, or null if the last sort wasn't of text lines, or its job failed
+     */
+    public SortReport getReport() {
+        return report;
+    }
+
+    /**
+     * Get the first line found out of order by the last check.
+     *
+     * @return the file, line number and text of the line, or null if the last check found
+     *         the files to be sorted
+     */
+    public String getDisorder() {
+        return disorder;
+    }
 }
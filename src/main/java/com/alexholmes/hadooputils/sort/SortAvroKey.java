@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The key that Avro records are sorted by, which is a field found by its path through
+ * nested records, such as {@code user.id}. The field is projected into a record with a single
+ * field, so that the keys can be compared in their serialized form with
+ * {@link org.apache.avro.io.BinaryData#compare}, and so that the order of the field can be
+ * reversed. Records along the path may be nullable unions, in which case the key is null if
+ * any of them is null.
+ */
+public class SortAvroKey {
+
+    /**
+     * The name of the record which holds a key.
+     */
+    private static final String RECORD_NAME = "SortKey";
+
+    /**
+     * The name of the field which holds a key.
+     */
+    public static final String FIELD_NAME = "key";
+
+    /**
+     * The names of the fields along the path.
+     */
+    private final String[] path;
+
+    /**
+     * The schema of the keys.
+     */
+    private final Schema schema;
+
+    /**
+     * Constructor.
+     *
+     * @param recordSchema the schema of the records
+     * @param path         the dot-separated names of the field and the records which contain it
+     * @param reverse      whether the keys are in descending order
+     * @throws IllegalArgumentException if the path isn't a field of the records
+     */
+    public SortAvroKey(final Schema recordSchema, final String path, final boolean reverse) {
+        this.path = path.split("\\.");
+        Schema field = recordSchema;
+        boolean nullable = false;
+        for (String name : this.path) {
+            Schema record = field;
+            if (record.getType() == Schema.Type.UNION) {
+                record = getNonNullType(record);
+                nullable = true;
+            }
+            if (record == null || record.getType() != Schema.Type.RECORD
+                    || record.getField(name) == null) {
+                throw new IllegalArgumentException("Avro key " + path + " isn't a field of "
+                        + recordSchema.getFullName());
+            }
+            field = record.getField(name).schema();
+        }
+        if (nullable) {
+            field = makeNullable(field);
+        }
+
+        schema = Schema.createRecord(RECORD_NAME, null,
+                SortAvroKey.class.getPackage().getName(), false);
+        List<Schema.Field> fields = new ArrayList<Schema.Field>();
+        fields.add(new Schema.Field(FIELD_NAME, field, null, null,
+                reverse ? Schema.Field.Order.DESCENDING : Schema.Field.Order.ASCENDING));
+        schema.setFields(fields);
+    }
+
+    /**
+     * Get the only type other than null in a union.
+     *
+     * @param union the union
+     * @return the type, or null if the union isn't a nullable type
+     */
+    private static Schema getNonNullType(final Schema union) {
+        List<Schema> types = union.getTypes();
+        if (types.size() != 2) {
+            return null;
+        }
+        if (types.get(0).getType() == Schema.Type.NULL) {
+            return types.get(1);
+        } else if (types.get(1).getType() == Schema.Type.NULL) {
+            return types.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Add null to the types of a schema, unless it's already one of them.
+     *
+     * @param type the schema
+     * @return the nullable schema
+     */
+    private static Schema makeNullable(final Schema type) {
+        Schema nullType = Schema.create(Schema.Type.NULL);
+        if (type.getType() == Schema.Type.NULL) {
+            return type;
+        } else if (type.getType() != Schema.Type.UNION) {
+            return Schema.createUnion(Arrays.asList(nullType, type));
+        } else if (type.getTypes().contains(nullType)) {
+            return type;
+        }
+        List<Schema> types = new ArrayList<Schema>();
+        types.add(nullType);
+        types.addAll(type.getTypes());
+        return Schema.createUnion(types);
+    }
+
+    /**
+     * Get the schema of the keys, which is a record with a single field.
+     *
+     * @return the schema
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Project the key out of a record.
+     *
+     * @param record the record
+     * @return a new key, which shares the value of the field with the record
+     */
+    public GenericRecord extract(final GenericRecord record) {
+        Object value = record;
+        for (String name : path) {
+            if (value == null) {
+                break;
+            }
+            value = ((GenericRecord) value).get(name);
+        }
+        GenericRecord key = new GenericData.Record(schema);
+        key.put(FIELD_NAME, value);
+        return key;
+    }
+}
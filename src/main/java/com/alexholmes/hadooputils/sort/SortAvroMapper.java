@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroCollector;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroMapper;
+import org.apache.avro.mapred.Pair;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * Emits each Avro record with its sort key, as projected by {@link SortAvroKey}.
+ */
+public class SortAvroMapper extends AvroMapper<GenericRecord, Pair<GenericRecord, GenericRecord>> {
+
+    /**
+     * The sort key.
+     */
+    private SortAvroKey sortKey;
+
+    /**
+     * The schema of the records.
+     */
+    private Schema recordSchema;
+
+    @Override
+    public void configure(final JobConf job) {
+        SortConfig sortConfig = new SortConfig(job);
+        recordSchema = AvroJob.getInputSchema(job);
+        sortKey = new SortAvroKey(recordSchema, sortConfig.getAvroKey(),
+                sortConfig.getReverse());
+    }
+
+    @Override
+    public void map(final GenericRecord record,
+                    final AvroCollector<Pair<GenericRecord, GenericRecord>> collector,
+                    final Reporter reporter) throws IOException {
+        collector.collect(new Pair<GenericRecord, GenericRecord>(sortKey.extract(record),
+                sortKey.getSchema(), record, recordSchema));
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroInputFormat;
+import org.apache.avro.mapred.AvroJob;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.avro.mapred.AvroRecordReader;
+import org.apache.avro.mapred.AvroValue;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.mapred.FsInput;
+import org.apache.avro.mapred.Pair;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.InputSampler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A total order partitioner for Avro sorts, which sends each key range to its own reducer.
+ * The ranges are divided by split points, which are sampled from the input keys and written
+ * to an Avro container file by {@link #writePartitionFile}. Hadoop's
+ * {@link org.apache.hadoop.mapred.lib.TotalOrderPartitioner} can't be used since it reads
+ * its split points as {@link org.apache.hadoop.io.Writable}s.
+ */
+public class SortAvroPartitioner
+        implements Partitioner<AvroKey<GenericRecord>, AvroValue<GenericRecord>> {
+
+    /**
+     * The split points, in key order.
+     */
+    private List<GenericRecord> splitPoints;
+
+    /**
+     * Compares keys in the order of their schema.
+     */
+    private Comparator<GenericRecord> comparator;
+
+    @Override
+    public void configure(final JobConf job) {
+        final Schema keySchema = Pair.getKeySchema(AvroJob.getMapOutputSchema(job));
+        comparator = createComparator(keySchema);
+        splitPoints = new ArrayList<GenericRecord>();
+        try {
+            Path file = new Path(new SortConfig(job).getAvroPartitionFile());
+            DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(
+                    new FsInput(file, job), new GenericDatumReader<GenericRecord>(keySchema));
+            try {
+                while (reader.hasNext()) {
+                    splitPoints.add(reader.next());
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read the Avro partition file", e);
+        }
+    }
+
+    @Override
+    public int getPartition(final AvroKey<GenericRecord> key, final AvroValue<GenericRecord> value,
+                            final int numPartitions) {
+        int pos = Collections.binarySearch(splitPoints, key.datum(), comparator);
+        return pos < 0 ? -pos - 1 : pos + 1;
+    }
+
+    /**
+     * Create a comparator for keys.
+     *
+     * @param keySchema the schema of the keys
+     * @return the comparator
+     */
+    private static Comparator<GenericRecord> createComparator(final Schema keySchema) {
+        return new Comparator<GenericRecord>() {
+            @Override
+            public int compare(final GenericRecord a, final GenericRecord b) {
+                return GenericData.get().compare(a, b, keySchema);
+            }
+        };
+    }
+
+    /**
+     * Sample the keys of the input records, and write a split point between each reducer's
+     * range of keys to a file. Split points are distinct, so all the records with a key go to
+     * a single reducer, and there may be fewer ranges than reducers if there are few
+     * distinct keys.
+     *
+     * @param job     the job configuration, with the Avro schemas, sort key and number of
+     *                reducers set
+     * @param sampler the sampler
+     * @param file    the file to write
+     * @param <K>     the type of the keys the sampler returns
+     * @param <V>     the type of the values the sampler reads
+     * @throws IOException if something goes wrong
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> void writePartitionFile(final JobConf job,
+                                                 final InputSampler.Sampler<K, V> sampler,
+                                                 final Path file) throws IOException {
+        SortConfig sortConfig = new SortConfig(job);
+        SortAvroKey sortKey = new SortAvroKey(AvroJob.getInputSchema(job),
+                sortConfig.getAvroKey(), sortConfig.getReverse());
+        InputFormat<K, V> inf = (InputFormat<K, V>) (InputFormat<?, ?>) new SampleInputFormat();
+        K[] samples = sampler.getSample(inf, job);
+
+        GenericRecord[] keys = new GenericRecord[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            keys[i] = ((AvroKey<GenericRecord>) samples[i]).datum();
+        }
+        Comparator<GenericRecord> comparator = createComparator(sortKey.getSchema());
+        Arrays.sort(keys, comparator);
+
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new GenericDatumWriter<GenericRecord>(sortKey.getSchema()));
+        OutputStream out = file.getFileSystem(job).create(file);
+        writer.create(sortKey.getSchema(), out);
+        try {
+            int numPartitions = job.getNumReduceTasks();
+            float stepSize = keys.length / (float) numPartitions;
+            int last = -1;
+            for (int i = 1; i < numPartitions && keys.length > 0; i++) {
+                int k = Math.round(stepSize * i);
+                while (k < keys.length && last >= 0
+                        && (k <= last || comparator.compare(keys[last], keys[k]) == 0)) {
+                    ++k;
+                }
+                if (k >= keys.length) {
+                    break;
+                }
+                writer.append(keys[k]);
+                last = k;
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads the sort keys of Avro records, for sampling.
+     */
+    private static class SampleInputFormat
+            implements InputFormat<AvroKey<GenericRecord>, NullWritable> {
+
+        /**
+         * The input format for the records.
+         */
+        private final AvroInputFormat<GenericRecord> records = new AvroInputFormat<GenericRecord>();
+
+        @Override
+        public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+            return records.getSplits(job, numSplits);
+        }
+
+        @Override
+        public RecordReader<AvroKey<GenericRecord>, NullWritable> getRecordReader(
+                final InputSplit split, final JobConf job, final Reporter reporter)
+                throws IOException {
+            SortConfig sortConfig = new SortConfig(job);
+            final SortAvroKey sortKey = new SortAvroKey(AvroJob.getInputSchema(job),
+                    sortConfig.getAvroKey(), sortConfig.getReverse());
+            final AvroRecordReader<GenericRecord> reader =
+                    new AvroRecordReader<GenericRecord>(job, (FileSplit) split);
+            return new RecordReader<AvroKey<GenericRecord>, NullWritable>() {
+                @Override
+                public boolean next(final AvroKey<GenericRecord> key, final NullWritable value)
+                        throws IOException {
+                    // each record is read into a new datum, since samples are kept
+                    //
+                    AvroWrapper<GenericRecord> record = new AvroWrapper<GenericRecord>(null);
+                    if (!reader.next(record, value)) {
+                        return false;
+                    }
+                    key.datum(sortKey.extract(record.datum()));
+                    return true;
+                }
+
+                @Override
+                public AvroKey<GenericRecord> createKey() {
+                    return new AvroKey<GenericRecord>();
+                }
+
+                @Override
+                public NullWritable createValue() {
+                    return NullWritable.get();
+                }
+
+                @Override
+                public long getPos() throws IOException {
+                    return reader.getPos();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+
+                @Override
+                public float getProgress() throws IOException {
+                    return reader.getProgress();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroCollector;
+import org.apache.avro.mapred.AvroReducer;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * Writes the Avro records with each sort key, which arrive in key order. Only the first
+ * record of each key is written for unique sorts.
+ */
+public class SortAvroReduce extends AvroReducer<GenericRecord, GenericRecord, GenericRecord> {
+
+    /**
+     * Whether only the first record of each key is written.
+     */
+    private boolean unique;
+
+    @Override
+    public void configure(final JobConf job) {
+        unique = new SortConfig(job).getUnique();
+    }
+
+    @Override
+    public void reduce(final GenericRecord key, final Iterable<GenericRecord> records,
+                       final AvroCollector<GenericRecord> collector, final Reporter reporter)
+            throws IOException {
+        for (GenericRecord record : records) {
+            collector.collect(record);
+            if (unique) {
+                break;
+            }
+        }
+    }
+}
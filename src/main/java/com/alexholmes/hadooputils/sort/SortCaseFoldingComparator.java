@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The {@link org.apache.hadoop.io.RawComparator} for case-insensitive sorts whose keys are
+ * the lines themselves, which orders lines the same way as {@link SortKeyComparator} orders
+ * the keys that {@link SortKeySpec#IGNORE_CASE} produces, without lower-casing every line.
+ * <p/>
+ * The bytes are compared eight at a time as big-endian longs, and ASCII letters are folded
+ * to lower case in the words as they're compared. When a non-ASCII byte shows up both lines
+ * are lower-cased in full by {@link SortKeyExtractor#foldCase} and compared again, which is
+ * slower but only happens for lines which have the same ASCII prefix up to that point.
+ */
+public class SortCaseFoldingComparator extends WritableComparator {
+
+    /**
+     * The number of bytes in a word.
+     */
+    private static final int WORD_BYTES = Long.SIZE / Byte.SIZE;
+
+    /**
+     * The high bit of each byte in a word, which are only set for non-ASCII bytes.
+     */
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Added to each byte in a word of ASCII bytes, this sets the high bit of the bytes which
+     * are at least {@code 'A'}.
+     */
+    private static final long ABOVE_A = 0x3F3F3F3F3F3F3F3FL;
+
+    /**
+     * Added to each byte in a word of ASCII bytes, this sets the high bit of the bytes which
+     * are more than {@code 'Z'}.
+     */
+    private static final long ABOVE_Z = 0x2525252525252525L;
+
+    /**
+     * The bit which distinguishes an upper and lower case ASCII letter.
+     */
+    private static final int CASE_BIT = 'a' - 'A';
+
+    /**
+     * Constructor.
+     */
+    public SortCaseFoldingComparator() {
+        super(Text.class);
+    }
+
+    @Override
+    public int compare(final byte[] b1, final int s1, final int l1,
+                       final byte[] b2, final int s2, final int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareFolded(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(final WritableComparable a, final WritableComparable b) {
+        Text t1 = (Text) a;
+        Text t2 = (Text) b;
+        return compareFolded(t1.getBytes(), 0, t1.getLength(), t2.getBytes(), 0,
+                t2.getLength());
+    }
+
+    /**
+     * Compare two UTF-8 byte ranges ignoring case.
+     *
+     * @param b1 the first bytes
+     * @param s1 the start of the first range
+     * @param l1 the length of the first range
+     * @param b2 the second bytes
+     * @param s2 the start of the second range
+     * @param l2 the length of the second range
+     * @return a negative integer, zero, or a positive integer as the first range is less
+     *         than, equal to, or greater than the second once case is ignored
+     */
+    public static int compareFolded(final byte[] b1, final int s1, final int l1,
+                                    final byte[] b2, final int s2, final int l2) {
+        int n = Math.min(l1, l2);
+        int i = 0;
+        for (; i + WORD_BYTES <= n; i += WORD_BYTES) {
+            long w1 = readLong(b1, s1 + i);
+            long w2 = readLong(b2, s2 + i);
+            if (w1 == w2) {
+                continue;
+            }
+            if (((w1 | w2) & HIGH_BITS) != 0) {
+                return compareUnicode(b1, s1, l1, b2, s2, l2);
+            }
+            w1 = foldWord(w1);
+            w2 = foldWord(w2);
+            if (w1 != w2) {
+                return SortKeyComparator.compareUnsigned(w1, w2);
+            }
+        }
+        for (; i < n; i++) {
+            int a = b1[s1 + i];
+            int b = b2[s2 + i];
+            if (a == b) {
+                continue;
+            }
+            if (a < 0 || b < 0) {
+                return compareUnicode(b1, s1, l1, b2, s2, l2);
+            }
+            a = foldByte(a);
+            b = foldByte(b);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        // lower-casing a non-ASCII suffix never removes all of it, so the shorter range is
+        // still a prefix of the longer one once they're folded
+        //
+        return l1 - l2;
+    }
+
+    /**
+     * Lower-case the ASCII letters in a word which only contains ASCII bytes. The high bit
+     * of each byte is set if it's at least {@code 'A'} and not more than {@code 'Z'}, and
+     * shifting those bits down gives the case bit of each upper case letter.
+     *
+     * @param word the word
+     * @return the lower-cased word
+     */
+    static long foldWord(final long word) {
+        long upper = (word + ABOVE_A) & ~(word + ABOVE_Z) & HIGH_BITS;
+        return word | (upper >>> 2);
+    }
+
+    /**
+     * Lower-case an ASCII letter.
+     *
+     * @param b the ASCII byte
+     * @return the lower-cased byte
+     */
+    private static int foldByte(final int b) {
+        return b >= 'A' && b <= 'Z' ? b + CASE_BIT : b;
+    }
+
+    /**
+     * Compare two UTF-8 byte ranges by lower-casing copies of them in full.
+     *
+     * @param b1 the first bytes
+     * @param s1 the start of the first range
+     * @param l1 the length of the first range
+     * @param b2 the second bytes
+     * @param s2 the start of the second range
+     * @param l2 the length of the second range
+     * @return a negative integer, zero, or a positive integer as the first range is less
+     *         than, equal to, or greater than the second once case is ignored
+     */
+    private static int compareUnicode(final byte[] b1, final int s1, final int l1,
+                                      final byte[] b2, final int s2, final int l2) {
+        Text t1 = new Text();
+        t1.set(b1, s1, l1);
+        SortKeyExtractor.foldCase(t1);
+        Text t2 = new Text();
+        t2.set(b2, s2, l2);
+        SortKeyExtractor.foldCase(t2);
+        return SortKeyComparator.compareWords(t1.getBytes(), 0, t1.getLength(),
+                t2.getBytes(), 0, t2.getLength());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/**
+ * The hash partitioner for sorts which aren't total-order and whose keys are compared by
+ * {@link SortCaseFoldingComparator}, which hashes keys with their ASCII letters lower-cased
+ * so that every line with the same key once case is ignored goes to the same reducer. Keys
+ * which aren't ASCII are lower-cased in full first.
+ */
+public class SortCaseFoldingPartitioner implements Partitioner<Text, Writable> {
+
+    /**
+     * The bit which distinguishes an upper and lower case ASCII letter.
+     */
+    private static final int CASE_BIT = 'a' - 'A';
+
+    /**
+     * The lower-cased copy of a non-ASCII key.
+     */
+    private final Text folded = new Text();
+
+    @Override
+    public void configure(final JobConf job) {
+    }
+
+    @Override
+    public int getPartition(final Text key, final Writable value, final int numPartitions) {
+        return (hash(key) & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /**
+     * Hash a key with case ignored, in the same way as
+     * {@link WritableComparator#hashBytes} hashes the lower-cased key.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    int hash(final Text key) {
+        byte[] bytes = key.getBytes();
+        int hash = 1;
+        for (int i = 0; i < key.getLength(); i++) {
+            int b = bytes[i];
+            if (b < 0) {
+                folded.set(key);
+                SortKeyExtractor.foldCase(folded);
+                return WritableComparator.hashBytes(folded.getBytes(), folded.getLength());
+            }
+            hash = (31 * hash) + (b >= 'A' && b <= 'Z' ? b + CASE_BIT : b);
+        }
+        return hash;
+    }
+}
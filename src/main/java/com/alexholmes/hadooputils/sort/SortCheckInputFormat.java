@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The {@link InputFormat} used by {@link Sort} with {@code --check}, which creates one split
+ * for each file so that every file is checked by a single {@link SortCheckMapper}. Each split
+ * also names the next non-empty file, so that the mapper can check the boundary between
+ * the two. Files are ordered in the same way as {@link SortMergeInputFormat}, which for the
+ * output of a sort is the order of its part files.
+ * <p/>
+ * The key is the sort key and the value is the line, as with {@link SortInputFormat}.
+ */
+public class SortCheckInputFormat implements InputFormat<Text, Text> {
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        String[] files = SortMergeInputFormat.listFiles(job);
+        FileStatus[] statuses = new FileStatus[files.length];
+        for (int i = 0; i < files.length; i++) {
+            Path path = new Path(files[i]);
+            statuses[i] = path.getFileSystem(job).getFileStatus(path);
+        }
+
+        InputSplit[] splits = new InputSplit[files.length];
+        String next = null;
+        for (int i = files.length - 1; i >= 0; i--) {
+            FileSystem fs = statuses[i].getPath().getFileSystem(job);
+            BlockLocation[] blocks = fs.getFileBlockLocations(statuses[i], 0,
+                    statuses[i].getLen());
+            String[] hosts = blocks == null || blocks.length == 0
+                    ? new String[0] : blocks[0].getHosts();
+            splits[i] = new CheckSplit(i, files[i], statuses[i].getLen(), next, hosts);
+            if (statuses[i].getLen() > 0) {
+                next = files[i];
+            }
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Text, Text> getRecordReader(final InputSplit split, final JobConf job,
+                                                    final Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        CheckSplit checkSplit = (CheckSplit) split;
+        return new SortRecordReader(job, new LineRecordReader(job,
+                new FileSplit(new Path(checkSplit.getFile()), 0, checkSplit.getLength(),
+                        (String[]) null)));
+    }
+
+    /**
+     * A whole file, and the next non-empty file after it.
+     */
+    public static class CheckSplit implements InputSplit {
+
+        /**
+         * The index of the file.
+         */
+        private int index;
+
+        /**
+         * The file.
+         */
+        private String file;
+
+        /**
+         * The length of the file.
+         */
+        private long length;
+
+        /**
+         * The next non-empty file, or null if this is the last one.
+         */
+        private String next;
+
+        /**
+         * The hosts which hold the start of the file.
+         */
+        private String[] hosts;
+
+        /**
+         * Constructor used for deserialization.
+         */
+        public CheckSplit() {
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param index  the index of the file
+         * @param file   the file
+         * @param length the length of the file
+         * @param next   the next non-empty file, or null if this is the last one
+         * @param hosts  the hosts which hold the start of the file
+         */
+        public CheckSplit(final int index, final String file, final long length,
+                          final String next, final String[] hosts) {
+            this.index = index;
+            this.file = file;
+            this.length = length;
+            this.next = next;
+            this.hosts = hosts;
+        }
+
+        /**
+         * Get the index of the file.
+         *
+         * @return the index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the file.
+         *
+         * @return the file
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Get the next non-empty file.
+         *
+         * @return the next file, or null if this is the last one
+         */
+        public String getNext() {
+            return next;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String[] getLocations() {
+            return hosts == null ? new String[0] : hosts;
+        }
+
+        @Override
+        public void write(final DataOutput out) throws IOException {
+            out.writeInt(index);
+            Text.writeString(out, file);
+            out.writeLong(length);
+            out.writeBoolean(next != null);
+            if (next != null) {
+                Text.writeString(out, next);
+            }
+        }
+
+        @Override
+        public void readFields(final DataInput in) throws IOException {
+            index = in.readInt();
+            file = Text.readString(in);
+            length = in.readLong();
+            next = in.readBoolean() ? Text.readString(in) : null;
+            hosts = null;
+        }
+
+        @Override
+        public String toString() {
+            return file;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A mapper which checks that a file produced by {@link Sort} is in order, and that its last
+ * key isn't greater than the first key of the next file. With {@code -u} equal adjacent keys
+ * are also a violation. Only the first violation in each file is reported, as a line of the
+ * form {@code INDEX<tab>FILE:LINE: disorder: TEXT}, where {@code INDEX} is the index of the
+ * file whose check found it, so that {@link Sort} can report the first violation overall.
+ */
+public class SortCheckMapper extends MapReduceBase
+        implements Mapper<Text, Text, Text, NullWritable> {
+
+    /**
+     * The job configuration.
+     */
+    private JobConf job;
+
+    /**
+     * Whether equal adjacent keys are a violation.
+     */
+    private boolean unique;
+
+    /**
+     * The split being checked, which is known once the first line has been read.
+     */
+    private SortCheckInputFormat.CheckSplit split;
+
+    /**
+     * Where violations are written.
+     */
+    private OutputCollector<Text, NullWritable> output;
+
+    /**
+     * The reporter.
+     */
+    private Reporter reporter;
+
+    /**
+     * The key of the previous line.
+     */
+    private final Text previous = new Text();
+
+    /**
+     * The number of lines read.
+     */
+    private long lines;
+
+    /**
+     * Whether a violation has been found.
+     */
+    private boolean disordered;
+
+    @Override
+    public void configure(final JobConf conf) {
+        super.configure(conf);
+        job = conf;
+        unique = new SortConfig(conf).getUnique();
+    }
+
+    @Override
+    public void map(final Text key, final Text value,
+                    final OutputCollector<Text, NullWritable> collector, final Reporter rep)
+            throws IOException {
+        if (split == null) {
+            split = (SortCheckInputFormat.CheckSplit) rep.getInputSplit();
+            output = collector;
+            reporter = rep;
+        }
+        lines++;
+        if (!disordered && lines > 1 && violates(previous, key)) {
+            report(split.getFile(), lines, value);
+        }
+        previous.set(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (split == null) {
+            return;
+        }
+        reporter.incrCounter(SortCounter.CHECK_LINES, lines);
+        if (disordered || split.getNext() == null) {
+            return;
+        }
+
+        // compare the last key with the first key of the next file
+        //
+        Path next = new Path(split.getNext());
+        FileSystem fs = next.getFileSystem(job);
+        CompressionCodec codec = new CompressionCodecFactory(job).getCodec(next);
+        InputStream in = fs.open(next);
+        if (codec != null) {
+            in = codec.createInputStream(in);
+        }
+        try {
+            Text line = new Text();
+            if (new LineReader(in, job).readLine(line) > 0) {
+                Text key = new Text();
+                new SortConfig(job).createKeyExtractor().extract(line, key);
+                if (violates(previous, key)) {
+                    report(split.getNext(), 1, line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Whether a key is out of order.
+     *
+     * @param before the key of the line before
+     * @param key    the key
+     * @return true if the key is out of order
+     */
+    private boolean violates(final Text before, final Text key) {
+        int cmp = WritableComparator.compareBytes(before.getBytes(), 0, before.getLength(),
+                key.getBytes(), 0, key.getLength());
+        return cmp > 0 || (unique && cmp == 0);
+    }
+
+    /**
+     * Report a violation.
+     *
+     * @param file the file containing the line which is out of order
+     * @param line the 1-based line number
+     * @param text the line
+     * @throws IOException if something goes wrong
+     */
+    private void report(final String file, final long line, final Text text)
+            throws IOException {
+        disordered = true;
+        reporter.incrCounter(SortCounter.CHECK_DISORDERS, 1);
+        output.collect(new Text(split.getIndex() + "\t" + file + ":" + line + ": disorder: "
+                + text), NullWritable.get());
+    }
+}
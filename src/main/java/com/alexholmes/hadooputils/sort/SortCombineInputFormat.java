@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.alexholmes.hadooputils.combine.common.mapred.CommonCombineRecordReader;
+import com.alexholmes.hadooputils.combine.common.mapred.SplitMetricsCombineInputFormat;
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzoInputFormatCommon;
+import com.hadoop.mapred.DeprecatedLzoTextInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A variant of {@link SortInputFormat} which packs many small text and LZO files into each
+ * split, so that a directory of small files doesn't start a map task per file. Splits are
+ * capped at {@code mapred.max.split.size} bytes, and each file in a split is read with the
+ * same record readers as {@link SortInputFormat}, so the keys and values are the same.
+ * <p/>
+ * Compressed files can only be read from their start, so a compressed file is read in full
+ * by the reader of its first chunk, and its other chunks are empty.
+ * <p/>
+ * Stable sorts number each split's file, which combined splits don't do, so they always use
+ * {@link SortInputFormat}.
+ */
+public class SortCombineInputFormat extends SplitMetricsCombineInputFormat<Text, Writable> {
+
+    /**
+     * How many times smaller than a split the average input file has to be for the input to
+     * be combined.
+     */
+    static final int SMALL_FILE_RATIO = 4;
+
+    /**
+     * Whether a job's input is made of files which are small enough to be worth combining,
+     * which is when there's more than one file and their average size is well below the
+     * split size.
+     *
+     * @param job        the job configuration
+     * @param splitBytes the maximum size of a combined split
+     * @return true if the input should be combined
+     * @throws IOException if something goes wrong
+     */
+    public static boolean isSmallFileInput(final JobConf job, final long splitBytes)
+            throws IOException {
+        long files = 0;
+        long bytes = 0;
+        for (Path input : FileInputFormat.getInputPaths(job)) {
+            FileSystem fs = input.getFileSystem(job);
+            if (fs.exists(input)) {
+                ContentSummary summary = fs.getContentSummary(input);
+                files += summary.getFileCount();
+                bytes += summary.getLength();
+            }
+        }
+        return files > 1 && bytes / files < splitBytes / SMALL_FILE_RATIO;
+    }
+
+    @Override
+    protected FileStatus[] listStatus(final JobConf job) throws IOException {
+        // LZO indexes are read by the LZO record readers, not as input
+        //
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (!file.getPath().getName().endsWith(LzoIndex.LZO_INDEX_SUFFIX)) {
+                files.add(file);
+            }
+        }
+        return files.toArray(new FileStatus[files.size()]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RecordReader<Text, Writable> getRecordReader(final InputSplit split,
+                                                        final JobConf job,
+                                                        final Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        final DeprecatedLzoTextInputFormat lines = new DeprecatedLzoTextInputFormat();
+        lines.configure(job);
+        final CompressionCodecFactory codecs = new CompressionCodecFactory(job);
+        final boolean keyIsLine = new SortConfig(job).getKeyIsLine();
+
+        return new CommonCombineRecordReader<Text, Writable>(job, (CombineFileSplit) split,
+                new CommonCombineRecordReader.RecordReaderEngineerer<Text, Writable>() {
+                    @Override
+                    public RecordReader<Text, Writable> createRecordReader(
+                            final Configuration conf, final FileSplit fileSplit)
+                            throws IOException {
+                        FileSplit chunk = fileSplit;
+                        Path path = fileSplit.getPath();
+                        RecordReader<LongWritable, Text> reader;
+                        if (codecs.getCodec(path) == null
+                                && !LzoInputFormatCommon.isLzoFile(path.toString())) {
+                            reader = lines.getRecordReader(chunk, job, reporter);
+                        } else if (fileSplit.getStart() == 0) {
+                            long length = path.getFileSystem(job).getFileStatus(path).getLen();
+                            chunk = new FileSplit(path, 0, length, fileSplit.getLocations());
+                            reader = lines.getRecordReader(chunk, job, reporter);
+                        } else {
+                            reader = new NoLines();
+                        }
+                        RecordReader<? extends Text, ? extends Writable> sortReader = keyIsLine
+                                ? new SortLineRecordReader(reader, reporter)
+                                : new SortRecordReader(job, reader, -1, reporter);
+                        return (RecordReader<Text, Writable>) sortReader;
+                    }
+                });
+    }
+
+    /**
+     * The reader of a chunk of a compressed file after its first, which has no lines.
+     */
+    private static final class NoLines implements RecordReader<LongWritable, Text> {
+
+        @Override
+        public boolean next(final LongWritable key, final Text value) {
+            return false;
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return new LongWritable();
+        }
+
+        @Override
+        public Text createValue() {
+            return new Text();
+        }
+
+        @Override
+        public long getPos() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 1.0f;
+        }
+    }
+}
@@ -16,8 +16,13 @@
 
 package com.alexholmes.hadooputils.sort;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A convenience class which reads and writes sort configurations
  * from a wrapped {@link Configuration}.
@@ -39,6 +44,16 @@ public class SortConfig {
      */
     private static final String UNIQUE = "sort.unique";
 
+    /**
+     * Configuration for the number of keys held by the in-mapper cache for unique sorts.
+     */
+    private static final String UNIQUE_CACHE_SIZE = "sort.unique.cache.size";
+
+    /**
+     * The default number of keys held by the in-mapper cache for unique sorts.
+     */
+    public static final int DEFAULT_UNIQUE_CACHE_SIZE = 10000;
+
     /**
      * Configuration for the start key when sorting.
      */
@@ -54,6 +69,181 @@ public class SortConfig {
      */
     private static final String FIELD_SEPARATOR = "sort.field.separator";
 
+    /**
+     * Configuration for the key definitions, which take precedence over the start and end
+     * keys.
+     */
+    private static final String KEYS = "sort.keys";
+
+    /**
+     * Configuration for ignoring leading blanks when sorting.
+     */
+    private static final String IGNORE_LEADING_BLANKS = "sort.ignoreblanks";
+
+    /**
+     * Configuration for whether to compare according to string numerical value.
+     */
+    private static final String NUMERIC = "sort.numeric";
+
+    /**
+     * Configuration for whether to compare according to general numerical value.
+     */
+    private static final String GENERAL_NUMERIC = "sort.general.numeric";
+
+    /**
+     * Configuration for whether to compare human readable numbers, such as 2K and 1G.
+     */
+    private static final String HUMAN_NUMERIC = "sort.human.numeric";
+
+    /**
+     * Configuration for whether to compare month names, such as JAN and DEC.
+     */
+    private static final String MONTH = "sort.month";
+
+    /**
+     * Configuration for whether to reverse the result of comparisons.
+     */
+    private static final String REVERSE = "sort.reverse";
+
+    /**
+     * Configuration for whether the map output key is the entire sort line, in which case
+     * the map output value is a {@link org.apache.hadoop.io.NullWritable}.
+     */
+    private static final String KEY_IS_LINE = "sort.key.is.line";
+
+    /**
+     * Configuration for whether case is ignored by {@link SortCaseFoldingComparator} rather
+     * than by lower-casing the keys.
+     */
+    private static final String COMPARATOR_FOLDS_CASE = "sort.comparator.folds.case";
+
+    /**
+     * Configuration for whether total-order sorts can spread a heavy key over several
+     * adjacent reducers.
+     */
+    private static final String SPLIT_HEAVY_KEYS = "sort.split.heavy.keys";
+
+    /**
+     * Configuration for the directory which holds cached total-order partition boundaries.
+     */
+    private static final String PARTITION_CACHE_DIR = "sort.partition.cache.dir";
+
+    /**
+     * Configuration for the number of seconds a cached partition entry remains valid.
+     */
+    private static final String PARTITION_CACHE_TTL = "sort.partition.cache.ttl.secs";
+
+    /**
+     * The default number of seconds a cached partition entry remains valid, which is a week.
+     */
+    public static final long DEFAULT_PARTITION_CACHE_TTL = 7 * 24 * 60 * 60;
+
+    /**
+     * Configuration for the input size in bytes below which the sort runs in-process rather
+     * than as a MapReduce job.
+     */
+    private static final String LOCAL_THRESHOLD = "sort.local.threshold.bytes";
+
+    /**
+     * Configuration for the number of threads used by in-process sorts.
+     */
+    private static final String LOCAL_THREADS = "sort.local.threads";
+
+    /**
+     * Configuration for whether the number of reducers is picked from the input size when it
+     * isn't supplied.
+     */
+    private static final String AUTO_REDUCERS = "sort.reducers.auto";
+
+    /**
+     * Configuration for the number of bytes each reducer should receive when the number of
+     * reducers is picked from the input size.
+     */
+    private static final String BYTES_PER_REDUCER = "sort.bytes.per.reducer";
+
+    /**
+     * The default number of bytes each reducer should receive, which is 1GB.
+     */
+    public static final long DEFAULT_BYTES_PER_REDUCER = 1024L * 1024 * 1024;
+
+    /**
+     * Configuration for whether the inputs are already sorted and only need to be merged.
+     */
+    private static final String MERGE = "sort.merge";
+
+    /**
+     * Configuration for the file holding the split points which divide a merge into key
+     * ranges.
+     */
+    private static final String MERGE_PARTITION_FILE = "sort.merge.partition.file";
+
+    /**
+     * Configuration for whether the inputs are checked for sortedness rather than sorted.
+     */
+    private static final String CHECK = "sort.check";
+
+    /**
+     * Configuration for the number of lines kept from the start of the sorted output.
+     */
+    private static final String HEAD = "sort.head";
+
+    /**
+     * Configuration for the number of lines kept from the end of the sorted output.
+     */
+    private static final String TAIL = "sort.tail";
+
+    /**
+     * Configuration for whether lines with equal keys keep their input order.
+     */
+    private static final String STABLE = "sort.stable";
+
+    /**
+     * Configuration for whether each key is written once with the number of its lines.
+     */
+    private static final String COUNT = "sort.count";
+
+    /**
+     * Configuration for the memory used by the in-mapper counts of {@code --count} sorts.
+     */
+    private static final String COUNT_CACHE_BYTES = "sort.count.cache.bytes";
+
+    /**
+     * The default memory used by the in-mapper counts, which is 16MB.
+     */
+    public static final long DEFAULT_COUNT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Configuration for the number of lines between entries of the sparse key index.
+     */
+    private static final String KEY_INDEX_INTERVAL = "sort.key.index.interval";
+
+    /**
+     * Configuration for the layout of the output files.
+     */
+    private static final String OUTPUT_LAYOUT = "sort.output.layout";
+
+    /**
+     * Configuration for the maximum size of the splits that small input files are packed
+     * into.
+     */
+    private static final String COMBINE_SPLIT_BYTES = "sort.combine.split.bytes";
+
+    /**
+     * Configuration for whether the inputs are sequence files, which are sorted by their keys.
+     */
+    private static final String SEQUENCE_FILE = "sort.sequence.file";
+
+    /**
+     * Configuration for the path of the field that Avro inputs are sorted by.
+     */
+    private static final String AVRO_KEY = "sort.avro.key";
+
+    /**
+     * Configuration for the file holding the split points which divide an Avro sort into
+     * key ranges.
+     */
+    private static final String AVRO_PARTITION_FILE = "sort.avro.partition.file";
+
     /**
      * Constructor, which takes a {link Configuration} object.
      *
@@ -83,6 +273,126 @@ public class SortConfig {
         return config.getBoolean(IGNORE_CASE, false);
     }
 
+    /**
+     * Set whether leading blanks should be ignored when sorted.
+     *
+     * @param ignoreBlanks true if leading blanks should be ignored for sorting
+     * @return reference to this object
+     */
+    public SortConfig setIgnoreLeadingBlanks(final boolean ignoreBlanks) {
+        config.setBoolean(IGNORE_LEADING_BLANKS, ignoreBlanks);
+        return this;
+    }
+
+    /**
+     * Get whether leading blanks should be ignored when sorted.
+     *
+     * @return true if leading blanks should be ignored for sorting
+     */
+    public boolean getIgnoreLeadingBlanks() {
+        return config.getBoolean(IGNORE_LEADING_BLANKS, false);
+    }
+
+    /**
+     * Set whether to compare according to string numerical value.
+     *
+     * @param numeric true to compare according to string numerical value
+     * @return reference to this object
+     */
+    public SortConfig setNumeric(final boolean numeric) {
+        config.setBoolean(NUMERIC, numeric);
+        return this;
+    }
+
+    /**
+     * Get whether to compare according to string numerical value.
+     *
+     * @return true to compare according to string numerical value
+     */
+    public boolean getNumeric() {
+        return config.getBoolean(NUMERIC, false);
+    }
+
+    /**
+     * Set whether to compare according to general numerical value.
+     *
+     * @param generalNumeric true to compare according to general numerical value
+     * @return reference to this object
+     */
+    public SortConfig setGeneralNumeric(final boolean generalNumeric) {
+        config.setBoolean(GENERAL_NUMERIC, generalNumeric);
+        return this;
+    }
+
+    /**
+     * Get whether to compare according to general numerical value.
+     *
+     * @return true to compare according to general numerical value
+     */
+    public boolean getGeneralNumeric() {
+        return config.getBoolean(GENERAL_NUMERIC, false);
+    }
+
+    /**
+     * Set whether to compare human readable numbers, such as 2K and 1G.
+     *
+     * @param humanNumeric true to compare human readable numbers, such as 2K and 1G
+     * @return reference to this object
+     */
+    public SortConfig setHumanNumeric(final boolean humanNumeric) {
+        config.setBoolean(HUMAN_NUMERIC, humanNumeric);
+        return this;
+    }
+
+    /**
+     * Get whether to compare human readable numbers, such as 2K and 1G.
+     *
+     * @return true to compare human readable numbers, such as 2K and 1G
+     */
+    public boolean getHumanNumeric() {
+        return config.getBoolean(HUMAN_NUMERIC, false);
+    }
+
+    /**
+     * Set whether to compare month names, such as JAN and DEC.
+     *
+     * @param month true to compare month names, such as JAN and DEC
+     * @return reference to this object
+     */
+    public SortConfig setMonth(final boolean month) {
+        config.setBoolean(MONTH, month);
+        return this;
+    }
+
+    /**
+     * Get whether to compare month names, such as JAN and DEC.
+     *
+     * @return true to compare month names, such as JAN and DEC
+     */
+    public boolean getMonth() {
+        return config.getBoolean(MONTH, false);
+    }
+
+    /**
+     * Set whether to reverse the result of comparisons.
+     *
+     * @param reverse true to reverse the result of comparisons
+     * @return reference to this object
+     */
+    public SortConfig setReverse(final boolean reverse) {
+        config.setBoolean(REVERSE, reverse);
+        return this;
+    }
+
+    /**
+     * Get whether to reverse the result of comparisons.
+     *
+     * @return true to reverse the result of comparisons
+     */
+    public boolean getReverse() {
+        return config.getBoolean(REVERSE, false);
+    }
+
     /**
      * Set whether only a single output should be included for duplicates.
      *
@@ -103,6 +413,543 @@ public class SortConfig {
         return config.getBoolean(UNIQUE, false);
     }
 
+    /**
+     * Set the number of recently seen keys which each map task remembers for unique sorts,
+     * so that duplicates can be dropped before they are shuffled.
+     *
+     * @param size the number of keys, or 0 to disable the cache
+     * @return reference to this object
+     */
+    public SortConfig setUniqueCacheSize(final int size) {
+        config.setInt(UNIQUE_CACHE_SIZE, size);
+        return this;
+    }
+
+    /**
+     * Get the number of recently seen keys which each map task remembers for unique sorts.
+     *
+     * @return the number of keys, or 0 if the cache is disabled
+     */
+    public int getUniqueCacheSize() {
+        return config.getInt(UNIQUE_CACHE_SIZE, DEFAULT_UNIQUE_CACHE_SIZE);
+    }
+
+    /**
+     * Set whether the map output key is the entire sort line. This is set by
+     * {@link Sort#runJob} and shouldn't normally be set directly.
+     *
+     * @param keyIsLine true if the map output key is the entire sort line
+     * @return reference to this object
+     */
+    public SortConfig setKeyIsLine(final boolean keyIsLine) {
+        config.setBoolean(KEY_IS_LINE, keyIsLine);
+        return this;
+    }
+
+    /**
+     * Get whether the map output key is the entire sort line, in which case the line
+     * isn't also shipped as the map output value.
+     *
+     * @return true if the map output key is the entire sort line
+     */
+    public boolean getKeyIsLine() {
+        return config.getBoolean(KEY_IS_LINE, false);
+    }
+
+    /**
+     * Determine whether case can be ignored by {@link SortCaseFoldingComparator} as keys are
+     * compared, rather than by lower-casing them. This is only the case for sorts of whole
+     * lines whose only ordering option is {@code -f}, and which don't need plain keys for
+     * heaps, counts, stable ordering or indexes.
+     *
+     * @return true if case can be ignored by the comparator
+     */
+    public boolean canFoldCaseInComparator() {
+        return getKeySpecs().isEmpty()
+                && String.valueOf(SortKeySpec.IGNORE_CASE).equals(getGlobalModifiers())
+                && !getStable() && !getCount() && getHead() == 0 && getTail() == 0
+                && !getIndexedOutput() && !getMerge() && !getCheck();
+    }
+
+    /**
+     * Set whether case is ignored by {@link SortCaseFoldingComparator} as keys are compared,
+     * in which case the keys aren't lower-cased. This is set by {@link Sort#runJob} and
+     * shouldn't normally be set directly.
+     *
+     * @param foldsCase true if the comparator ignores case
+     * @return reference to this object
+     */
+    public SortConfig setComparatorFoldsCase(final boolean foldsCase) {
+        config.setBoolean(COMPARATOR_FOLDS_CASE, foldsCase);
+        return this;
+    }
+
+    /**
+     * Get whether case is ignored by {@link SortCaseFoldingComparator} as keys are compared.
+     *
+     * @return true if the comparator ignores case
+     */
+    public boolean getComparatorFoldsCase() {
+        return config.getBoolean(COMPARATOR_FOLDS_CASE, false);
+    }
+
+    /**
+     * Set whether total-order sorts can spread a heavy key over several adjacent reducers.
+     * This never happens for unique sorts, which need every copy of a key in one reducer.
+     *
+     * @param split true if heavy keys can be spread over several reducers
+     * @return reference to this object
+     */
+    public SortConfig setSplitHeavyKeys(final boolean split) {
+        config.setBoolean(SPLIT_HEAVY_KEYS, split);
+        return this;
+    }
+
+    /**
+     * Get whether total-order sorts can spread a heavy key over several adjacent reducers.
+     *
+     * @return true if heavy keys can be spread over several reducers
+     */
+    public boolean getSplitHeavyKeys() {
+        return config.getBoolean(SPLIT_HEAVY_KEYS, true);
+    }
+
+    /**
+     * Set the directory which holds cached total-order partition boundaries. Setting this
+     * enables the cache.
+     *
+     * @param dir the cache directory
+     * @return reference to this object
+     */
+    public SortConfig setPartitionCacheDir(final String dir) {
+        config.set(PARTITION_CACHE_DIR, dir);
+        return this;
+    }
+
+    /**
+     * Get the directory which holds cached total-order partition boundaries.
+     *
+     * @return the cache directory, or null if the cache isn't enabled
+     */
+    public String getPartitionCacheDir() {
+        return config.get(PARTITION_CACHE_DIR);
+    }
+
+    /**
+     * Set the number of seconds a cached partition entry remains valid after it was last
+     * refreshed.
+     *
+     * @param secs the number of seconds
+     * @return reference to this object
+     */
+    public SortConfig setPartitionCacheTtl(final long secs) {
+        config.setLong(PARTITION_CACHE_TTL, secs);
+        return this;
+    }
+
+    /**
+     * Get the number of seconds a cached partition entry remains valid after it was last
+     * refreshed.
+     *
+     * @return the number of seconds
+     */
+    public long getPartitionCacheTtl() {
+        return config.getLong(PARTITION_CACHE_TTL, DEFAULT_PARTITION_CACHE_TTL);
+    }
+
+    /**
+     * Set the input size below which the sort runs in-process with {@link LocalSortEngine}
+     * rather than as a MapReduce job.
+     *
+     * @param bytes the number of input bytes, or 0 to always run a MapReduce job
+     * @return reference to this object
+     */
+    public SortConfig setLocalThreshold(final long bytes) {
+        config.setLong(LOCAL_THRESHOLD, bytes);
+        return this;
+    }
+
+    /**
+     * Get the input size below which the sort runs in-process with {@link LocalSortEngine}
+     * rather than as a MapReduce job.
+     *
+     * @return the number of input bytes, or 0 to always run a MapReduce job
+     */
+    public long getLocalThreshold() {
+        return config.getLong(LOCAL_THRESHOLD, 0);
+    }
+
+    /**
+     * Set the number of threads used by in-process sorts.
+     *
+     * @param threads the number of threads
+     * @return reference to this object
+     */
+    public SortConfig setLocalThreads(final int threads) {
+        config.setInt(LOCAL_THREADS, threads);
+        return this;
+    }
+
+    /**
+     * Get the number of threads used by in-process sorts, which defaults to the number of
+     * processors.
+     *
+     * @return the number of threads
+     */
+    public int getLocalThreads() {
+        return config.getInt(LOCAL_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Set whether the number of reducers is picked from the input size by
+     * {@link ReducerEstimator} when it isn't supplied.
+     *
+     * @param auto true if the number of reducers is picked from the input size
+     * @return reference to this object
+     */
+    public SortConfig setAutoReducers(final boolean auto) {
+        config.setBoolean(AUTO_REDUCERS, auto);
+        return this;
+    }
+
+    /**
+     * Get whether the number of reducers is picked from the input size by
+     * {@link ReducerEstimator} when it isn't supplied.
+     *
+     * @return true if the number of reducers is picked from the input size
+     */
+    public boolean getAutoReducers() {
+        return config.getBoolean(AUTO_REDUCERS, false);
+    }
+
+    /**
+     * Set the number of bytes each reducer should receive when the number of reducers is
+     * picked from the input size.
+     *
+     * @param bytes the number of bytes
+     * @return reference to this object
+     */
+    public SortConfig setBytesPerReducer(final long bytes) {
+        config.setLong(BYTES_PER_REDUCER, bytes);
+        return this;
+    }
+
+    /**
+     * Get the number of bytes each reducer should receive when the number of reducers is
+     * picked from the input size.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesPerReducer() {
+        return config.getLong(BYTES_PER_REDUCER, DEFAULT_BYTES_PER_REDUCER);
+    }
+
+    /**
+     * Set whether the inputs are already sorted and only need to be merged.
+     *
+     * @param merge true if the inputs only need to be merged
+     * @return reference to this object
+     */
+    public SortConfig setMerge(final boolean merge) {
+        config.setBoolean(MERGE, merge);
+        return this;
+    }
+
+    /**
+     * Get whether the inputs are already sorted and only need to be merged.
+     *
+     * @return true if the inputs only need to be merged
+     */
+    public boolean getMerge() {
+        return config.getBoolean(MERGE, false);
+    }
+
+    /**
+     * Set the file holding the split points which divide a merge into key ranges, as
+     * written by {@link PartitionPlan#writePartitionFile}.
+     *
+     * @param file the partition file
+     * @return reference to this object
+     */
+    public SortConfig setMergePartitionFile(final String file) {
+        config.set(MERGE_PARTITION_FILE, file);
+        return this;
+    }
+
+    /**
+     * Get the file holding the split points which divide a merge into key ranges.
+     *
+     * @return the partition file, or null if the merge is a single key range
+     */
+    public String getMergePartitionFile() {
+        return config.get(MERGE_PARTITION_FILE);
+    }
+
+    /**
+     * Set whether the inputs are checked for sortedness rather than sorted.
+     *
+     * @param check true if the inputs are only checked
+     * @return reference to this object
+     */
+    public SortConfig setCheck(final boolean check) {
+        config.setBoolean(CHECK, check);
+        return this;
+    }
+
+    /**
+     * Get whether the inputs are checked for sortedness rather than sorted.
+     *
+     * @return true if the inputs are only checked
+     */
+    public boolean getCheck() {
+        return config.getBoolean(CHECK, false);
+    }
+
+    /**
+     * Set the number of lines kept from the start of the sorted output, which is the
+     * equivalent of piping the output through {@code head -n}.
+     *
+     * @param lines the number of lines, or 0 to keep every line
+     * @return reference to this object
+     */
+    public SortConfig setHead(final int lines) {
+        config.setInt(HEAD, lines);
+        return this;
+    }
+
+    /**
+     * Get the number of lines kept from the start of the sorted output.
+     *
+     * @return the number of lines, or 0 if every line is kept
+     */
+    public int getHead() {
+        return config.getInt(HEAD, 0);
+    }
+
+    /**
+     * Set the number of lines kept from the end of the sorted output, which is the
+     * equivalent of piping the output through {@code tail -n}.
+     *
+     * @param lines the number of lines, or 0 to keep every line
+     * @return reference to this object
+     */
+    public SortConfig setTail(final int lines) {
+        config.setInt(TAIL, lines);
+        return this;
+    }
+
+    /**
+     * Get the number of lines kept from the end of the sorted output.
+     *
+     * @return the number of lines, or 0 if every line is kept
+     */
+    public int getTail() {
+        return config.getInt(TAIL, 0);
+    }
+
+    /**
+     * Set whether lines with equal keys keep their input order, in which case unique sorts
+     * keep the first line of each run of equal keys.
+     *
+     * @param stable true if the sort is stable
+     * @return reference to this object
+     */
+    public SortConfig setStable(final boolean stable) {
+        config.setBoolean(STABLE, stable);
+        return this;
+    }
+
+    /**
+     * Get whether lines with equal keys keep their input order.
+     *
+     * @return true if the sort is stable
+     */
+    public boolean getStable() {
+        return config.getBoolean(STABLE, false);
+    }
+
+    /**
+     * Set whether the first line of each key is written once, prefixed with the number of
+     * lines with that key, which is the equivalent of {@code uniq -c}.
+     *
+     * @param count true if the lines are counted
+     * @return reference to this object
+     */
+    public SortConfig setCount(final boolean count) {
+        config.setBoolean(COUNT, count);
+        return this;
+    }
+
+    /**
+     * Get whether the lines with each key are counted.
+     *
+     * @return true if the lines are counted
+     */
+    public boolean getCount() {
+        return config.getBoolean(COUNT, false);
+    }
+
+    /**
+     * Set the estimated memory each map task uses to count lines before they are shuffled,
+     * with {@code --count}.
+     *
+     * @param bytes the number of bytes, or 0 to disable the in-mapper counts
+     * @return reference to this object
+     */
+    public SortConfig setCountCacheBytes(final long bytes) {
+        config.setLong(COUNT_CACHE_BYTES, bytes);
+        return this;
+    }
+
+    /**
+     * Get the estimated memory each map task uses to count lines before they are shuffled.
+     *
+     * @return the number of bytes
+     */
+    public long getCountCacheBytes() {
+        return config.getLong(COUNT_CACHE_BYTES, DEFAULT_COUNT_CACHE_BYTES);
+    }
+
+    /**
+     * Set the number of lines between the entries of the sparse key index written alongside
+     * each output file by {@link SortIndexedOutputFormat}, along with a Bloom filter of its
+     * keys.
+     *
+     * @param interval the number of lines, or 0 for no key index
+     * @return reference to this object
+     */
+    public SortConfig setKeyIndexInterval(final int interval) {
+        config.setInt(KEY_INDEX_INTERVAL, interval);
+        return this;
+    }
+
+    /**
+     * Get the number of lines between the entries of the sparse key index.
+     *
+     * @return the number of lines, or 0 for no key index
+     */
+    public int getKeyIndexInterval() {
+        return config.getInt(KEY_INDEX_INTERVAL, 0);
+    }
+
+    /**
+     * Set the layout of the output files.
+     *
+     * @param layout the layout
+     * @return reference to this object
+     */
+    public SortConfig setOutputLayout(final SortIndexedOutputFormat.Layout layout) {
+        config.set(OUTPUT_LAYOUT, layout.name());
+        return this;
+    }
+
+    /**
+     * Get the layout of the output files.
+     *
+     * @return the layout, which is text files by default
+     */
+    public SortIndexedOutputFormat.Layout getOutputLayout() {
+        return SortIndexedOutputFormat.Layout.valueOf(
+                config.get(OUTPUT_LAYOUT, SortIndexedOutputFormat.Layout.TEXT.name()));
+    }
+
+    /**
+     * Get whether the output is written by {@link SortIndexedOutputFormat}, which is the case
+     * if there's a key index or the output isn't text.
+     *
+     * @return true if the output is indexed
+     */
+    public boolean getIndexedOutput() {
+        return getKeyIndexInterval() > 0
+                || getOutputLayout() != SortIndexedOutputFormat.Layout.TEXT;
+    }
+
+    /**
+     * Set the maximum size of the splits that small input files are packed into by
+     * {@link SortCombineInputFormat}.
+     *
+     * @param bytes the number of bytes, or 0 to never pack input files
+     * @return reference to this object
+     */
+    public SortConfig setCombineSplitBytes(final long bytes) {
+        config.setLong(COMBINE_SPLIT_BYTES, bytes);
+        return this;
+    }
+
+    /**
+     * Get the maximum size of the splits that small input files are packed into.
+     *
+     * @param defaultBytes the size to use if it hasn't been set, which is usually the block
+     *                     size
+     * @return the number of bytes, or 0 if input files are never packed
+     */
+    public long getCombineSplitBytes(final long defaultBytes) {
+        return config.getLong(COMBINE_SPLIT_BYTES, defaultBytes);
+    }
+
+    /**
+     * Set whether the inputs are sequence files, which are sorted by their keys rather than
+     * as lines of text.
+     *
+     * @param sequenceFile true if the inputs are sequence files
+     * @return reference to this object
+     */
+    public SortConfig setSequenceFile(final boolean sequenceFile) {
+        config.setBoolean(SEQUENCE_FILE, sequenceFile);
+        return this;
+    }
+
+    /**
+     * Get whether the inputs are sequence files, which are sorted by their keys.
+     *
+     * @return true if the inputs are sequence files
+     */
+    public boolean getSequenceFile() {
+        return config.getBoolean(SEQUENCE_FILE, false);
+    }
+
+    /**
+     * Set the path of the field that Avro inputs are sorted by, such as {@code user.id}, which
+     * makes {@link Sort} treat its inputs as Avro container files.
+     *
+     * @param path the dot-separated names of the field and the records which contain it
+     * @return reference to this object
+     */
+    public SortConfig setAvroKey(final String path) {
+        config.set(AVRO_KEY, path);
+        return this;
+    }
+
+    /**
+     * Get the path of the field that Avro inputs are sorted by.
+     *
+     * @return the path, or null if the inputs aren't Avro container files
+     */
+    public String getAvroKey() {
+        return config.get(AVRO_KEY);
+    }
+
+    /**
+     * Set the file holding the split points which divide an Avro sort into key ranges, as
+     * written by {@link SortAvroPartitioner#writePartitionFile}.
+     *
+     * @param file the partition file
+     * @return reference to this object
+     */
+    public SortConfig setAvroPartitionFile(final String file) {
+        config.set(AVRO_PARTITION_FILE, file);
+        return this;
+    }
+
+    /**
+     * Get the file holding the split points which divide an Avro sort into key ranges.
+     *
+     * @return the partition file, or null if the sort isn't in total order
+     */
+    public String getAvroPartitionFile() {
+        return config.get(AVRO_PARTITION_FILE);
+    }
+
     /**
      * Set the start index used for sorting.
      *
@@ -172,6 +1019,94 @@ public class SortConfig {
         return config.get(FIELD_SEPARATOR, defaultValue);
     }
 
+    /**
+     * Set the key definitions used for sorting, in order of precedence. These take
+     * precedence over the start and end keys.
+     *
+     * @param keys the key definitions
+     * @return reference to this object
+     */
+    public SortConfig setKeySpecs(final List<SortKeySpec> keys) {
+        config.set(KEYS, StringUtils.join(keys, " "));
+        return this;
+    }
+
+    /**
+     * Get the key definitions used for sorting, in order of precedence. If none were set
+     * then the start and end keys are used, and if those weren't set either then the
+     * returned list is empty, which means that the entire line is the key.
+     *
+     * @return the key definitions
+     */
+    public List<SortKeySpec> getKeySpecs() {
+        String val = config.get(KEYS, null);
+        if (val != null) {
+            List<SortKeySpec> keys = new ArrayList<SortKeySpec>();
+            for (String spec : StringUtils.split(val, " ")) {
+                keys.add(SortKeySpec.parse(spec));
+            }
+            return keys;
+        }
+        if (getStartKey() != null) {
+            return Collections.singletonList(SortKeySpec.fields(getStartKey(), getEndKey()));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the ordering modifiers which apply to all keys that don't have their own.
+     *
+     * @return the global modifiers
+     */
+    public String getGlobalModifiers() {
+        StringBuilder sb = new StringBuilder();
+        if (getIgnoreLeadingBlanks()) {
+            sb.append(SortKeySpec.BLANKS);
+        }
+        if (getIgnoreCase()) {
+            sb.append(SortKeySpec.IGNORE_CASE);
+        }
+        if (getGeneralNumeric()) {
+            sb.append(SortKeySpec.GENERAL_NUMERIC);
+        }
+        if (getHumanNumeric()) {
+            sb.append(SortKeySpec.HUMAN_NUMERIC);
+        }
+        if (getMonth()) {
+            sb.append(SortKeySpec.MONTH);
+        }
+        if (getNumeric()) {
+            sb.append(SortKeySpec.NUMERIC);
+        }
+        if (getReverse()) {
+            sb.append(SortKeySpec.REVERSE);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compile the key definitions, field separator and global ordering options into
+     * a {@link SortKeyExtractor}. This should be done once up-front rather than per record.
+     *
+     * @return the compiled key plan
+     * @throws IllegalArgumentException if the key definitions aren't supported
+     */
+    public SortKeyExtractor createKeyExtractor() {
+        List<SortKeySpec> keys = new ArrayList<SortKeySpec>();
+        String globalModifiers = getGlobalModifiers();
+        if (getComparatorFoldsCase()) {
+            globalModifiers = globalModifiers.replace(
+                    String.valueOf(SortKeySpec.IGNORE_CASE), "");
+        }
+        for (SortKeySpec key : getKeySpecs()) {
+            keys.add(key.withDefaults(globalModifiers));
+        }
+        if (keys.isEmpty()) {
+            keys.add(SortKeySpec.WHOLE_LINE.withDefaults(globalModifiers));
+        }
+        return new SortKeyExtractor(keys, getFieldSeparator(null), getStable());
+    }
+
     /**
      * Get the wrapped configuration object.
      *
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A combiner for {@code --count} sorts, which sums the partial counts for each key and
+ * keeps the first line, so that only one partial count per key leaves the map task.
+ */
+public class SortCountCombiner extends MapReduceBase
+        implements Reducer<Text, SortCountWritable, Text, SortCountWritable> {
+
+    @Override
+    public void reduce(final Text key, final Iterator<SortCountWritable> values,
+                       final OutputCollector<Text, SortCountWritable> output,
+                       final Reporter reporter)
+            throws IOException {
+        // the values are reused by the iterator, so the first one has to be copied
+        //
+        SortCountWritable first = values.next();
+        SortCountWritable total = new SortCountWritable(first.getCount(), first.getLine());
+        long combined = 0;
+        while (values.hasNext()) {
+            total.add(values.next().getCount());
+            combined++;
+        }
+        reporter.incrCounter(SortCounter.COMBINE_COUNTS_MERGED, combined);
+        output.collect(key, total);
+    }
+}
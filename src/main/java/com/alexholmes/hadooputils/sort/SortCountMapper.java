@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A mapper for {@code --count} sorts which counts the lines for each key in memory, so that
+ * only partial counts are spilled and shuffled. The counts are held in an LRU map whose size
+ * is capped at {@link SortConfig#getCountCacheBytes()}; when it's full the least recently
+ * seen keys are emitted with their partial counts, and the rest are emitted when the task
+ * closes. {@link SortCountCombiner} and {@link SortReduce} add up the partial counts.
+ */
+public class SortCountMapper extends MapReduceBase
+        implements Mapper<Text, Writable, Text, SortCountWritable> {
+
+    /**
+     * The estimated memory used by each entry on top of its key and line bytes.
+     */
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * The counts, in order of when their key was last seen.
+     */
+    private final Map<Text, SortCountWritable> counts =
+            new LinkedHashMap<Text, SortCountWritable>(16, 0.75f, true);
+
+    /**
+     * The maximum estimated memory used by the counts.
+     */
+    private long maxBytes;
+
+    /**
+     * The estimated memory used by the counts.
+     */
+    private long bytes;
+
+    /**
+     * Where the counts are emitted, which is known once the first record has been read.
+     */
+    private OutputCollector<Text, SortCountWritable> output;
+
+    @Override
+    public void configure(final JobConf job) {
+        super.configure(job);
+        maxBytes = new SortConfig(job).getCountCacheBytes();
+    }
+
+    @Override
+    public void map(final Text key, final Writable value,
+                    final OutputCollector<Text, SortCountWritable> collector,
+                    final Reporter reporter)
+            throws IOException {
+        output = collector;
+        SortCountWritable count = counts.get(key);
+        if (count != null) {
+            count.add(1);
+            reporter.incrCounter(SortCounter.MAP_COUNTS_MERGED, 1);
+            return;
+        }
+
+        // the record reader reuses the key and value, so they have to be copied
+        //
+        Text line = value instanceof Text ? (Text) value : new Text();
+        count = new SortCountWritable(1, line);
+        counts.put(new Text(key), count);
+        bytes += size(key, count);
+        if (bytes > maxBytes) {
+            Iterator<Map.Entry<Text, SortCountWritable>> eldest = counts.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<Text, SortCountWritable> entry = eldest.next();
+                collector.collect(entry.getKey(), entry.getValue());
+                bytes -= size(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            for (Map.Entry<Text, SortCountWritable> entry : counts.entrySet()) {
+                output.collect(entry.getKey(), entry.getValue());
+            }
+        }
+        counts.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Estimate the memory used by an entry.
+     *
+     * @param key   the key
+     * @param count the count
+     * @return the estimated number of bytes
+     */
+    private static long size(final Text key, final SortCountWritable count) {
+        return key.getLength() + count.getLine().getLength() + ENTRY_OVERHEAD_BYTES;
+    }
+}
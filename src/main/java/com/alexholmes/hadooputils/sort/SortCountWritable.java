@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The map output value for {@code --count} sorts, which is a partial count of the lines
+ * with a key and the first of those lines. The line is empty if the key is the entire line,
+ * since it would only be shuffled twice.
+ */
+public class SortCountWritable implements Writable {
+
+    /**
+     * The number of lines.
+     */
+    private long count;
+
+    /**
+     * The first line.
+     */
+    private final Text line = new Text();
+
+    /**
+     * Constructor used for deserialization.
+     */
+    public SortCountWritable() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param count the number of lines
+     * @param line  the first line, which is copied
+     */
+    public SortCountWritable(final long count, final Text line) {
+        this.count = count;
+        this.line.set(line);
+    }
+
+    /**
+     * Get the number of lines.
+     *
+     * @return the number of lines
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add to the number of lines.
+     *
+     * @param lines the number of lines to add
+     */
+    public void add(final long lines) {
+        count += lines;
+    }
+
+    /**
+     * Get the first line.
+     *
+     * @return the first line
+     */
+    public Text getLine() {
+        return line;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, count);
+        line.write(out);
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        count = WritableUtils.readVLong(in);
+        line.readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        return count + "\t" + line;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hadooputils.sort;
+
+/**
+ * The counters reported by {@link Sort} jobs.
+ */
+public enum SortCounter {
+
+    /**
+     * Duplicate keys dropped by the in-mapper cache in {@link SortUniqueMapper}.
+     */
+    MAP_DUPLICATES_REMOVED,
+
+    /**
+     * Duplicate keys dropped by {@link SortUniqueCombiner}.
+     */
+    COMBINE_DUPLICATES_REMOVED,
+
+    /**
+     * Duplicate keys dropped by {@link SortReduce}.
+     */
+    REDUCE_DUPLICATES_REMOVED,
+
+    /**
+     * Lines added to an existing count by {@link SortCountMapper}.
+     */
+    MAP_COUNTS_MERGED,
+
+    /**
+     * Partial counts added up by {@link SortCountCombiner}.
+     */
+    COMBINE_COUNTS_MERGED,
+
+    /**
+     * Lines read by {@link SortCheckMapper}.
+     */
+    CHECK_LINES,
+
+    /**
+     * Files in which {@link SortCheckMapper} found a line out of order.
+     */
+    CHECK_DISORDERS,
+
+    /**
+     * Keys whose extraction was timed by {@link SortRecordReader}.
+     */
+    KEYS_TIMED,
+
+    /**
+     * Nanoseconds spent extracting the keys counted by {@link #KEYS_TIMED}.
+     */
+    KEY_EXTRACTION_NANOS
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An output format for sorted lines which can be searched by key without being scanned. The
+ * lines are written in one of three {@link Layout}s: text files, {@link SequenceFile}s whose
+ * keys are the sort keys and values are the lines, or {@link BloomMapFile}s with the same
+ * keys and values. The keys are the encoded keys produced by
+ * {@link SortConfig#createKeyExtractor()}, so a key to look up has to be encoded with the same
+ * options as the sort, and keys are compared as unsigned bytes.
+ * <p/>
+ * If {@link SortConfig#getKeyIndexInterval()} is set, text and sequence files are written
+ * with two hidden side files: a sparse index, which is a {@link SequenceFile} of every Nth
+ * key and the offset of its line (see {@link #getKeyIndexPath}), and a
+ * {@link DynamicBloomFilter} of every key (see {@link #getBloomFilterPath}). Lines with
+ * equal keys can span index entries, so the lines with a key start at or before the offset
+ * of the last index entry whose key is less than it. Offsets into text files are byte
+ * offsets, so the key index needs the text to be uncompressed; offsets into sequence files
+ * can be passed to {@link SequenceFile.Reader#seek}. Map files have their own index, whose
+ * interval is set to the key index interval, and their own Bloom filter.
+ */
+public class SortIndexedOutputFormat extends FileOutputFormat<Text, NullWritable> {
+
+    /**
+     * The layouts in which the output can be written.
+     */
+    public enum Layout {
+
+        /**
+         * Text files with one line per record.
+         */
+        TEXT,
+
+        /**
+         * Sequence files whose keys are the sort keys and values are the lines.
+         */
+        SEQUENCE_FILE,
+
+        /**
+         * {@link BloomMapFile}s whose keys are the sort keys and values are the lines.
+         */
+        MAP_FILE
+    }
+
+    /**
+     * The suffix of the sparse key index of an output file.
+     */
+    public static final String KEY_INDEX_SUFFIX = ".keys";
+
+    /**
+     * The suffix of the Bloom filter of an output file.
+     */
+    public static final String BLOOM_FILTER_SUFFIX = ".bloom";
+
+    /**
+     * The number of hash functions used by the Bloom filter, which is the same as
+     * {@link BloomMapFile}.
+     */
+    static final int HASH_COUNT = 5;
+
+    /**
+     * The newline which ends each line of text output.
+     */
+    private static final byte[] NEWLINE = {'\n'};
+
+    /**
+     * Get the sparse key index of an output file, which is hidden so that it isn't read
+     * when the output is used as the input of another job.
+     *
+     * @param file the output file
+     * @return the key index
+     */
+    public static Path getKeyIndexPath(final Path file) {
+        return new Path(file.getParent(), "_" + file.getName() + KEY_INDEX_SUFFIX);
+    }
+
+    /**
+     * Get the Bloom filter of an output file, which is hidden so that it isn't read when the
+     * output is used as the input of another job.
+     *
+     * @param file the output file
+     * @return the Bloom filter
+     */
+    public static Path getBloomFilterPath(final Path file) {
+        return new Path(file.getParent(), "_" + file.getName() + BLOOM_FILTER_SUFFIX);
+    }
+
+    @Override
+    public void checkOutputSpecs(final FileSystem ignored, final JobConf job)
+            throws IOException {
+        super.checkOutputSpecs(ignored, job);
+        SortConfig sortConfig = new SortConfig(job);
+        if (sortConfig.getOutputLayout() == Layout.TEXT && sortConfig.getKeyIndexInterval() > 0
+                && getCompressOutput(job)) {
+            throw new InvalidJobConfException("The key index of text output needs the output"
+                    + " to be uncompressed, since it holds byte offsets");
+        }
+    }
+
+    @Override
+    public RecordWriter<Text, NullWritable> getRecordWriter(final FileSystem ignored,
+                                                            final JobConf job,
+                                                            final String name,
+                                                            final Progressable progress)
+            throws IOException {
+        SortConfig sortConfig = new SortConfig(job);
+        Path file = FileOutputFormat.getTaskOutputPath(job, name);
+        FileSystem fs = file.getFileSystem(job);
+
+        SequenceFile.CompressionType compressionType = SequenceFile.CompressionType.NONE;
+        CompressionCodec codec = null;
+        if (getCompressOutput(job)) {
+            compressionType = SequenceFileOutputFormat.getOutputCompressionType(job);
+            codec = ReflectionUtils.newInstance(
+                    getOutputCompressorClass(job, DefaultCodec.class), job);
+        }
+
+        switch (sortConfig.getOutputLayout()) {
+            case MAP_FILE:
+                JobConf conf = new JobConf(job);
+                if (sortConfig.getKeyIndexInterval() > 0) {
+                    conf.setInt("io.map.index.interval", sortConfig.getKeyIndexInterval());
+                }
+                return new MapFileRecordWriter(job, new BloomMapFile.Writer(conf, fs,
+                        file.toString(), Text.class, Text.class, compressionType, codec,
+                        progress));
+            case SEQUENCE_FILE:
+                return new SequenceFileRecordWriter(job, fs, file, progress,
+                        SequenceFile.createWriter(fs, job, file, Text.class, Text.class,
+                                compressionType, codec, progress));
+            default:
+                return new TextRecordWriter(job, fs, file, progress, fs.create(file, progress));
+        }
+    }
+
+    /**
+     * Writes lines, with their keys and optionally a sparse key index and Bloom filter.
+     */
+    private abstract static class IndexingRecordWriter
+            implements RecordWriter<Text, NullWritable> {
+
+        /**
+         * Extracts the key from each line.
+         */
+        private final SortKeyExtractor extractor;
+
+        /**
+         * The key of the current line.
+         */
+        private final Text key = new Text();
+
+        /**
+         * The offset of the current line.
+         */
+        private final LongWritable offset = new LongWritable();
+
+        /**
+         * The number of lines between index entries, or 0 if there's no key index.
+         */
+        private final int interval;
+
+        /**
+         * The key index, or null if there isn't one.
+         */
+        private final SequenceFile.Writer index;
+
+        /**
+         * The Bloom filter of every key, or null if there's no key index.
+         */
+        private final DynamicBloomFilter bloomFilter;
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The output file.
+         */
+        private final Path file;
+
+        /**
+         * The number of lines written.
+         */
+        private long lines;
+
+        /**
+         * Constructor.
+         *
+         * @param job      the job configuration
+         * @param fs       the file system
+         * @param file     the output file
+         * @param progress reports progress
+         * @throws IOException if something goes wrong
+         */
+        IndexingRecordWriter(final JobConf job, final FileSystem fs, final Path file,
+                             final Progressable progress) throws IOException {
+            SortConfig sortConfig = new SortConfig(job);
+            this.extractor = sortConfig.createKeyExtractor();
+            this.interval = sortConfig.getKeyIndexInterval();
+            this.fs = fs;
+            this.file = file;
+            if (interval > 0) {
+                index = SequenceFile.createWriter(fs, job, getKeyIndexPath(file), Text.class,
+                        LongWritable.class, SequenceFile.CompressionType.NONE, null, progress);
+
+                // sized in the same way as the Bloom filters of BloomMapFile
+                //
+                int keys = job.getInt("io.mapfile.bloom.size", 1024 * 1024);
+                float errorRate = job.getFloat("io.mapfile.bloom.error.rate", 0.005f);
+                int vectorSize = (int) Math.ceil((double) (-HASH_COUNT * keys)
+                        / Math.log(1.0 - Math.pow(errorRate, 1.0 / HASH_COUNT)));
+                bloomFilter = new DynamicBloomFilter(vectorSize, HASH_COUNT,
+                        Hash.getHashType(job), keys);
+            } else {
+                index = null;
+                bloomFilter = null;
+            }
+        }
+
+        @Override
+        public void write(final Text line, final NullWritable value) throws IOException {
+            extractor.extract(line, key);
+            if (index != null) {
+                if (lines % interval == 0) {
+                    offset.set(mark());
+                    index.append(key, offset);
+                }
+                bloomFilter.add(new Key(Arrays.copyOf(key.getBytes(), key.getLength())));
+            }
+            append(key, line);
+            lines++;
+        }
+
+        @Override
+        public void close(final Reporter reporter) throws IOException {
+            closeData();
+            if (index != null) {
+                index.close();
+                FSDataOutputStream out = fs.create(getBloomFilterPath(file));
+                try {
+                    bloomFilter.write(out);
+                } finally {
+                    out.close();
+                }
+            }
+        }
+
+        /**
+         * Get the offset at which the next line will be written.
+         *
+         * @return the offset
+         * @throws IOException if something goes wrong
+         */
+        protected abstract long mark() throws IOException;
+
+        /**
+         * Write a line.
+         *
+         * @param lineKey the key of the line
+         * @param line    the line
+         * @throws IOException if something goes wrong
+         */
+        protected abstract void append(Text lineKey, Text line) throws IOException;
+
+        /**
+         * Close the output file.
+         *
+         * @throws IOException if something goes wrong
+         */
+        protected abstract void closeData() throws IOException;
+    }
+
+    /**
+     * Writes the lines as text.
+     */
+    private static class TextRecordWriter extends IndexingRecordWriter {
+
+        /**
+         * The output file.
+         */
+        private final FSDataOutputStream out;
+
+        /**
+         * Constructor.
+         *
+         * @param job      the job configuration
+         * @param fs       the file system
+         * @param file     the output file
+         * @param progress reports progress
+         * @param out      the open output file
+         * @throws IOException if something goes wrong
+         */
+        TextRecordWriter(final JobConf job, final FileSystem fs, final Path file,
+                         final Progressable progress, final FSDataOutputStream out)
+                throws IOException {
+            super(job, fs, file, progress);
+            this.out = out;
+        }
+
+        @Override
+        protected long mark() throws IOException {
+            return out.getPos();
+        }
+
+        @Override
+        protected void append(final Text lineKey, final Text line) throws IOException {
+            out.write(line.getBytes(), 0, line.getLength());
+            out.write(NEWLINE);
+        }
+
+        @Override
+        protected void closeData() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the keys and lines to a sequence file.
+     */
+    private static class SequenceFileRecordWriter extends IndexingRecordWriter {
+
+        /**
+         * The output file.
+         */
+        private final SequenceFile.Writer writer;
+
+        /**
+         * Constructor.
+         *
+         * @param job      the job configuration
+         * @param fs       the file system
+         * @param file     the output file
+         * @param progress reports progress
+         * @param writer   the open output file
+         * @throws IOException if something goes wrong
+         */
+        SequenceFileRecordWriter(final JobConf job, final FileSystem fs, final Path file,
+                                 final Progressable progress, final SequenceFile.Writer writer)
+                throws IOException {
+            super(job, fs, file, progress);
+            this.writer = writer;
+        }
+
+        @Override
+        protected long mark() throws IOException {
+            // records in a compressed block can't be seeked to, so the block is ended and the
+            // next record starts a new one
+            //
+            if (writer.isBlockCompressed()) {
+                writer.sync();
+            }
+            return writer.getLength();
+        }
+
+        @Override
+        protected void append(final Text lineKey, final Text line) throws IOException {
+            writer.append(lineKey, line);
+        }
+
+        @Override
+        protected void closeData() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the keys and lines to a map file.
+     */
+    private static class MapFileRecordWriter implements RecordWriter<Text, NullWritable> {
+
+        /**
+         * Extracts the key from each line.
+         */
+        private final SortKeyExtractor extractor;
+
+        /**
+         * The key of the current line.
+         */
+        private final Text key = new Text();
+
+        /**
+         * The map file.
+         */
+        private final BloomMapFile.Writer writer;
+
+        /**
+         * Constructor.
+         *
+         * @param job    the job configuration
+         * @param writer the open map file
+         */
+        MapFileRecordWriter(final JobConf job, final BloomMapFile.Writer writer) {
+            this.extractor = new SortConfig(job).createKeyExtractor();
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(final Text line, final NullWritable value) throws IOException {
+            extractor.extract(line, key);
+            writer.append(key, line);
+        }
+
+        @Override
+        public void close(final Reporter reporter) throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -24,11 +24,20 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The {@link org.apache.hadoop.mapred.InputFormat} used for reading the source files. The key
- * is the sort key, and the value is the entire sort line.
+ * is the sort key, and the value is the entire sort line. If the sort key is the entire line
+ * then the value is a {@link org.apache.hadoop.io.NullWritable} so that the line is only
+ * shuffled once.
+ * <p/>
+ * For stable sorts each split records the index of its file in the input, which
+ * {@link SortRecordReader} appends to the keys along with the offset of each line.
  */
 public class SortInputFormat extends DeprecatedLzoTextInputFormat
         implements JobConfigurable {
@@ -49,13 +58,93 @@ public class SortInputFormat extends DeprecatedLzoTextInputFormat
         return super.isSplitable(fs, file);
     }
 
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        InputSplit[] splits = super.getSplits(job, numSplits);
+        if (!new SortConfig(job).getStable()) {
+            return splits;
+        }
+
+        // the splits are in the order in which the input files were listed, and each file is
+        // numbered by its first appearance
+        //
+        Map<Path, Integer> indexes = new HashMap<Path, Integer>();
+        for (int i = 0; i < splits.length; i++) {
+            FileSplit split = (FileSplit) splits[i];
+            Integer index = indexes.get(split.getPath());
+            if (index == null) {
+                index = indexes.size();
+                indexes.put(split.getPath(), index);
+            }
+            splits[i] = new IndexedFileSplit(split, index);
+        }
+        return splits;
+    }
+
     @Override
     public RecordReader getRecordReader(
             final InputSplit genericSplit, final JobConf job,
             final Reporter reporter)
             throws IOException {
         reporter.setStatus(genericSplit.toString());
+        if (new SortConfig(job).getKeyIsLine()) {
+            return new SortLineRecordReader(super.getRecordReader(genericSplit, job, reporter),
+                    reporter);
+        }
         return new SortRecordReader(job,
-                super.getRecordReader(genericSplit, job, reporter));
+                super.getRecordReader(genericSplit, job, reporter),
+                genericSplit instanceof IndexedFileSplit
+                        ? ((IndexedFileSplit) genericSplit).getIndex() : -1, reporter);
+    }
+
+    /**
+     * A {@link FileSplit} which also holds the index of its file in the input.
+     */
+    public static class IndexedFileSplit extends FileSplit {
+
+        /**
+         * The index of the file.
+         */
+        private int index;
+
+        /**
+         * Constructor used for deserialization.
+         */
+        public IndexedFileSplit() {
+            super((Path) null, 0, 0, (String[]) null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param split the split
+         * @param index the index of the split's file
+         * @throws IOException if something goes wrong
+         */
+        public IndexedFileSplit(final FileSplit split, final int index) throws IOException {
+            super(split.getPath(), split.getStart(), split.getLength(), split.getLocations());
+            this.index = index;
+        }
+
+        /**
+         * Get the index of the split's file.
+         *
+         * @return the index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public void write(final DataOutput out) throws IOException {
+            super.write(out);
+            out.writeInt(index);
+        }
+
+        @Override
+        public void readFields(final DataInput in) throws IOException {
+            super.readFields(in);
+            index = in.readInt();
+        }
     }
 }
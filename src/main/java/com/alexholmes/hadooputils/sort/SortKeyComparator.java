@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The {@link org.apache.hadoop.io.RawComparator} for the keys produced by
+ * {@link SortKeyExtractor}. Keys are compared as unsigned bytes directly in their serialized
+ * form, which is correct for all the orderings that {@link Sort} supports since typed and
+ * reversed keys are encoded by {@link SortKeyEncoder} so that their byte order matches their
+ * sort order. It's used for both the map-side sort and the reduce-side merge.
+ * <p/>
+ * The bytes are compared eight at a time as big-endian longs, whose unsigned order is the
+ * same as the unsigned order of their bytes, so long keys with common prefixes take an
+ * eighth of the comparisons.
+ */
+public class SortKeyComparator extends WritableComparator {
+
+    /**
+     * Constructor.
+     */
+    public SortKeyComparator() {
+        super(Text.class);
+    }
+
+    @Override
+    public int compare(final byte[] b1, final int s1, final int l1,
+                       final byte[] b2, final int s2, final int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareWords(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(final WritableComparable a, final WritableComparable b) {
+        Text t1 = (Text) a;
+        Text t2 = (Text) b;
+        return compareWords(t1.getBytes(), 0, t1.getLength(), t2.getBytes(), 0, t2.getLength());
+    }
+
+    /**
+     * Compare two byte ranges as unsigned bytes, eight bytes at a time. This gives the same
+     * result as {@link WritableComparator#compareBytes}.
+     *
+     * @param b1 the first bytes
+     * @param s1 the start of the first range
+     * @param l1 the length of the first range
+     * @param b2 the second bytes
+     * @param s2 the start of the second range
+     * @param l2 the length of the second range
+     * @return a negative integer, zero, or a positive integer as the first range is less
+     *         than, equal to, or greater than the second
+     */
+    public static int compareWords(final byte[] b1, final int s1, final int l1,
+                                   final byte[] b2, final int s2, final int l2) {
+        int n = Math.min(l1, l2);
+        int i = 0;
+        for (; i + Long.SIZE / Byte.SIZE <= n; i += Long.SIZE / Byte.SIZE) {
+            long w1 = readLong(b1, s1 + i);
+            long w2 = readLong(b2, s2 + i);
+            if (w1 != w2) {
+                return compareUnsigned(w1, w2);
+            }
+        }
+        for (; i < n; i++) {
+            int a = b1[s1 + i] & 0xff;
+            int b = b2[s2 + i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return l1 - l2;
+    }
+
+    /**
+     * Compare two longs as unsigned numbers.
+     *
+     * @param a the first number
+     * @param b the second number
+     * @return -1, 0 or 1 as the first number is less than, equal to, or greater than the
+     *         second
+     */
+    static int compareUnsigned(final long a, final long b) {
+        long x = a + Long.MIN_VALUE;
+        long y = b + Long.MIN_VALUE;
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Order-preserving binary encodings for typed sort keys. Every encoding is appended to a
+ * {@link Text}, and the encoded keys sort correctly when compared as unsigned bytes, which
+ * means they can be ordered by {@link SortKeyComparator} without being deserialized.
+ * <p/>
+ * Numbers are encoded as 8-byte IEEE 754 doubles whose bits have been flipped so that the
+ * byte order matches the numeric order.
+ */
+final class SortKeyEncoder {
+
+    /**
+     * The number of bytes in an encoded double.
+     */
+    static final int DOUBLE_BYTES = 8;
+
+    /**
+     * Encoding for values which can't be parsed with {@code -g}, which sort first.
+     */
+    private static final long NOT_A_NUMBER = 0L;
+
+    /**
+     * Encoding for NaN with {@code -g}, which sorts after invalid values but before
+     * negative infinity.
+     */
+    private static final long NAN = 1L;
+
+    /**
+     * Placeholder bytes which are overwritten by the encoded value.
+     */
+    private static final byte[] PLACEHOLDER = new byte[DOUBLE_BYTES + 1];
+
+    /**
+     * The human-readable suffixes, in increasing order of magnitude.
+     */
+    private static final String SUFFIXES = "KMGTPEZY";
+
+    /**
+     * The months, in order.
+     */
+    private static final String[] MONTHS = {
+            "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
+    };
+
+    /**
+     * Powers of ten which are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * The largest mantissa which can accept another digit without overflowing.
+     */
+    private static final long MAX_MANTISSA = Long.MAX_VALUE / 10 - 9;
+
+    /**
+     * Private ctor to prevent instantiation.
+     */
+    private SortKeyEncoder() {
+    }
+
+    /**
+     * Append a {@code -n} numeric key, which is an optional minus sign followed by digits and
+     * an optional decimal point. Anything which isn't a number sorts as zero.
+     *
+     * @param key   the output
+     * @param bytes the line bytes
+     * @param start the start of the key in the line
+     * @param end   the end (exclusive) of the key in the line
+     */
+    static void appendNumeric(final Text key, final byte[] bytes, final int start,
+                              final int end) {
+        appendDouble(key, parseDecimal(bytes, start, end, false));
+    }
+
+    /**
+     * Append a {@code -g} general numeric key, which supports exponents, infinity and NaN.
+     * Values which can't be parsed sort first, followed by NaN.
+     *
+     * @param key   the output
+     * @param bytes the line bytes
+     * @param start the start of the key in the line
+     * @param end   the end (exclusive) of the key in the line
+     */
+    static void appendGeneralNumeric(final Text key, final byte[] bytes, final int start,
+                                     final int end) {
+        int i = skipBlanks(bytes, start, end);
+        int digits = i;
+        if (digits < end && (bytes[digits] == '-' || bytes[digits] == '+')) {
+            digits++;
+        }
+        if (startsWithIgnoreCase(bytes, digits, end, "nan")) {
+            appendLong(key, NAN);
+        } else if (startsWithIgnoreCase(bytes, digits, end, "inf")) {
+            appendDouble(key, bytes[i] == '-'
+                    ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        } else if (digits < end && (isDigit(bytes[digits])
+                || (bytes[digits] == '.' && digits + 1 < end && isDigit(bytes[digits + 1])))) {
+            appendDouble(key, parseDecimal(bytes, i, end, true));
+        } else {
+            appendLong(key, NOT_A_NUMBER);
+        }
+    }
+
+    /**
+     * Append a {@code -h} human numeric key, such as {@code 2K} or {@code 1.5G}. As with
+     * Linux sort, numbers are ordered by their sign, then their suffix, then their value.
+     *
+     * @param key   the output
+     * @param bytes the line bytes
+     * @param start the start of the key in the line
+     * @param end   the end (exclusive) of the key in the line
+     */
+    static void appendHumanNumeric(final Text key, final byte[] bytes, final int start,
+                                   final int end) {
+        double value = parseDecimal(bytes, start, end, false);
+
+        int i = skipBlanks(bytes, start, end);
+        if (i < end && bytes[i] == '-') {
+            i++;
+        }
+        while (i < end && (isDigit(bytes[i]) || bytes[i] == '.')) {
+            i++;
+        }
+        int suffix = 0;
+        if (i < end) {
+            suffix = SUFFIXES.indexOf(Character.toUpperCase((char) bytes[i])) + 1;
+        }
+
+        int tag = value < 0 ? 0x3F - suffix : 0x40 + suffix;
+        int offset = key.getLength();
+        key.append(PLACEHOLDER, 0, 1);
+        key.getBytes()[offset] = (byte) tag;
+        appendDouble(key, value);
+    }
+
+    /**
+     * Append a {@code -M} month key. Unknown values sort before {@code JAN}.
+     *
+     * @param key   the output
+     * @param bytes the line bytes
+     * @param start the start of the key in the line
+     * @param end   the end (exclusive) of the key in the line
+     */
+    static void appendMonth(final Text key, final byte[] bytes, final int start,
+                            final int end) {
+        int i = skipBlanks(bytes, start, end);
+        int month = 0;
+        if (i + 3 <= end) {
+            for (int m = 0; m < MONTHS.length; m++) {
+                if (startsWithIgnoreCase(bytes, i, end, MONTHS[m])) {
+                    month = m + 1;
+                    break;
+                }
+            }
+        }
+        int offset = key.getLength();
+        key.append(PLACEHOLDER, 0, 1);
+        key.getBytes()[offset] = (byte) month;
+    }
+
+    /**
+     * Flip every bit in a byte range, which reverses the order of the encoded key.
+     *
+     * @param bytes the bytes
+     * @param start the start offset
+     * @param end   the end offset (exclusive)
+     */
+    static void complement(final byte[] bytes, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            bytes[i] = (byte) ~bytes[i];
+        }
+    }
+
+    /**
+     * Append a double so that its byte order matches its numeric order.
+     *
+     * @param key   the output
+     * @param value the value
+     */
+    static void appendDouble(final Text key, final double value) {
+        // treat -0 and 0 as equal
+        //
+        long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+        if (bits < 0) {
+            bits = ~bits;
+        } else {
+            bits ^= Long.MIN_VALUE;
+        }
+        appendLong(key, bits);
+    }
+
+    /**
+     * Append a long in big-endian order.
+     *
+     * @param key   the output
+     * @param value the value
+     */
+    private static void appendLong(final Text key, final long value) {
+        int offset = key.getLength();
+        key.append(PLACEHOLDER, 0, DOUBLE_BYTES);
+        byte[] out = key.getBytes();
+        for (int i = 0; i < DOUBLE_BYTES; i++) {
+            out[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Parse a decimal number, stopping at the first character which can't be part of it.
+     * At most 18 significant digits are used.
+     *
+     * @param bytes    the line bytes
+     * @param start    the start offset
+     * @param end      the end offset (exclusive)
+     * @param exponent whether an exponent such as {@code e-3} is allowed
+     * @return the number, or 0 if there isn't one
+     */
+    static double parseDecimal(final byte[] bytes, final int start, final int end,
+                               final boolean exponent) {
+        int i = skipBlanks(bytes, start, end);
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || (exponent && bytes[i] == '+'))) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int scale = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (isDigit(b)) {
+                if (mantissa <= MAX_MANTISSA) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (seenPoint) {
+                        scale--;
+                    }
+                } else if (!seenPoint) {
+                    scale++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+
+        if (exponent && i + 1 < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            int j = i + 1;
+            boolean negativeExp = false;
+            if (bytes[j] == '-' || bytes[j] == '+') {
+                negativeExp = bytes[j] == '-';
+                j++;
+            }
+            int exp = 0;
+            boolean seenDigit = false;
+            for (; j < end && isDigit(bytes[j]); j++) {
+                seenDigit = true;
+                if (exp < 10000) {
+                    exp = exp * 10 + (bytes[j] - '0');
+                }
+            }
+            if (seenDigit) {
+                scale += negativeExp ? -exp : exp;
+            }
+        }
+
+        double value = scale(mantissa, scale);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compute {@code mantissa * 10^scale}.
+     *
+     * @param mantissa the mantissa
+     * @param scale    the power of ten
+     * @return the value
+     */
+    private static double scale(final long mantissa, final int scale) {
+        if (mantissa == 0) {
+            return 0;
+        }
+        double value = mantissa;
+        if (scale >= 0) {
+            return scale < POWERS_OF_TEN.length
+                    ? value * POWERS_OF_TEN[scale] : value * Math.pow(10, scale);
+        }
+        return -scale < POWERS_OF_TEN.length
+                ? value / POWERS_OF_TEN[-scale] : value / Math.pow(10, -scale);
+    }
+
+    /**
+     * Determine whether a byte is an ASCII digit.
+     *
+     * @param b the byte
+     * @return true if the byte is a digit
+     */
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Advance past whitespace.
+     *
+     * @param bytes the bytes
+     * @param pos   the current position
+     * @param end   the position to stop at
+     * @return the position of the first byte which isn't whitespace
+     */
+    static int skipBlanks(final byte[] bytes, final int pos, final int end) {
+        int i = pos;
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Determine whether the bytes at a position start with an ASCII string, ignoring case.
+     *
+     * @param bytes  the bytes
+     * @param pos    the current position
+     * @param end    the end offset (exclusive)
+     * @param prefix the ASCII prefix
+     * @return true if the bytes start with the prefix
+     */
+    private static boolean startsWithIgnoreCase(final byte[] bytes, final int pos,
+                                                final int end, final String prefix) {
+        if (pos + prefix.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toUpperCase((char) bytes[pos + i])
+                    != Character.toUpperCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
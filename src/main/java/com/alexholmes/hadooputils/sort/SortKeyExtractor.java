@@ -0,0 +1,559 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compiled, immutable plan for extracting sort keys from lines, which works directly on
+ * the raw UTF-8 bytes of a {@link Text}.
+ * <p/>
+ * Fields are maximal runs of characters which aren't separators, which is the same
+ * tokenization used by {@link org.apache.commons.lang.StringUtils#split(String, String)}.
+ * Each {@link SortKeySpec} selects a byte range within the line, and the ranges are copied
+ * straight into the caller's {@link Text}, so no objects are created per record.
+ * <p/>
+ * Typed keys ({@code n}, {@code g}, {@code h} and {@code M}) are converted into the
+ * fixed-length, order-preserving encodings in {@link SortKeyEncoder}. When there are
+ * multiple keys, every textual key but the last is escaped and terminated so that
+ * comparing the concatenated keys byte-by-byte orders lines by the first key, then the
+ * second key, and so on. Reversed keys are also terminated, and then have all their bits
+ * flipped. A single, non-reversed textual key is copied as-is, unless the extractor is
+ * created for stable sorts, in which case the last key is terminated too so that no key is
+ * a prefix of another and bytes can be appended to a key without changing its order.
+ * <p/>
+ * Instances are immutable once constructed and can be shared by multiple threads.
+ */
+public class SortKeyExtractor {
+
+    /**
+     * The number of ASCII characters, which are matched with a lookup table.
+     */
+    private static final int ASCII = 0x80;
+
+    /**
+     * The difference between an upper and lower case ASCII letter.
+     */
+    private static final int CASE_OFFSET = 'a' - 'A';
+
+    /**
+     * The escape sequence for a zero byte within a key which isn't the last key.
+     */
+    private static final byte[] ESCAPED_ZERO = {0x00, (byte) 0xFF};
+
+    /**
+     * The sequence which terminates a key which isn't the last key.
+     */
+    private static final byte[] TERMINATOR = {0x00, 0x00};
+
+    /**
+     * The modifiers which select a typed encoding, at most one of which can be used per key.
+     */
+    private static final String TYPES = new String(new char[]{SortKeySpec.NUMERIC,
+            SortKeySpec.GENERAL_NUMERIC, SortKeySpec.HUMAN_NUMERIC, SortKeySpec.MONTH});
+
+    /**
+     * The keys.
+     */
+    private final SortKeySpec[] keys;
+
+    /**
+     * Lookup table for ASCII separators.
+     */
+    private final boolean[] asciiSeparators = new boolean[ASCII];
+
+    /**
+     * The UTF-8 encodings of any non-ASCII separators.
+     */
+    private final byte[][] multiByteSeparators;
+
+    /**
+     * Whether the last textual key is escaped and terminated as well.
+     */
+    private final boolean terminateLast;
+
+    /**
+     * Constructor for a single key which spans whole fields.
+     *
+     * @param startKey       the 1-based start field, or null if the key is the whole line
+     * @param endKey         the 1-based end field, or null if the key runs to the end of the line
+     * @param fieldSeparator the characters which separate fields, or null to split on whitespace
+     * @param ignoreCase     whether the key should be lower-cased to ensure case is ignored
+     */
+    public SortKeyExtractor(final Integer startKey, final Integer endKey,
+                            final String fieldSeparator, final boolean ignoreCase) {
+        this(Collections.singletonList(SortKeySpec.fields(startKey, endKey)
+                .withDefaults(ignoreCase ? String.valueOf(SortKeySpec.IGNORE_CASE) : "")),
+                fieldSeparator);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keys           the keys, in order of precedence, with any global modifiers
+     *                       already applied
+     * @param fieldSeparator the characters which separate fields, or null to split on whitespace
+     * @throws IllegalArgumentException if a key uses a modifier which isn't supported
+     */
+    public SortKeyExtractor(final List<SortKeySpec> keys, final String fieldSeparator) {
+        this(keys, fieldSeparator, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keys           the keys, in order of precedence, with any global modifiers
+     *                       already applied
+     * @param fieldSeparator the characters which separate fields, or null to split on whitespace
+     * @param terminateLast  whether the last textual key is escaped and terminated as well,
+     *                       so that no extracted key is a prefix of another
+     * @throws IllegalArgumentException if a key uses a modifier which isn't supported
+     */
+    public SortKeyExtractor(final List<SortKeySpec> keys, final String fieldSeparator,
+                            final boolean terminateLast) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one key is required");
+        }
+        for (SortKeySpec key : keys) {
+            int types = 0;
+            for (char c : TYPES.toCharArray()) {
+                if (key.hasModifier(c)) {
+                    types++;
+                }
+            }
+            if (types > 1) {
+                throw new IllegalArgumentException("Key modifiers '" + key.getModifiers()
+                        + "' are incompatible");
+            }
+        }
+        this.keys = keys.toArray(new SortKeySpec[keys.size()]);
+        this.terminateLast = terminateLast;
+
+        List<byte[]> multiByte = new ArrayList<byte[]>();
+        if (fieldSeparator == null) {
+            // mirror Character.isWhitespace, which is what StringUtils.split uses
+            //
+            for (char c = 0; c < Character.MAX_VALUE; c++) {
+                if (Character.isWhitespace(c)) {
+                    addSeparator(c, multiByte);
+                }
+            }
+        } else {
+            for (int i = 0; i < fieldSeparator.length(); i++) {
+                addSeparator(fieldSeparator.charAt(i), multiByte);
+            }
+        }
+        multiByteSeparators = multiByte.toArray(new byte[multiByte.size()][]);
+    }
+
+    /**
+     * Register a separator character.
+     *
+     * @param c         the separator
+     * @param multiByte the list of non-ASCII separators
+     */
+    private void addSeparator(final char c, final List<byte[]> multiByte) {
+        if (c < ASCII) {
+            asciiSeparators[c] = true;
+        } else {
+            multiByte.add(encode(String.valueOf(c)));
+        }
+    }
+
+    /**
+     * Get the keys.
+     *
+     * @return the keys, in order of precedence
+     */
+    public List<SortKeySpec> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * Whether the extracted key is always byte-for-byte identical to the sort line, which is
+     * the case when there's a single whole-line key with no modifiers.
+     *
+     * @return true if the key is the same as the line
+     */
+    public boolean isKeyWholeLine() {
+        return keys.length == 1 && keys[0].isWholeLine() && keys[0].getModifiers().length() == 0
+                && !terminateLast;
+    }
+
+    /**
+     * Extract the key from the sort line into the supplied {@link Text}.
+     *
+     * @param line the sort line
+     * @param key  the text which the key is written into
+     * @throws IOException if the line doesn't contain the fields in the key
+     */
+    public void extract(final Text line, final Text key) throws IOException {
+        byte[] bytes = line.getBytes();
+        int length = line.getLength();
+
+        key.clear();
+        for (int i = 0; i < keys.length; i++) {
+            SortKeySpec spec = keys[i];
+            long span = locate(bytes, length, spec);
+            int start = (int) (span >>> 32);
+            int end = (int) span;
+            appendKey(key, bytes, start, Math.max(start, end), spec,
+                    i == keys.length - 1 && !terminateLast);
+        }
+    }
+
+    /**
+     * Append a single key to the output.
+     *
+     * @param key   the output
+     * @param bytes the line bytes
+     * @param start the start of the key in the line
+     * @param end   the end (exclusive) of the key in the line
+     * @param spec  the key definition
+     * @param last  whether this is the last key, which is copied as-is if it's textual
+     */
+    private static void appendKey(final Text key, final byte[] bytes, final int start,
+                                  final int end, final SortKeySpec spec, final boolean last) {
+        int keyStart = key.getLength();
+
+        if (spec.hasModifier(SortKeySpec.NUMERIC)) {
+            SortKeyEncoder.appendNumeric(key, bytes, start, end);
+        } else if (spec.hasModifier(SortKeySpec.GENERAL_NUMERIC)) {
+            SortKeyEncoder.appendGeneralNumeric(key, bytes, start, end);
+        } else if (spec.hasModifier(SortKeySpec.HUMAN_NUMERIC)) {
+            SortKeyEncoder.appendHumanNumeric(key, bytes, start, end);
+        } else if (spec.hasModifier(SortKeySpec.MONTH)) {
+            SortKeyEncoder.appendMonth(key, bytes, start, end);
+        } else {
+            appendText(key, bytes, start, end, spec.hasModifier(SortKeySpec.IGNORE_CASE),
+                    !last || spec.hasModifier(SortKeySpec.REVERSE));
+        }
+
+        if (spec.hasModifier(SortKeySpec.REVERSE)) {
+            SortKeyEncoder.complement(key.getBytes(), keyStart, key.getLength());
+        }
+    }
+
+    /**
+     * Append a textual key to the output.
+     *
+     * @param key        the output
+     * @param bytes      the line bytes
+     * @param start      the start of the key in the line
+     * @param end        the end (exclusive) of the key in the line
+     * @param ignoreCase whether the key should be lower-cased
+     * @param terminate  whether the key needs to be escaped and terminated
+     */
+    private static void appendText(final Text key, final byte[] bytes, final int start,
+                                   final int end, final boolean ignoreCase,
+                                   final boolean terminate) {
+        byte[] src = bytes;
+        int srcStart = start;
+        int srcEnd = end;
+        boolean fold = ignoreCase;
+
+        if (fold && !isAscii(bytes, start, end)) {
+            src = encode(decode(bytes, start, end - start).toLowerCase());
+            srcStart = 0;
+            srcEnd = src.length;
+            fold = false;
+        }
+
+        int keyStart = key.getLength();
+        if (terminate) {
+            appendEscaped(key, src, srcStart, srcEnd);
+        } else {
+            key.append(src, srcStart, srcEnd - srcStart);
+        }
+        if (fold) {
+            foldAscii(key.getBytes(), keyStart, key.getLength());
+        }
+        if (terminate) {
+            key.append(TERMINATOR, 0, TERMINATOR.length);
+        }
+    }
+
+    /**
+     * Append bytes to the output, escaping zero bytes.
+     *
+     * @param key   the output
+     * @param src   the bytes
+     * @param start the start offset
+     * @param end   the end offset (exclusive)
+     */
+    private static void appendEscaped(final Text key, final byte[] src, final int start,
+                                      final int end) {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            if (src[i] == 0) {
+                key.append(src, runStart, i - runStart);
+                key.append(ESCAPED_ZERO, 0, ESCAPED_ZERO.length);
+                runStart = i + 1;
+            }
+        }
+        key.append(src, runStart, end - runStart);
+    }
+
+    /**
+     * Find the byte range of a key within a line.
+     *
+     * @param bytes  the line bytes
+     * @param length the number of valid bytes in the line
+     * @param spec   the key definition
+     * @return the start offset in the upper 32 bits, and the end offset in the lower 32 bits
+     * @throws IOException if the line doesn't contain the fields in the key
+     */
+    private long locate(final byte[] bytes, final int length, final SortKeySpec spec)
+            throws IOException {
+        boolean blanks = spec.hasModifier(SortKeySpec.BLANKS);
+
+        if (spec.isWholeLine()) {
+            int start = blanks ? SortKeyEncoder.skipBlanks(bytes, 0, length) : 0;
+            return ((long) start << 32) | length;
+        }
+
+        int startIdx = spec.getStartField() - 1;
+        int lastIdx = spec.getEndField() == 0 ? Integer.MAX_VALUE : spec.getEndField() - 1;
+        int stopIdx = Math.max(startIdx, lastIdx);
+
+        int keyStart = -1;
+        int keyEnd = -1;
+        int fields = 0;
+        int pos = 0;
+
+        while (fields <= stopIdx) {
+            pos = skipSeparators(bytes, pos, length);
+            if (pos >= length) {
+                break;
+            }
+            int fieldStart = pos;
+            pos = skipField(bytes, pos, length);
+
+            if (fields == startIdx) {
+                int from = blanks
+                        ? SortKeyEncoder.skipBlanks(bytes, fieldStart, pos) : fieldStart;
+                keyStart = skipChars(bytes, from, pos, spec.getStartChar() - 1);
+            }
+            if (fields >= startIdx && fields <= lastIdx) {
+                if (fields == lastIdx && spec.getEndChar() > 0) {
+                    int from = blanks
+                            ? SortKeyEncoder.skipBlanks(bytes, fieldStart, pos) : fieldStart;
+                    keyEnd = skipChars(bytes, from, pos, spec.getEndChar());
+                } else {
+                    keyEnd = pos;
+                }
+            }
+            fields++;
+        }
+
+        if (startIdx >= fields) {
+            throw new IOException("Start index is greater than parts in line");
+        }
+        if (spec.getEndField() > fields) {
+            throw new IOException("End index is greater than parts in line");
+        }
+
+        if (keyEnd < 0) {
+            return ((long) keyStart << 32) | keyStart;
+        }
+        return ((long) keyStart << 32) | keyEnd;
+    }
+
+    /**
+     * Advance over a number of UTF-8 characters.
+     *
+     * @param bytes the line bytes
+     * @param pos   the current position
+     * @param end   the position to stop at
+     * @param chars the number of characters to advance over
+     * @return the position after the characters, or the end position
+     */
+    private static int skipChars(final byte[] bytes, final int pos, final int end,
+                                 final int chars) {
+        int i = pos;
+        for (int c = 0; c < chars && i < end; c++) {
+            i++;
+            while (i < end && (bytes[i] & 0xC0) == 0x80) {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Advance past any separators.
+     *
+     * @param bytes  the line bytes
+     * @param pos    the current position
+     * @param length the number of valid bytes in the line
+     * @return the position of the first byte which isn't part of a separator
+     */
+    private int skipSeparators(final byte[] bytes, final int pos, final int length) {
+        int i = pos;
+        while (i < length) {
+            int sepLength = separatorLength(bytes, i, length);
+            if (sepLength == 0) {
+                break;
+            }
+            i += sepLength;
+        }
+        return i;
+    }
+
+    /**
+     * Advance to the end of the field at the current position.
+     *
+     * @param bytes  the line bytes
+     * @param pos    the current position
+     * @param length the number of valid bytes in the line
+     * @return the position immediately after the field
+     */
+    private int skipField(final byte[] bytes, final int pos, final int length) {
+        int i = pos;
+        while (i < length && separatorLength(bytes, i, length) == 0) {
+            // separators always start on a character boundary, and UTF-8 continuation
+            // bytes can never match the lead byte of a separator, so it's safe to step
+            // over multi-byte characters one byte at a time
+            //
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Determine whether a separator starts at the supplied position.
+     *
+     * @param bytes  the line bytes
+     * @param pos    the current position
+     * @param length the number of valid bytes in the line
+     * @return the length in bytes of the separator, or 0 if there isn't one at the position
+     */
+    private int separatorLength(final byte[] bytes, final int pos, final int length) {
+        byte b = bytes[pos];
+        if (b >= 0) {
+            return asciiSeparators[b] ? 1 : 0;
+        }
+        for (byte[] sep : multiByteSeparators) {
+            if (sep[0] == b && pos + sep.length <= length && matches(bytes, pos, sep)) {
+                return sep.length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Determine whether the bytes at the supplied position equal the separator.
+     *
+     * @param bytes the line bytes
+     * @param pos   the current position
+     * @param sep   the separator bytes
+     * @return true if the separator occurs at the position
+     */
+    private static boolean matches(final byte[] bytes, final int pos, final byte[] sep) {
+        for (int i = 1; i < sep.length; i++) {
+            if (bytes[pos + i] != sep[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower-case a key in place in the same way as the {@link SortKeySpec#IGNORE_CASE}
+     * modifier, so that ASCII keys are folded byte by byte and any others are lower-cased as
+     * strings.
+     *
+     * @param key the key
+     */
+    static void foldCase(final Text key) {
+        if (isAscii(key.getBytes(), 0, key.getLength())) {
+            foldAscii(key.getBytes(), 0, key.getLength());
+        } else {
+            key.set(decode(key.getBytes(), 0, key.getLength()).toLowerCase());
+        }
+    }
+
+    /**
+     * Determine whether a byte range only contains ASCII characters.
+     *
+     * @param bytes the bytes
+     * @param start the start offset
+     * @param end   the end offset (exclusive)
+     * @return true if all the bytes are ASCII
+     */
+    private static boolean isAscii(final byte[] bytes, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower-case ASCII letters in place.
+     *
+     * @param bytes the bytes
+     * @param start the start offset
+     * @param end   the end offset (exclusive)
+     */
+    private static void foldAscii(final byte[] bytes, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= 'A' && b <= 'Z') {
+                bytes[i] = (byte) (b + CASE_OFFSET);
+            }
+        }
+    }
+
+    /**
+     * Decode UTF-8 bytes.
+     *
+     * @param bytes  the bytes
+     * @param start  the start offset
+     * @param length the number of bytes
+     * @return the string
+     */
+    private static String decode(final byte[] bytes, final int start, final int length) {
+        try {
+            return new String(bytes, start, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encode a string as UTF-8.
+     *
+     * @param s the string
+     * @return the bytes
+     */
+    private static byte[] encode(final String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+/**
+ * An immutable sort key definition, modeled after the {@code KEYDEF} argument of the
+ * Linux sort {@code -k} option, which has the form {@code F[.C][OPTS][,F[.C][OPTS]]}.
+ * <p/>
+ * {@code F} is a 1-based field number and {@code C} a 1-based character position within
+ * the field. A missing end position means the key runs to the end of the line, and a
+ * missing end character means the key runs to the end of the end field. {@code OPTS}
+ * are single-letter ordering modifiers which apply to this key only.
+ */
+public final class SortKeySpec {
+
+    /**
+     * Modifier for ignoring leading blanks.
+     */
+    public static final char BLANKS = 'b';
+
+    /**
+     * Modifier for ignoring case.
+     */
+    public static final char IGNORE_CASE = 'f';
+
+    /**
+     * Modifier for general numeric sorting.
+     */
+    public static final char GENERAL_NUMERIC = 'g';
+
+    /**
+     * Modifier for human numeric sorting.
+     */
+    public static final char HUMAN_NUMERIC = 'h';
+
+    /**
+     * Modifier for month sorting.
+     */
+    public static final char MONTH = 'M';
+
+    /**
+     * Modifier for numeric sorting.
+     */
+    public static final char NUMERIC = 'n';
+
+    /**
+     * Modifier for reversing the sort order.
+     */
+    public static final char REVERSE = 'r';
+
+    /**
+     * All the supported modifiers, in their canonical order.
+     */
+    private static final String MODIFIERS = "bfghMnr";
+
+    /**
+     * A key which spans the entire line, with no modifiers.
+     */
+    public static final SortKeySpec WHOLE_LINE = new SortKeySpec(0, 0, 0, 0, "");
+
+    /**
+     * The 1-based start field, or 0 if the key is the whole line.
+     */
+    private final int startField;
+
+    /**
+     * The 1-based start character within the start field, or 0 for the first character.
+     */
+    private final int startChar;
+
+    /**
+     * The 1-based end field, or 0 if the key runs to the end of the line.
+     */
+    private final int endField;
+
+    /**
+     * The 1-based end character within the end field, or 0 for the last character.
+     */
+    private final int endChar;
+
+    /**
+     * The modifiers, in canonical order.
+     */
+    private final String modifiers;
+
+    /**
+     * Constructor.
+     *
+     * @param startField the 1-based start field, or 0 if the key is the whole line
+     * @param startChar  the 1-based start character, or 0 for the first character
+     * @param endField   the 1-based end field, or 0 if the key runs to the end of the line
+     * @param endChar    the 1-based end character, or 0 for the last character of the field
+     * @param modifiers  the ordering modifiers
+     */
+    public SortKeySpec(final int startField, final int startChar, final int endField,
+                       final int endChar, final String modifiers) {
+        if (startField < 0 || startChar < 0 || endField < 0 || endChar < 0) {
+            throw new IllegalArgumentException("Key positions can't be negative");
+        }
+        if (startField == 0 && (startChar != 0 || endField != 0 || endChar != 0)) {
+            throw new IllegalArgumentException("A key must start at field 1 or greater");
+        }
+        if (endField == 0 && endChar != 0) {
+            throw new IllegalArgumentException("An end character requires an end field");
+        }
+        this.startField = startField;
+        this.startChar = startChar;
+        this.endField = endField;
+        this.endChar = endChar;
+        this.modifiers = canonicalize(modifiers);
+    }
+
+    /**
+     * Create a key which spans the supplied fields.
+     *
+     * @param startKey the 1-based start field, or null if the key is the whole line
+     * @param endKey   the 1-based end field, or null if the key runs to the end of the line
+     * @return the key
+     */
+    public static SortKeySpec fields(final Integer startKey, final Integer endKey) {
+        if (startKey == null) {
+            return WHOLE_LINE;
+        }
+        if (startKey < 1) {
+            throw new IllegalArgumentException("Start key must be 1 or greater: " + startKey);
+        }
+        return new SortKeySpec(startKey, 0, endKey == null ? 0 : endKey, 0, "");
+    }
+
+    /**
+     * Parse a key definition such as {@code 2,2n} or {@code 3.4,3.9}.
+     *
+     * @param spec the key definition
+     * @return the key
+     * @throws IllegalArgumentException if the key definition is malformed
+     */
+    public static SortKeySpec parse(final String spec) {
+        StringBuilder mods = new StringBuilder();
+        String[] positions = spec.trim().split(",", -1);
+        if (positions.length > 2) {
+            throw new IllegalArgumentException("Invalid key definition: " + spec);
+        }
+        int[] start = parsePosition(positions[0], mods, spec);
+        int[] end = {0, 0};
+        if (positions.length > 1) {
+            end = parsePosition(positions[1], mods, spec);
+        }
+        if (start[0] < 1) {
+            throw new IllegalArgumentException("Field numbers start at 1: " + spec);
+        }
+        if (positions.length > 1 && end[0] < 1) {
+            throw new IllegalArgumentException("Field numbers start at 1: " + spec);
+        }
+        return new SortKeySpec(start[0], start[1], end[0], end[1], mods.toString());
+    }
+
+    /**
+     * Parse a single {@code F[.C][OPTS]} position.
+     *
+     * @param position the position
+     * @param mods     the modifiers found so far
+     * @param spec     the full key definition, used in error messages
+     * @return the field and character
+     */
+    private static int[] parsePosition(final String position, final StringBuilder mods,
+                                       final String spec) {
+        int i = 0;
+        while (i < position.length()
+                && (Character.isDigit(position.charAt(i)) || position.charAt(i) == '.')) {
+            i++;
+        }
+        String numbers = position.substring(0, i);
+        String opts = position.substring(i);
+        for (int j = 0; j < opts.length(); j++) {
+            if (MODIFIERS.indexOf(opts.charAt(j)) < 0) {
+                throw new IllegalArgumentException("Unknown key modifier '"
+                        + opts.charAt(j) + "' in " + spec);
+            }
+        }
+        mods.append(opts);
+
+        if (numbers.length() == 0) {
+            throw new IllegalArgumentException("Missing field number in " + spec);
+        }
+        int dot = numbers.indexOf('.');
+        try {
+            if (dot < 0) {
+                return new int[]{Integer.parseInt(numbers), 0};
+            }
+            int c = Integer.parseInt(numbers.substring(dot + 1));
+            if (c < 1) {
+                throw new IllegalArgumentException("Character positions start at 1: " + spec);
+            }
+            return new int[]{Integer.parseInt(numbers.substring(0, dot)), c};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid key definition: " + spec);
+        }
+    }
+
+    /**
+     * Sort and de-duplicate modifiers.
+     *
+     * @param mods the modifiers
+     * @return the modifiers in canonical order
+     */
+    private static String canonicalize(final String mods) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MODIFIERS.length(); i++) {
+            char c = MODIFIERS.charAt(i);
+            if (mods.indexOf(c) >= 0) {
+                sb.append(c);
+            }
+        }
+        for (int i = 0; i < mods.length(); i++) {
+            if (MODIFIERS.indexOf(mods.charAt(i)) < 0) {
+                throw new IllegalArgumentException("Unknown key modifier '" + mods.charAt(i) + "'");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Apply global ordering options. As with Linux sort, they only apply to keys which
+     * don't have any modifiers of their own.
+     *
+     * @param globalModifiers the global modifiers
+     * @return a key which includes the global modifiers
+     */
+    public SortKeySpec withDefaults(final String globalModifiers) {
+        if (modifiers.length() > 0 || globalModifiers.length() == 0) {
+            return this;
+        }
+        return new SortKeySpec(startField, startChar, endField, endChar, globalModifiers);
+    }
+
+    /**
+     * Whether the key spans the entire line.
+     *
+     * @return true if the key spans the entire line
+     */
+    public boolean isWholeLine() {
+        return startField == 0;
+    }
+
+    /**
+     * Get the 1-based start field.
+     *
+     * @return the start field, or 0 if the key is the whole line
+     */
+    public int getStartField() {
+        return startField;
+    }
+
+    /**
+     * Get the 1-based start character.
+     *
+     * @return the start character, or 0 for the first character of the field
+     */
+    public int getStartChar() {
+        return startChar;
+    }
+
+    /**
+     * Get the 1-based end field.
+     *
+     * @return the end field, or 0 if the key runs to the end of the line
+     */
+    public int getEndField() {
+        return endField;
+    }
+
+    /**
+     * Get the 1-based end character.
+     *
+     * @return the end character, or 0 for the last character of the field
+     */
+    public int getEndChar() {
+        return endChar;
+    }
+
+    /**
+     * Get the modifiers.
+     *
+     * @return the modifiers in canonical order
+     */
+    public String getModifiers() {
+        return modifiers;
+    }
+
+    /**
+     * Whether the key has the supplied modifier.
+     *
+     * @param modifier the modifier
+     * @return true if the key has the modifier
+     */
+    public boolean hasModifier(final char modifier) {
+        return modifiers.indexOf(modifier) >= 0;
+    }
+
+    /**
+     * Returns the key definition in the same form accepted by {@link #parse(String)}, or
+     * an empty string for a whole-line key.
+     *
+     * @return the key definition
+     */
+    @Override
+    public String toString() {
+        if (isWholeLine()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder().append(startField);
+        if (startChar > 0) {
+            sb.append('.').append(startChar);
+        }
+        if (endField > 0) {
+            sb.append(',').append(endField);
+            if (endChar > 0) {
+                sb.append('.').append(endChar);
+            }
+        }
+        return sb.append(modifiers).toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SortKeySpec)) {
+            return false;
+        }
+        SortKeySpec that = (SortKeySpec) o;
+        return startField == that.startField && startChar == that.startChar
+                && endField == that.endField && endChar == that.endChar
+                && modifiers.equals(that.modifiers);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = startField;
+        result = 31 * result + startChar;
+        result = 31 * result + endField;
+        result = 31 * result + endChar;
+        result = 31 * result + modifiers.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.mapred.Reporter;
+
+import java.util.Arrays;
+
+/**
+ * Statistics about the sort keys read by a map task, which are a histogram of their lengths
+ * and the time taken to extract one key in every {@link #TIMING_INTERVAL}. They're kept in
+ * memory and added to the job counters when the reader is closed, so that collecting them
+ * costs little per line. The lengths are counted in the {@link #LENGTHS_GROUP} counter group,
+ * in buckets named after the longest key they hold, which are powers of two.
+ */
+final class SortKeyStats {
+
+    /**
+     * The counter group which holds the key length histogram.
+     */
+    static final String LENGTHS_GROUP = "SortKeyLengths";
+
+    /**
+     * One key in this many has its extraction timed, which must be a power of two.
+     */
+    static final int TIMING_INTERVAL = 64;
+
+    /**
+     * The number of keys in each length bucket.
+     */
+    private final long[] lengths = new long[Integer.SIZE + 1];
+
+    /**
+     * The number of keys counted.
+     */
+    private long keys;
+
+    /**
+     * The number of keys whose extraction was timed.
+     */
+    private long timed;
+
+    /**
+     * The nanoseconds spent extracting the timed keys.
+     */
+    private long nanos;
+
+    /**
+     * Whether the extraction of the next key should be timed.
+     *
+     * @return true if the next key should be timed
+     */
+    boolean isTimed() {
+        return (keys & (TIMING_INTERVAL - 1)) == 0;
+    }
+
+    /**
+     * Count a key.
+     *
+     * @param length the length of the key in bytes
+     */
+    void add(final int length) {
+        lengths[getBucket(length)]++;
+        keys++;
+    }
+
+    /**
+     * Add the time taken to extract a key.
+     *
+     * @param elapsed the nanoseconds taken
+     */
+    void addTime(final long elapsed) {
+        timed++;
+        nanos += elapsed;
+    }
+
+    /**
+     * Get the bucket which holds a key length.
+     *
+     * @param length the key length
+     * @return the bucket, whose longest key is {@code 2^bucket} bytes
+     */
+    static int getBucket(final int length) {
+        return length <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    /**
+     * Add the statistics to the job counters, and reset them.
+     *
+     * @param reporter the reporter, or null if there isn't one
+     */
+    void report(final Reporter reporter) {
+        if (reporter != null) {
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] > 0) {
+                    reporter.incrCounter(LENGTHS_GROUP, String.valueOf(1L << i), lengths[i]);
+                }
+            }
+            if (timed > 0) {
+                reporter.incrCounter(SortCounter.KEYS_TIMED, timed);
+                reporter.incrCounter(SortCounter.KEY_EXTRACTION_NANOS, nanos);
+            }
+        }
+        Arrays.fill(lengths, 0);
+        keys = 0;
+        timed = 0;
+        nanos = 0;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * A record reader for sorts where the key is the entire sort line. The line is read straight
+ * into the key, and the value is a {@link NullWritable}, so each line is only written once
+ * into the map output rather than once as the key and again as the value.
+ */
+public class SortLineRecordReader implements RecordReader<Text, NullWritable> {
+
+    /**
+     * The wrapped {@link RecordReader} used to do the heavy lifting.
+     */
+    private final RecordReader<LongWritable, Text> reader;
+
+    /**
+     * The key used by the wrapped reader, which is the position in the file.
+     */
+    private final LongWritable position = new LongWritable();
+
+    /**
+     * Statistics about the keys.
+     */
+    private final SortKeyStats stats = new SortKeyStats();
+
+    /**
+     * The reporter which the statistics are added to, or null if they aren't reported.
+     */
+    private final Reporter reporter;
+
+    /**
+     * Constructor.
+     *
+     * @param reader the record reader
+     */
+    public SortLineRecordReader(final RecordReader<LongWritable, Text> reader) {
+        this(reader, null);
+    }
+
+    /**
+     * Constructor which reports the key length histogram to the job counters when the reader
+     * is closed (see {@link SortKeyStats}).
+     *
+     * @param reader   the record reader
+     * @param reporter the reporter, or null if the statistics aren't reported
+     */
+    public SortLineRecordReader(final RecordReader<LongWritable, Text> reader,
+                                final Reporter reporter) {
+        this.reader = reader;
+        this.reporter = reporter;
+    }
+
+    @Override
+    public boolean next(final Text key, final NullWritable value) throws IOException {
+        if (!reader.next(position, key)) {
+            return false;
+        }
+        stats.add(key.getLength());
+        return true;
+    }
+
+    @Override
+    public Text createKey() {
+        return new Text();
+    }
+
+    @Override
+    public NullWritable createValue() {
+        return NullWritable.get();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return reader.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stats.report(reporter);
+        reader.close();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return reader.getProgress();
+    }
+}
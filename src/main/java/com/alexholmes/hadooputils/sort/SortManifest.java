@@ -0,0 +1,391 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@code _manifest} file written to the output directory of a sort, which describes
+ * each part file: its first and last keys, number of records, size in bytes and codec. The
+ * keys are the encoded keys produced by {@link SortConfig#createKeyExtractor()}, written in
+ * hex, so the part files which can hold a range of keys can be found by comparing the range
+ * with them as unsigned bytes, without opening the files.
+ * <p/>
+ * The keys and record counts are collected by {@link SortReduce} while it writes each part
+ * file, and saved to a hidden stats file which is committed along with the part file. Once
+ * the job has completed the stats files are combined into the manifest and removed.
+ */
+public class SortManifest {
+
+    /**
+     * The name of the manifest file in the output directory.
+     */
+    public static final String MANIFEST_NAME = "_manifest";
+
+    /**
+     * The suffix of the stats file written for each part file.
+     */
+    static final String STATS_SUFFIX = ".stats";
+
+    /**
+     * The part files, in name order.
+     */
+    private final List<Part> parts;
+
+    /**
+     * Constructor.
+     *
+     * @param parts the part files
+     */
+    public SortManifest(final List<Part> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Get the part files.
+     *
+     * @return the part files, in name order
+     */
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * Get the stats file of a part file, which is hidden so that it isn't read when the
+     * output is used as the input of another job.
+     *
+     * @param dir      the directory of the part file
+     * @param partName the name of the part file
+     * @return the stats file
+     */
+    static Path getStatsPath(final Path dir, final String partName) {
+        return new Path(dir, "_" + partName + STATS_SUFFIX);
+    }
+
+    /**
+     * Combine the stats files written by a job's reducers into a manifest, adding the size and
+     * codec of each part file, and remove the stats files.
+     *
+     * @param job       the job configuration
+     * @param outputDir the output directory
+     * @return the manifest, which has no parts if no stats files were written
+     * @throws IOException if something goes wrong
+     */
+    public static SortManifest collect(final JobConf job, final Path outputDir)
+            throws IOException {
+        String codec = null;
+        String extension = "";
+        if (FileOutputFormat.getCompressOutput(job)) {
+            Class<? extends CompressionCodec> codecClass =
+                    FileOutputFormat.getOutputCompressorClass(job, DefaultCodec.class);
+            codec = codecClass.getName();
+
+            // compressed text files are named with the codec's extension, unlike sequence and
+            // map files
+            //
+            if (new SortConfig(job).getOutputLayout() == SortIndexedOutputFormat.Layout.TEXT) {
+                extension = ReflectionUtils.newInstance(codecClass, job).getDefaultExtension();
+            }
+        }
+
+        FileSystem fs = outputDir.getFileSystem(job);
+        FileStatus[] statsFiles = fs.listStatus(outputDir, new PathFilter() {
+            @Override
+            public boolean accept(final Path path) {
+                return path.getName().startsWith("_part-")
+                        && path.getName().endsWith(STATS_SUFFIX);
+            }
+        });
+        List<Part> parts = new ArrayList<Part>();
+        for (FileStatus status : statsFiles == null ? new FileStatus[0] : statsFiles) {
+            Part part = new Part();
+            FSDataInputStream in = fs.open(status.getPath());
+            try {
+                part.readFields(in);
+            } finally {
+                in.close();
+            }
+
+            // map file output is a directory per part
+            //
+            part.name += extension;
+            part.bytes = fs.getContentSummary(new Path(outputDir, part.name)).getLength();
+            part.codec = codec;
+            parts.add(part);
+            fs.delete(status.getPath(), false);
+        }
+        Collections.sort(parts, new Comparator<Part>() {
+            @Override
+            public int compare(final Part a, final Part b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        return new SortManifest(parts);
+    }
+
+    /**
+     * Write the manifest as JSON to the output directory.
+     *
+     * @param job       the job configuration
+     * @param outputDir the output directory
+     * @throws IOException if something goes wrong
+     */
+    public void write(final JobConf job, final Path outputDir) throws IOException {
+        Path file = new Path(outputDir, MANIFEST_NAME);
+        FSDataOutputStream out = file.getFileSystem(job).create(file);
+        try {
+            JsonGenerator generator = new JsonFactory().createJsonGenerator(out,
+                    JsonEncoding.UTF8);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("parts");
+            for (Part part : parts) {
+                generator.writeStartObject();
+                generator.writeStringField("file", part.name);
+                generator.writeNumberField("records", part.records);
+                generator.writeNumberField("bytes", part.bytes);
+                generator.writeStringField("codec", part.codec);
+                generator.writeStringField("firstKey", toHex(part.firstKey));
+                generator.writeStringField("lastKey", toHex(part.lastKey));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the manifest of an output directory.
+     *
+     * @param job       the job configuration
+     * @param outputDir the output directory
+     * @return the manifest
+     * @throws IOException if something goes wrong
+     */
+    public static SortManifest read(final JobConf job, final Path outputDir)
+            throws IOException {
+        Path file = new Path(outputDir, MANIFEST_NAME);
+        FSDataInputStream in = file.getFileSystem(job).open(file);
+        JsonNode root;
+        try {
+            root = new ObjectMapper().readTree(in);
+        } finally {
+            in.close();
+        }
+
+        List<Part> parts = new ArrayList<Part>();
+        for (JsonNode node : root.get("parts")) {
+            Part part = new Part();
+            part.name = node.get("file").getTextValue();
+            part.records = node.get("records").getLongValue();
+            part.bytes = node.get("bytes").getLongValue();
+            part.codec = node.get("codec").getTextValue();
+            part.firstKey = fromHex(node.get("firstKey").getTextValue());
+            part.lastKey = fromHex(node.get("lastKey").getTextValue());
+            parts.add(part);
+        }
+        return new SortManifest(parts);
+    }
+
+    /**
+     * Convert a key to hex.
+     *
+     * @param key the key, or null
+     * @return the hex, or null if there's no key
+     */
+    private static String toHex(final Text key) {
+        return key == null ? null : StringUtils.byteToHexString(key.getBytes(), 0,
+                key.getLength());
+    }
+
+    /**
+     * Convert hex to a key.
+     *
+     * @param hex the hex, or null
+     * @return the key, or null if there's no hex
+     */
+    private static Text fromHex(final String hex) {
+        return hex == null ? null : new Text(StringUtils.hexStringToByte(hex));
+    }
+
+    /**
+     * The description of a part file.
+     */
+    public static class Part implements Writable {
+
+        /**
+         * The name of the part file.
+         */
+        private String name;
+
+        /**
+         * The number of records in the file.
+         */
+        private long records;
+
+        /**
+         * The size of the file in bytes.
+         */
+        private long bytes;
+
+        /**
+         * The codec class of the file, or null if it isn't compressed.
+         */
+        private String codec;
+
+        /**
+         * The first key, or null if the file is empty.
+         */
+        private Text firstKey;
+
+        /**
+         * The last key, or null if the file is empty.
+         */
+        private Text lastKey;
+
+        /**
+         * Constructor used for deserialization.
+         */
+        public Part() {
+        }
+
+        /**
+         * Constructor used by the reducers, which don't know the size or codec of the file.
+         *
+         * @param name     the name of the part file
+         * @param records  the number of records in the file
+         * @param firstKey the first key, or null if the file is empty
+         * @param lastKey  the last key, or null if the file is empty
+         */
+        public Part(final String name, final long records, final Text firstKey,
+                    final Text lastKey) {
+            this.name = name;
+            this.records = records;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+
+        /**
+         * Get the name of the part file.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the number of records in the file.
+         *
+         * @return the number of records
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * Get the size of the file.
+         *
+         * @return the size in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the codec of the file.
+         *
+         * @return the codec class name, or null if the file isn't compressed
+         */
+        public String getCodec() {
+            return codec;
+        }
+
+        /**
+         * Get the first key.
+         *
+         * @return the first key, or null if the file is empty
+         */
+        public Text getFirstKey() {
+            return firstKey;
+        }
+
+        /**
+         * Get the last key.
+         *
+         * @return the last key, or null if the file is empty
+         */
+        public Text getLastKey() {
+            return lastKey;
+        }
+
+        @Override
+        public void write(final DataOutput out) throws IOException {
+            Text.writeString(out, name);
+            out.writeLong(records);
+            out.writeBoolean(firstKey != null);
+            if (firstKey != null) {
+                firstKey.write(out);
+                lastKey.write(out);
+            }
+        }
+
+        @Override
+        public void readFields(final DataInput in) throws IOException {
+            name = Text.readString(in);
+            records = in.readLong();
+            if (in.readBoolean()) {
+                firstKey = new Text();
+                firstKey.readFields(in);
+                lastKey = new Text();
+                lastKey.readFields(in);
+            } else {
+                firstKey = null;
+                lastKey = null;
+            }
+        }
+    }
+}
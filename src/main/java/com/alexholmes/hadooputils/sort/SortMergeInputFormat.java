@@ -0,0 +1,310 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.hadoop.compression.lzo.LzoIndex;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link InputFormat} used by {@link Sort} with {@code --merge}, whose inputs are files
+ * which are each already sorted. Rather than splitting files, the input is split by key
+ * range: each split covers every input file, and its {@link SortMergeRecordReader} merges
+ * the lines whose keys fall within the split's range. The ranges are bounded by the split
+ * points in {@link SortConfig#getMergePartitionFile()}, or there's a single range if that
+ * isn't set.
+ * <p/>
+ * The output is the merged lines, so a map-only job which writes one file per split
+ * produces total-order output without any data being shuffled. The index of each task's
+ * range is set in its configuration for {@link SortMergeOutputFormat}, which names the
+ * task's output file after it.
+ */
+public class SortMergeInputFormat implements InputFormat<Text, NullWritable> {
+
+    /**
+     * Configuration for the index of the key range which a map task merges.
+     */
+    static final String RANGE = "sort.merge.range";
+
+    /**
+     * Ignores hidden files, such as {@code _SUCCESS} and {@code _logs}, and LZOP indexes.
+     */
+    private static final PathFilter VISIBLE_FILES = new PathFilter() {
+        @Override
+        public boolean accept(final Path path) {
+            String name = path.getName();
+            return !name.startsWith("_") && !name.startsWith(".")
+                    && !name.endsWith(LzoIndex.LZO_INDEX_SUFFIX);
+        }
+    };
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        String[] files = listFiles(job);
+
+        List<Text> points = new ArrayList<Text>();
+        String partitionFile = new SortConfig(job).getMergePartitionFile();
+        if (partitionFile != null) {
+            Path path = new Path(partitionFile);
+            SequenceFile.Reader reader = new SequenceFile.Reader(path.getFileSystem(job),
+                    path, job);
+            try {
+                Text key = new Text();
+                while (reader.next(key, NullWritable.get())) {
+                    points.add(key);
+                    key = new Text();
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        InputSplit[] splits = new InputSplit[points.size() + 1];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = new MergeSplit(i, splits.length,
+                    i == 0 ? null : points.get(i - 1),
+                    i == points.size() ? null : points.get(i), files);
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Text, NullWritable> getRecordReader(final InputSplit split,
+                                                            final JobConf job,
+                                                            final Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        job.setInt(RANGE, ((MergeSplit) split).getIndex());
+        return new SortMergeRecordReader(job, (MergeSplit) split);
+    }
+
+    /**
+     * List the sorted files to merge, which are the visible files in the input paths other
+     * than LZOP indexes.
+     *
+     * @param job the job configuration
+     * @return the files, ordered by path within each input path
+     * @throws IOException if something goes wrong
+     */
+    static String[] listFiles(final JobConf job) throws IOException {
+        List<String> files = new ArrayList<String>();
+        for (Path input : FileInputFormat.getInputPaths(job)) {
+            FileSystem fs = input.getFileSystem(job);
+            FileStatus[] matches = fs.globStatus(input, VISIBLE_FILES);
+            if (matches == null) {
+                throw new IOException("Input path does not exist: " + input);
+            }
+            for (FileStatus match : matches) {
+                FileStatus[] children = match.isDir()
+                        ? fs.listStatus(match.getPath(), VISIBLE_FILES)
+                        : new FileStatus[]{match};
+                String[] names = new String[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    names[i] = children[i].getPath().toString();
+                }
+                Arrays.sort(names);
+                files.addAll(Arrays.asList(names));
+            }
+        }
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * A key range over every input file.
+     */
+    public static class MergeSplit implements InputSplit {
+
+        /**
+         * The index of the range.
+         */
+        private int index;
+
+        /**
+         * The number of ranges.
+         */
+        private int ranges;
+
+        /**
+         * The inclusive lower bound of the range, or null if it's unbounded.
+         */
+        private Text lower;
+
+        /**
+         * The exclusive upper bound of the range, or null if it's unbounded.
+         */
+        private Text upper;
+
+        /**
+         * The files to merge.
+         */
+        private String[] files;
+
+        /**
+         * Constructor used for deserialization.
+         */
+        public MergeSplit() {
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param index  the index of the range
+         * @param ranges the number of ranges
+         * @param lower  the inclusive lower bound of the range, or null if it's unbounded
+         * @param upper  the exclusive upper bound of the range, or null if it's unbounded
+         * @param files  the files to merge
+         */
+        public MergeSplit(final int index, final int ranges, final Text lower, final Text upper,
+                          final String[] files) {
+            this.index = index;
+            this.ranges = ranges;
+            this.lower = lower;
+            this.upper = upper;
+            this.files = files;
+        }
+
+        /**
+         * Get the index of the range.
+         *
+         * @return the index, counting from 0 in key order
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the inclusive lower bound of the range.
+         *
+         * @return the lower bound, or null if it's unbounded
+         */
+        public Text getLower() {
+            return lower;
+        }
+
+        /**
+         * Get the exclusive upper bound of the range.
+         *
+         * @return the upper bound, or null if it's unbounded
+         */
+        public Text getUpper() {
+            return upper;
+        }
+
+        /**
+         * Get the files to merge.
+         *
+         * @return the files
+         */
+        public String[] getFiles() {
+            return files;
+        }
+
+        /**
+         * The size of a key range isn't known up-front.
+         *
+         * @return 0
+         */
+        @Override
+        public long getLength() {
+            return 0;
+        }
+
+        @Override
+        public String[] getLocations() {
+            return new String[0];
+        }
+
+        @Override
+        public void write(final DataOutput out) throws IOException {
+            out.writeInt(index);
+            out.writeInt(ranges);
+            writeBound(out, lower);
+            writeBound(out, upper);
+            out.writeInt(files.length);
+            for (String file : files) {
+                Text.writeString(out, file);
+            }
+        }
+
+        @Override
+        public void readFields(final DataInput in) throws IOException {
+            index = in.readInt();
+            ranges = in.readInt();
+            lower = readBound(in);
+            upper = readBound(in);
+            files = new String[in.readInt()];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = Text.readString(in);
+            }
+        }
+
+        /**
+         * Write a bound which may be null.
+         *
+         * @param out   the output
+         * @param bound the bound
+         * @throws IOException if something goes wrong
+         */
+        private static void writeBound(final DataOutput out, final Text bound)
+                throws IOException {
+            out.writeBoolean(bound != null);
+            if (bound != null) {
+                bound.write(out);
+            }
+        }
+
+        /**
+         * Read a bound which may be null.
+         *
+         * @param in the input
+         * @return the bound
+         * @throws IOException if something goes wrong
+         */
+        private static Text readBound(final DataInput in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            Text bound = new Text();
+            bound.readFields(in);
+            return bound;
+        }
+
+        @Override
+        public String toString() {
+            return "key range " + (index + 1) + " of " + ranges + " over " + files.length
+                    + " files";
+        }
+    }
+}
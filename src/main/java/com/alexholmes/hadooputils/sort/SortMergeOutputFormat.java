@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputFormat;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * The {@link OutputFormat} used by {@link Sort} with {@code --merge}, which names the output
+ * file of each key range after the range's index rather than the map task's, so the output
+ * files are in total order whichever order the ranges run in. The files are written by the
+ * output format set with {@link #setOutputFormat}.
+ * <p/>
+ * The index is published by {@link SortMergeInputFormat} when a task's record reader is
+ * created, so each file is only opened when the first line is written to it, or when the
+ * task closes if the range is empty.
+ *
+ * @param <K> the output key type
+ * @param <V> the output value type
+ */
+public class SortMergeOutputFormat<K, V> implements OutputFormat<K, V> {
+
+    /**
+     * Configuration for the output format which writes the files.
+     */
+    private static final String OUTPUT_FORMAT = "sort.merge.output.format";
+
+    /**
+     * Set the output format which writes the files.
+     *
+     * @param job    the job configuration
+     * @param format the output format
+     */
+    @SuppressWarnings("rawtypes")
+    public static void setOutputFormat(final JobConf job,
+                                       final Class<? extends OutputFormat> format) {
+        job.setClass(OUTPUT_FORMAT, format, OutputFormat.class);
+    }
+
+    /**
+     * Create the output format which writes the files.
+     *
+     * @param job the job configuration
+     * @return the output format, which is {@link TextOutputFormat} by default
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> OutputFormat<K, V> getOutputFormat(final JobConf job) {
+        return ReflectionUtils.newInstance(
+                job.getClass(OUTPUT_FORMAT, TextOutputFormat.class, OutputFormat.class), job);
+    }
+
+    @Override
+    public RecordWriter<K, V> getRecordWriter(final FileSystem fs, final JobConf job,
+                                              final String name, final Progressable progress)
+            throws IOException {
+        return new RangeWriter<K, V>(SortMergeOutputFormat.<K, V>getOutputFormat(job), fs, job,
+                name, progress);
+    }
+
+    @Override
+    public void checkOutputSpecs(final FileSystem fs, final JobConf job) throws IOException {
+        getOutputFormat(job).checkOutputSpecs(fs, job);
+    }
+
+    /**
+     * Opens the output file of a key range when it's first needed.
+     *
+     * @param <K> the output key type
+     * @param <V> the output value type
+     */
+    private static final class RangeWriter<K, V> implements RecordWriter<K, V> {
+
+        /**
+         * The output format which writes the file.
+         */
+        private final OutputFormat<K, V> format;
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The job configuration.
+         */
+        private final JobConf job;
+
+        /**
+         * The name of the task's output file, used if the range isn't known.
+         */
+        private final String name;
+
+        /**
+         * Reports progress.
+         */
+        private final Progressable progress;
+
+        /**
+         * The writer of the file, or null if it hasn't been opened.
+         */
+        private RecordWriter<K, V> writer;
+
+        /**
+         * Constructor.
+         *
+         * @param format   the output format which writes the file
+         * @param fs       the file system
+         * @param job      the job configuration
+         * @param name     the name of the task's output file
+         * @param progress reports progress
+         */
+        RangeWriter(final OutputFormat<K, V> format, final FileSystem fs, final JobConf job,
+                    final String name, final Progressable progress) {
+            this.format = format;
+            this.fs = fs;
+            this.job = job;
+            this.name = name;
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(final K key, final V value) throws IOException {
+            open().write(key, value);
+        }
+
+        @Override
+        public void close(final Reporter reporter) throws IOException {
+            open().close(reporter);
+        }
+
+        /**
+         * Open the file if it hasn't been opened yet.
+         *
+         * @return the writer of the file
+         * @throws IOException if something goes wrong
+         */
+        private RecordWriter<K, V> open() throws IOException {
+            if (writer == null) {
+                int range = job.getInt(SortMergeInputFormat.RANGE, -1);
+                writer = format.getRecordWriter(fs, job,
+                        range < 0 ? name : String.format("part-%05d", range), progress);
+            }
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.hadoop.compression.lzo.LzoIndex;
+import com.hadoop.compression.lzo.LzopCodec;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the lines of sorted files whose keys fall within a
+ * {@link SortMergeInputFormat.MergeSplit}'s key range, using a heap with one entry per file.
+ * Keys are extracted with the job's {@link SortKeyExtractor} and compared as unsigned bytes,
+ * which is the order produced by {@link Sort}. Lines with equal keys are returned in the
+ * order of the input files, and only the first of them is returned for unique sorts.
+ * <p/>
+ * Uncompressed files are positioned at the start of the range with a binary search over
+ * their byte offsets, and LZOP files which have an index with a binary search over their
+ * compressed blocks. Other compressed files can't be seeked, so they are read from the start
+ * and the lines before the range are skipped.
+ */
+public class SortMergeRecordReader implements RecordReader<Text, NullWritable> {
+
+    /**
+     * The buffer size used when probing lines during a binary search.
+     */
+    private static final int PROBE_BUFFER_SIZE = 4096;
+
+    /**
+     * The files which still have lines in the range, ordered by their current key.
+     */
+    private final PriorityQueue<FileCursor> queue;
+
+    /**
+     * The number of files.
+     */
+    private final int numFiles;
+
+    /**
+     * The exclusive upper bound of the range, or null if it's unbounded.
+     */
+    private final Text upper;
+
+    /**
+     * Whether only the first line of each run of equal keys is returned.
+     */
+    private final boolean unique;
+
+    /**
+     * The key of the last line returned.
+     */
+    private final Text previous = new Text();
+
+    /**
+     * The number of lines returned.
+     */
+    private long lines;
+
+    /**
+     * Constructor.
+     *
+     * @param job   the job configuration
+     * @param split the key range
+     * @throws IOException if something goes wrong
+     */
+    public SortMergeRecordReader(final JobConf job, final SortMergeInputFormat.MergeSplit split)
+            throws IOException {
+        SortConfig sortConfig = new SortConfig(job);
+        String[] files = split.getFiles();
+        numFiles = files.length;
+        upper = split.getUpper();
+        unique = sortConfig.getUnique();
+        queue = new PriorityQueue<FileCursor>(Math.max(1, files.length));
+
+        CompressionCodecFactory codecs = new CompressionCodecFactory(job);
+        SortKeyExtractor extractor = sortConfig.createKeyExtractor();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                Path path = new Path(files[i]);
+                FileCursor cursor = new FileCursor(i, path.getFileSystem(job), path,
+                        codecs.getCodec(path), extractor, job);
+                boolean found = false;
+                try {
+                    found = cursor.seek(split.getLower()) && inRange(cursor.key);
+                } finally {
+                    if (!found) {
+                        cursor.close();
+                    }
+                }
+                if (found) {
+                    queue.add(cursor);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean next(final Text key, final NullWritable value) throws IOException {
+        while (!queue.isEmpty()) {
+            FileCursor cursor = queue.poll();
+            boolean duplicate = unique && lines > 0 && compare(previous, cursor.key) == 0;
+            if (!duplicate) {
+                key.set(cursor.line);
+                previous.set(cursor.key);
+                lines++;
+            }
+            if (cursor.next() && inRange(cursor.key)) {
+                queue.add(cursor);
+            } else {
+                cursor.close();
+            }
+            if (!duplicate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a key is below the upper bound of the range.
+     *
+     * @param key the key
+     * @return true if the key is in the range
+     */
+    private boolean inRange(final Text key) {
+        return upper == null || compare(key, upper) < 0;
+    }
+
+    /**
+     * Compare two keys as unsigned bytes.
+     *
+     * @param a the first key
+     * @param b the second key
+     * @return the comparison result
+     */
+    private static int compare(final Text a, final Text b) {
+        return WritableComparator.compareBytes(a.getBytes(), 0, a.getLength(),
+                b.getBytes(), 0, b.getLength());
+    }
+
+    @Override
+    public Text createKey() {
+        return new Text();
+    }
+
+    @Override
+    public NullWritable createValue() {
+        return NullWritable.get();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileCursor cursor : queue) {
+            cursor.close();
+        }
+        queue.clear();
+    }
+
+    /**
+     * The size of a range isn't known up-front, so progress is the fraction of files which
+     * have been merged.
+     *
+     * @return the progress
+     */
+    @Override
+    public float getProgress() throws IOException {
+        return numFiles == 0 ? 1.0f : 1.0f - (float) queue.size() / numFiles;
+    }
+
+    /**
+     * The current line of a sorted file.
+     */
+    private static final class FileCursor implements Comparable<FileCursor> {
+
+        /**
+         * The index of the file, used to keep lines with equal keys in input order.
+         */
+        private final int index;
+
+        /**
+         * The file system.
+         */
+        private final FileSystem fs;
+
+        /**
+         * The file.
+         */
+        private final Path path;
+
+        /**
+         * The codec, or null if the file isn't compressed.
+         */
+        private final CompressionCodec codec;
+
+        /**
+         * Extracts the key from each line.
+         */
+        private final SortKeyExtractor extractor;
+
+        /**
+         * The job configuration.
+         */
+        private final JobConf job;
+
+        /**
+         * The open file, or null if it hasn't been opened.
+         */
+        private InputStream in;
+
+        /**
+         * Reads lines from the file.
+         */
+        private LineReader reader;
+
+        /**
+         * The current line.
+         */
+        private final Text line = new Text();
+
+        /**
+         * The key of the current line.
+         */
+        private final Text key = new Text();
+
+        /**
+         * Constructor.
+         *
+         * @param index     the index of the file
+         * @param fs        the file system
+         * @param path      the file
+         * @param codec     the codec, or null if the file isn't compressed
+         * @param extractor extracts the key from each line
+         * @param job       the job configuration
+         */
+        FileCursor(final int index, final FileSystem fs, final Path path,
+                   final CompressionCodec codec, final SortKeyExtractor extractor,
+                   final JobConf job) {
+            this.index = index;
+            this.fs = fs;
+            this.path = path;
+            this.codec = codec;
+            this.extractor = extractor;
+            this.job = job;
+        }
+
+        /**
+         * Position the cursor at the first line whose key is at least the lower bound.
+         *
+         * @param lower the lower bound, or null to start at the first line
+         * @return false if there's no such line
+         * @throws IOException if something goes wrong
+         */
+        boolean seek(final Text lower) throws IOException {
+            if (codec != null) {
+                LzoIndex index = lower != null && codec instanceof LzopCodec
+                        ? LzoIndex.readIndex(fs, path) : null;
+                int block = 0;
+                if (index != null && !index.isEmpty()) {
+                    block = findBlock(index, lower);
+                }
+                in = openBlock(index, block);
+                reader = new LineReader(in, job);
+                if (block > 0 && reader.readLine(line) == 0) {
+                    return false;
+                }
+                while (next()) {
+                    if (lower == null || compare(key, lower) >= 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            FSDataInputStream file = fs.open(path);
+            in = file;
+            long start = 0;
+            if (lower != null) {
+                start = findStart(file, fs.getFileStatus(path).getLen(), lower);
+            }
+            file.seek(start);
+            reader = new LineReader(file, job);
+            return next();
+        }
+
+        /**
+         * Binary search for the last LZO block whose first line has a key below the lower
+         * bound. The first line which starts in a block is found by skipping the line the
+         * previous block ended in, and every line before it is also below the bound, so the
+         * first line in range is after it.
+         *
+         * @param index the offsets of the LZO blocks
+         * @param lower the lower bound
+         * @return the block to start reading at
+         * @throws IOException if something goes wrong
+         */
+        private int findBlock(final LzoIndex index, final Text lower) throws IOException {
+            int lo = 0;
+            int hi = index.getNumberOfBlocks() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                InputStream probe = openBlock(index, mid);
+                try {
+                    LineReader probeReader = new LineReader(probe, PROBE_BUFFER_SIZE);
+                    probeReader.readLine(line);
+                    boolean below = probeReader.readLine(line) > 0;
+                    if (below) {
+                        extractor.extract(line, key);
+                        below = compare(key, lower) < 0;
+                    }
+                    if (below) {
+                        lo = mid;
+                    } else {
+                        hi = mid - 1;
+                    }
+                } finally {
+                    probe.close();
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Open the decompressed stream of a compressed file, starting at an LZO block. The
+         * stream starts with the LZOP header, which is everything before the first block.
+         *
+         * @param index the offsets of the LZO blocks, or null to start at the beginning
+         * @param block the block to start at
+         * @return the decompressed stream
+         * @throws IOException if something goes wrong
+         */
+        private InputStream openBlock(final LzoIndex index, final int block)
+                throws IOException {
+            FSDataInputStream file = fs.open(path);
+            if (block == 0) {
+                return codec.createInputStream(file);
+            }
+            byte[] header = new byte[(int) index.getPosition(0)];
+            try {
+                file.readFully(0, header, 0, header.length);
+                file.seek(index.getPosition(block));
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            return codec.createInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(header), file));
+        }
+
+        /**
+         * Binary search for the offset of the first line whose key is at least the lower
+         * bound. The key of the first line starting at or after an offset never decreases as
+         * the offset increases, so the smallest offset whose line is in range is found, and
+         * the line which starts there is the first one in range.
+         *
+         * @param file   the file
+         * @param length the file length
+         * @param lower  the lower bound
+         * @return the offset of the first line in range, or the file length if there isn't
+         *         one
+         * @throws IOException if something goes wrong
+         */
+        private long findStart(final FSDataInputStream file, final long length,
+                               final Text lower) throws IOException {
+            long lo = 0;
+            long hi = length;
+            while (lo < hi) {
+                long mid = lo + (hi - lo) / 2;
+                long start = lineStart(file, mid);
+                if (start >= length || compare(keyAt(file, start), lower) >= 0) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lineStart(file, lo);
+        }
+
+        /**
+         * Find the offset of the first line which starts at or after an offset.
+         *
+         * @param file   the file
+         * @param offset the offset
+         * @return the offset of the line
+         * @throws IOException if something goes wrong
+         */
+        private long lineStart(final FSDataInputStream file, final long offset)
+                throws IOException {
+            if (offset == 0) {
+                return 0;
+            }
+            // the byte before the offset is read too, so that a line which starts exactly
+            // at the offset isn't skipped
+            //
+            file.seek(offset - 1);
+            return offset - 1 + new LineReader(file, PROBE_BUFFER_SIZE).readLine(line);
+        }
+
+        /**
+         * Read the key of the line at an offset.
+         *
+         * @param file   the file
+         * @param offset the offset of the line
+         * @return the key, which is reused by the next call
+         * @throws IOException if something goes wrong
+         */
+        private Text keyAt(final FSDataInputStream file, final long offset) throws IOException {
+            file.seek(offset);
+            new LineReader(file, PROBE_BUFFER_SIZE).readLine(line);
+            extractor.extract(line, key);
+            return key;
+        }
+
+        /**
+         * Read the next line.
+         *
+         * @return false if there are no more lines
+         * @throws IOException if something goes wrong
+         */
+        boolean next() throws IOException {
+            if (reader.readLine(line) == 0) {
+                return false;
+            }
+            extractor.extract(line, key);
+            return true;
+        }
+
+        /**
+         * Close the file.
+         *
+         * @throws IOException if something goes wrong
+         */
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+
+        @Override
+        public int compareTo(final FileCursor o) {
+            int cmp = compare(key, o.key);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return index < o.index ? -1 : (index == o.index ? 0 : 1);
+        }
+    }
+}
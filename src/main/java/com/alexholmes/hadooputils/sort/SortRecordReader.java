@@ -16,20 +16,32 @@
 
 package com.alexholmes.hadooputils.sort;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.LineRecordReader;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 
 import java.io.IOException;
 
 /**
  * A record reader which extracts the sort key, and the entire sort line as the key/value pair.
+ * <p/>
+ * For stable sorts the index of the input file and the offset of the line are appended to
+ * the key, so that lines with equal keys are ordered by their position in the input. The
+ * keys are terminated in that case (see {@link SortKeyExtractor}), so the suffix only breaks
+ * ties and {@link SortStableGroupingComparator} can strip it to group lines by their key.
  */
 public class SortRecordReader implements RecordReader<Text, Text> {
 
+    /**
+     * The number of bytes appended to the key by stable sorts, which are the 4-byte index of
+     * the input file and the 8-byte offset of the line. Both are big-endian, so they sort
+     * correctly as unsigned bytes.
+     */
+    public static final int STABLE_SUFFIX_BYTES = 12;
+
     /**
      * The wrapped {@link RecordReader} used to do the heavy lifting.
      */
@@ -46,9 +58,29 @@ public class SortRecordReader implements RecordReader<Text, Text> {
     private final Text lineRecordReaderValue = new Text();
 
     /**
-     * The sort config.
+     * Extracts the sort key from each line.
+     */
+    private final SortKeyExtractor extractor;
+
+    /**
+     * The index of the input file, or -1 if the position isn't appended to the key.
+     */
+    private final int fileIndex;
+
+    /**
+     * The buffer used to build the stable suffix.
+     */
+    private final byte[] suffix = new byte[STABLE_SUFFIX_BYTES];
+
+    /**
+     * Statistics about the extracted keys.
+     */
+    private final SortKeyStats stats = new SortKeyStats();
+
+    /**
+     * The reporter which the statistics are added to, or null if they aren't reported.
      */
-    private final SortConfig sortConfig;
+    private final Reporter reporter;
 
     /**
      * Constructor.
@@ -59,8 +91,42 @@ public class SortRecordReader implements RecordReader<Text, Text> {
      */
     public SortRecordReader(final JobConf job, final RecordReader<LongWritable, Text> reader)
             throws IOException {
+        this(job, reader, -1);
+    }
+
+    /**
+     * Constructor for stable sorts.
+     *
+     * @param job       the job configuration
+     * @param reader    the record reader
+     * @param fileIndex the index of the input file, or -1 if the position of each line
+     *                  shouldn't be appended to its key
+     * @throws IOException if something goes wrong
+     */
+    public SortRecordReader(final JobConf job, final RecordReader<LongWritable, Text> reader,
+                            final int fileIndex)
+            throws IOException {
+        this(job, reader, fileIndex, null);
+    }
+
+    /**
+     * Constructor which reports statistics about the extracted keys to the job counters when
+     * the reader is closed (see {@link SortKeyStats}).
+     *
+     * @param job       the job configuration
+     * @param reader    the record reader
+     * @param fileIndex the index of the input file, or -1 if the position of each line
+     *                  shouldn't be appended to its key
+     * @param reporter  the reporter, or null if the statistics aren't reported
+     * @throws IOException if something goes wrong
+     */
+    public SortRecordReader(final JobConf job, final RecordReader<LongWritable, Text> reader,
+                            final int fileIndex, final Reporter reporter)
+            throws IOException {
         this.reader = reader;
-        sortConfig = new SortConfig(job);
+        this.fileIndex = fileIndex;
+        this.reporter = reporter;
+        extractor = new SortConfig(job).createKeyExtractor();
     }
 
     @Override
@@ -72,18 +138,43 @@ public class SortRecordReader implements RecordReader<Text, Text> {
             return false;
         }
 
-        key.set(extractKey(lineRecordReaderValue,
-                sortConfig.getStartKey(),
-                sortConfig.getEndKey(),
-                sortConfig.getFieldSeparator(null),
-                sortConfig.getIgnoreCase()));
+        if (stats.isTimed()) {
+            long start = System.nanoTime();
+            extractor.extract(lineRecordReaderValue, key);
+            stats.addTime(System.nanoTime() - start);
+        } else {
+            extractor.extract(lineRecordReaderValue, key);
+        }
+        stats.add(key.getLength());
+        if (fileIndex >= 0) {
+            appendSuffix(key, fileIndex, lineRecordReaderKey.get());
+        }
         value.set(lineRecordReaderValue);
 
         return true;
     }
 
     /**
-     * Extract the key from the sort line, using the spupplied options.
+     * Append the position of a line to its key.
+     *
+     * @param key    the key
+     * @param file   the index of the input file
+     * @param offset the offset of the line
+     */
+    private void appendSuffix(final Text key, final int file, final long offset) {
+        for (int i = 0; i < 4; i++) {
+            suffix[i] = (byte) (file >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; i++) {
+            suffix[4 + i] = (byte) (offset >>> (56 - 8 * i));
+        }
+        key.append(suffix, 0, STABLE_SUFFIX_BYTES);
+    }
+
+    /**
+     * Extract the key from the sort line, using the supplied options. This creates a new
+     * {@link SortKeyExtractor} and {@link Text} for every call, so it shouldn't be used
+     * on a per-record basis.
      *
      * @param value          the sort line
      * @param startKey       the start key, or null if there isn't one
@@ -96,42 +187,9 @@ public class SortRecordReader implements RecordReader<Text, Text> {
     protected static Text extractKey(final Text value, final Integer startKey,
                                      final Integer endKey, final String fieldSeparator,
                                      final boolean ignoreCase) throws IOException {
-
         Text result = new Text();
-
-        if (startKey == null) {
-            result.set(value);
-        } else {
-
-            // startKey is 1-based in the Linux sort, so decrement them to be 0-based
-            //
-            int startIdx = startKey - 1;
-
-            String[] parts = StringUtils.split(value.toString(), fieldSeparator);
-
-            if (startIdx >= parts.length) {
-                throw new IOException("Start index is greater than parts in line");
-            }
-
-            int endIdx = parts.length;
-
-            if (endKey != null) {
-                // endKey is also 1-based in the Linux sort, but the StringUtils.join
-                // end index is exclusive, so no need to decrement
-                //
-                endIdx = endKey;
-                if (endIdx > parts.length) {
-                    throw new IOException("End index is greater than parts in line");
-                }
-            }
-
-            result.set(StringUtils.join(parts, fieldSeparator, startIdx, endIdx));
-        }
-
-        if (ignoreCase) {
-            result.set(result.toString().toLowerCase());
-        }
-
+        new SortKeyExtractor(startKey, endKey, fieldSeparator, ignoreCase)
+                .extract(value, result);
         return result;
     }
 
@@ -152,6 +210,7 @@ public class SortRecordReader implements RecordReader<Text, Text> {
 
     @Override
     public void close() throws IOException {
+        stats.report(reporter);
         reader.close();
     }
 
@@ -16,39 +16,146 @@
 
 package com.alexholmes.hadooputils.sort;
 
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.*;
 
 import java.io.IOException;
 import java.util.Iterator;
 
 /**
- * A reducer which can produce unique key output if configured to do so.
+ * A reducer which can produce unique key output if configured to do so. The values are
+ * either the sort lines, or {@link NullWritable}s if the key is the entire sort line, in
+ * which case the key is written out instead.
+ * <p/>
+ * For {@code --count} sorts the values are {@link SortCountWritable} partial counts, and the
+ * first line of each key is written once, prefixed with the total count in the same format
+ * as {@code uniq -c}.
+ * <p/>
+ * The first and last keys and the number of lines written are saved to a stats file for the
+ * job's {@link SortManifest} when the task closes. If the keys are compared by
+ * {@link SortCaseFoldingComparator} they're lower-cased first, so that they're the same as
+ * the keys which {@link SortKeySpec#IGNORE_CASE} produces.
  */
 public class SortReduce extends MapReduceBase
-        implements Reducer<Text, Text, Text, NullWritable> {
+        implements Reducer<Text, Writable, Text, NullWritable> {
 
     /**
      * The sort config.
      */
     private SortConfig sortConfig;
 
+    /**
+     * Whether the key is the entire sort line.
+     */
+    private boolean keyIsLine;
+
+    /**
+     * Whether the lines with each key are counted.
+     */
+    private boolean count;
+
+    /**
+     * The output line for {@code --count} sorts.
+     */
+    private final Text countLine = new Text();
+
+    /**
+     * The job configuration.
+     */
+    private JobConf job;
+
+    /**
+     * Whether the keys have a position suffix, which isn't part of the sort key.
+     */
+    private boolean stable;
+
+    /**
+     * The number of lines written.
+     */
+    private long lines;
+
+    /**
+     * The first key, or null if nothing has been written.
+     */
+    private Text firstKey;
+
+    /**
+     * The last key.
+     */
+    private final Text lastKey = new Text();
+
     @Override
-    public void configure(final JobConf job) {
-        super.configure(job);
-        sortConfig = new SortConfig(job);
+    public void configure(final JobConf conf) {
+        super.configure(conf);
+        job = conf;
+        sortConfig = new SortConfig(conf);
+        keyIsLine = sortConfig.getKeyIsLine();
+        count = sortConfig.getCount();
+        stable = sortConfig.getStable();
     }
 
     @Override
-    public void reduce(final Text key, final Iterator<Text> values,
+    public void reduce(final Text key, final Iterator<Writable> values,
                        final OutputCollector<Text, NullWritable> output, final Reporter reporter)
             throws IOException {
+        lastKey.set(key.getBytes(), 0,
+                stable ? SortStableGroupingComparator.keyLength(key.getLength())
+                        : key.getLength());
+        if (firstKey == null) {
+            firstKey = new Text(lastKey);
+        }
+        if (count) {
+            // the first partial count's line is written, so it has to be copied before the
+            // iterator reuses it
+            //
+            SortCountWritable first = (SortCountWritable) values.next();
+            long total = first.getCount();
+            Text line = keyIsLine ? key : new Text(first.getLine());
+            while (values.hasNext()) {
+                total += ((SortCountWritable) values.next()).getCount();
+            }
+            countLine.set(String.format("%7d ", total));
+            countLine.append(line.getBytes(), 0, line.getLength());
+            output.collect(countLine, NullWritable.get());
+            lines++;
+            return;
+        }
         while (values.hasNext()) {
-            output.collect(values.next(), NullWritable.get());
+            Writable value = values.next();
+            output.collect(keyIsLine ? key : (Text) value, NullWritable.get());
+            lines++;
             if (sortConfig.getUnique()) {
-                break;
+                long duplicates = 0;
+                while (values.hasNext()) {
+                    values.next();
+                    duplicates++;
+                }
+                reporter.incrCounter(SortCounter.REDUCE_DUPLICATES_REMOVED, duplicates);
             }
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        // the stats file is written to the task's work directory, so that it's only committed
+        // along with the part file
+        //
+        String name = String.format("part-%05d", job.getInt("mapred.task.partition", 0));
+        Path file = SortManifest.getStatsPath(FileOutputFormat.getWorkOutputPath(job), name);
+        if (firstKey != null && sortConfig.getComparatorFoldsCase()) {
+            SortKeyExtractor.foldCase(firstKey);
+            SortKeyExtractor.foldCase(lastKey);
+        }
+        FSDataOutputStream out = file.getFileSystem(job).create(file);
+        try {
+            new SortManifest.Part(name, lines, firstKey, firstKey == null ? null : lastKey)
+                    .write(out);
+        } finally {
+            out.close();
+        }
+    }
 }
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskReport;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The {@code _report} file written to the output directory of a sort job, which describes
+ * how long each phase of the sort took, the sort keys, and how evenly the keys were spread
+ * across the reducers, so that sort performance can be tracked across runs.
+ * <p/>
+ * The phases timed by {@link Sort} are {@link #SAMPLING}, {@link #PARTITION_FILE},
+ * {@link #SUBMIT}, {@link #JOB} and {@link #INDEX}. The {@link #MAP}, {@link #SHUFFLE} and
+ * {@link #REDUCE} phases come from the task reports, so they're missing if the job tracker
+ * doesn't keep them. Reducers copy map outputs while the maps run, so the shuffle is the time
+ * from the first reducer starting until the last map finishes, and the reduce is the time
+ * after that until the last reducer finishes. Inline LZOP and key indexes are written along
+ * with the output, so they're part of the reduce, and the index phase is the time taken to
+ * write the {@link SortManifest}.
+ * <p/>
+ * The key statistics are collected by {@link SortKeyStats} in the map tasks. The predicted
+ * bytes of each reducer are its planned share of the sampled keys (or an equal share without
+ * total order) applied to the bytes actually shuffled, and the skew is the ratio of the
+ * largest reducer to the mean.
+ */
+public class SortReport {
+
+    /**
+     * The name of the report file in the output directory.
+     */
+    public static final String REPORT_NAME = "_report";
+
+    /**
+     * The phase which samples the input for total order.
+     */
+    public static final String SAMPLING = "sampling";
+
+    /**
+     * The phase which writes the total order partition file.
+     */
+    public static final String PARTITION_FILE = "partitionFile";
+
+    /**
+     * The phase which submits the job.
+     */
+    public static final String SUBMIT = "submit";
+
+    /**
+     * The phase from the first map task starting to the last one finishing.
+     */
+    public static final String MAP = "map";
+
+    /**
+     * The phase from the first reduce task starting to the last map task finishing.
+     */
+    public static final String SHUFFLE = "shuffle";
+
+    /**
+     * The phase from the end of the shuffle to the last reduce task finishing.
+     */
+    public static final String REDUCE = "reduce";
+
+    /**
+     * The phase from submitting the job until it completes.
+     */
+    public static final String JOB = "job";
+
+    /**
+     * The phase which indexes the output once the job has completed.
+     */
+    public static final String INDEX = "index";
+
+    /**
+     * The group of the Hadoop counter for the number of bytes shuffled to a reducer.
+     */
+    private static final String SHUFFLE_BYTES_GROUP = "org.apache.hadoop.mapred.Task$Counter";
+
+    /**
+     * The name of the Hadoop counter for the number of bytes shuffled to a reducer.
+     */
+    private static final String SHUFFLE_BYTES_COUNTER = "REDUCE_SHUFFLE_BYTES";
+
+    /**
+     * The milliseconds taken by each phase, in the order they were added.
+     */
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /**
+     * The number of keys in each length bucket, keyed by the longest key in the bucket.
+     */
+    private final SortedMap<Long, Long> keyLengths = new TreeMap<Long, Long>();
+
+    /**
+     * The number of keys whose extraction was timed.
+     */
+    private long keysTimed;
+
+    /**
+     * The nanoseconds spent extracting the timed keys.
+     */
+    private long extractionNanos;
+
+    /**
+     * The predicted bytes of each reducer.
+     */
+    private long[] predictedBytes = new long[0];
+
+    /**
+     * The bytes actually received by each reducer.
+     */
+    private long[] actualBytes = new long[0];
+
+    /**
+     * Set the time taken by a phase.
+     *
+     * @param phase  the phase
+     * @param millis the milliseconds taken
+     * @return reference to this object
+     */
+    public SortReport setPhase(final String phase, final long millis) {
+        phases.put(phase, millis);
+        return this;
+    }
+
+    /**
+     * Get the time taken by each phase.
+     *
+     * @return the milliseconds taken by each phase, in the order they were added
+     */
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    /**
+     * Add the map, shuffle and reduce phases from the task reports of a job.
+     *
+     * @param maps    the map task reports
+     * @param reduces the reduce task reports
+     * @return reference to this object
+     */
+    public SortReport addTaskPhases(final TaskReport[] maps, final TaskReport[] reduces) {
+        long[] mapTimes = getTimes(maps);
+        long[] reduceTimes = getTimes(reduces);
+        if (mapTimes != null) {
+            setPhase(MAP, mapTimes[1] - mapTimes[0]);
+        }
+        if (mapTimes != null && reduceTimes != null) {
+            long shuffleEnd = Math.max(mapTimes[1], reduceTimes[0]);
+            setPhase(SHUFFLE, shuffleEnd - reduceTimes[0]);
+            setPhase(REDUCE, Math.max(0, reduceTimes[1] - shuffleEnd));
+        }
+        return this;
+    }
+
+    /**
+     * Get the span of a set of tasks.
+     *
+     * @param reports the task reports
+     * @return the earliest start and latest finish times, or null if no task has both
+     */
+    private static long[] getTimes(final TaskReport[] reports) {
+        long start = Long.MAX_VALUE;
+        long finish = Long.MIN_VALUE;
+        for (TaskReport report : reports == null ? new TaskReport[0] : reports) {
+            if (report.getStartTime() > 0 && report.getFinishTime() > 0) {
+                start = Math.min(start, report.getStartTime());
+                finish = Math.max(finish, report.getFinishTime());
+            }
+        }
+        return start <= finish ? new long[]{start, finish} : null;
+    }
+
+    /**
+     * Add the key statistics from the counters of a job.
+     *
+     * @param counters the job counters
+     * @return reference to this object
+     */
+    public SortReport addKeyStats(final Counters counters) {
+        for (Counters.Counter counter : counters.getGroup(SortKeyStats.LENGTHS_GROUP)) {
+            keyLengths.put(Long.parseLong(counter.getName()), counter.getValue());
+        }
+        keysTimed = counters.getCounter(SortCounter.KEYS_TIMED);
+        extractionNanos = counters.getCounter(SortCounter.KEY_EXTRACTION_NANOS);
+        return this;
+    }
+
+    /**
+     * Get the key length histogram.
+     *
+     * @return the number of keys in each length bucket, keyed by the longest key in the
+     *         bucket, which are powers of two
+     */
+    public SortedMap<Long, Long> getKeyLengths() {
+        return keyLengths;
+    }
+
+    /**
+     * Get the number of keys whose extraction was timed.
+     *
+     * @return the number of keys, which is 0 if the key is the whole line
+     */
+    public long getKeysTimed() {
+        return keysTimed;
+    }
+
+    /**
+     * Get the average time taken to extract a key.
+     *
+     * @return the average nanoseconds, or 0 if no keys were timed
+     */
+    public double getAverageExtractionNanos() {
+        return keysTimed == 0 ? 0 : extractionNanos / (double) keysTimed;
+    }
+
+    /**
+     * Set the bytes of each reducer.
+     *
+     * @param shares the planned share of each reducer, or null if they're equal
+     * @param actual the bytes actually received by each reducer
+     * @return reference to this object
+     */
+    public SortReport setReducerBytes(final double[] shares, final long[] actual) {
+        long total = 0;
+        for (long bytes : actual) {
+            total += bytes;
+        }
+        predictedBytes = new long[actual.length];
+        for (int i = 0; i < actual.length; i++) {
+            double share = shares == null || shares.length != actual.length
+                    ? 1.0 / actual.length : shares[i];
+            predictedBytes[i] = Math.round(share * total);
+        }
+        actualBytes = actual.clone();
+        return this;
+    }
+
+    /**
+     * Get the predicted bytes of each reducer.
+     *
+     * @return the bytes
+     */
+    public long[] getPredictedBytes() {
+        return predictedBytes;
+    }
+
+    /**
+     * Get the bytes actually received by each reducer.
+     *
+     * @return the bytes
+     */
+    public long[] getActualBytes() {
+        return actualBytes;
+    }
+
+    /**
+     * Get the skew of the reducers, which is the ratio of the bytes received by the largest
+     * reducer to the mean.
+     *
+     * @return the skew, which is 1 if the reducers are balanced, or 0 if there's no data
+     */
+    public double getSkew() {
+        long total = 0;
+        long max = 0;
+        for (long bytes : actualBytes) {
+            total += bytes;
+            max = Math.max(max, bytes);
+        }
+        return total == 0 ? 0 : max * actualBytes.length / (double) total;
+    }
+
+    /**
+     * Get the number of bytes received by each reducer of a finished job. The shuffle byte
+     * counters are used where they're available, otherwise the sizes of the output files.
+     *
+     * @param job         the job configuration
+     * @param client      the job client
+     * @param result      the finished job
+     * @param outputDir   the job output directory
+     * @param numReducers the number of reducers
+     * @return the number of bytes received by each reducer
+     * @throws IOException if something goes wrong
+     */
+    public static long[] getReducerBytes(final JobConf job, final JobClient client,
+                                         final RunningJob result, final Path outputDir,
+                                         final int numReducers) throws IOException {
+        long[] bytes = new long[numReducers];
+
+        TaskReport[] reports = client.getReduceTaskReports(result.getID());
+        if (reports != null && reports.length == numReducers) {
+            boolean complete = true;
+            for (TaskReport report : reports) {
+                Counters.Counter counter = report.getCounters()
+                        .findCounter(SHUFFLE_BYTES_GROUP, SHUFFLE_BYTES_COUNTER);
+                int partition = report.getTaskID().getId();
+                if (counter == null || counter.getValue() == 0) {
+                    complete = false;
+                    break;
+                }
+                bytes[partition] = counter.getValue();
+            }
+            if (complete) {
+                return bytes;
+            }
+        }
+
+        Arrays.fill(bytes, 0);
+        FileSystem fs = outputDir.getFileSystem(job);
+        for (FileStatus status : fs.listStatus(outputDir)) {
+            String name = status.getPath().getName();
+            if (name.startsWith("part-")) {
+                int partition = Integer.parseInt(name.substring("part-".length(),
+                        "part-".length() + 5));
+                bytes[partition] = status.getLen();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the report to an output directory.
+     *
+     * @param job       the job configuration
+     * @param outputDir the output directory
+     * @throws IOException if something goes wrong
+     */
+    public void write(final JobConf job, final Path outputDir) throws IOException {
+        Path file = new Path(outputDir, REPORT_NAME);
+        FSDataOutputStream out = file.getFileSystem(job).create(file);
+        try {
+            JsonGenerator generator = new JsonFactory().createJsonGenerator(out,
+                    JsonEncoding.UTF8);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("phases");
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                generator.writeNumberField(phase.getKey(), phase.getValue());
+            }
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("keys");
+            generator.writeArrayFieldStart("lengths");
+            for (Map.Entry<Long, Long> bucket : keyLengths.entrySet()) {
+                generator.writeStartObject();
+                generator.writeNumberField("maxLength", bucket.getKey());
+                generator.writeNumberField("keys", bucket.getValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("timed", keysTimed);
+            generator.writeNumberField("extractionNanos", extractionNanos);
+            generator.writeNumberField("averageExtractionNanos", getAverageExtractionNanos());
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("reducers");
+            writeArray(generator, "predictedBytes", predictedBytes);
+            writeArray(generator, "actualBytes", actualBytes);
+            generator.writeNumberField("skew", getSkew());
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.close();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write an array of numbers.
+     *
+     * @param generator the generator
+     * @param name      the name of the field
+     * @param values    the numbers
+     * @throws IOException if something goes wrong
+     */
+    private static void writeArray(final JsonGenerator generator, final String name,
+                                   final long[] values) throws IOException {
+        generator.writeArrayFieldStart(name);
+        for (long value : values) {
+            generator.writeNumber(value);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Read the report of an output directory.
+     *
+     * @param job       the job configuration
+     * @param outputDir the output directory
+     * @return the report
+     * @throws IOException if something goes wrong
+     */
+    public static SortReport read(final JobConf job, final Path outputDir) throws IOException {
+        Path file = new Path(outputDir, REPORT_NAME);
+        FSDataInputStream in = file.getFileSystem(job).open(file);
+        JsonNode root;
+        try {
+            root = new ObjectMapper().readTree(in);
+        } finally {
+            in.close();
+        }
+
+        SortReport report = new SortReport();
+        JsonNode phases = root.get("phases");
+        for (Iterator<String> names = phases.getFieldNames(); names.hasNext();) {
+            String name = names.next();
+            report.setPhase(name, phases.get(name).getLongValue());
+        }
+        JsonNode keys = root.get("keys");
+        for (JsonNode bucket : keys.get("lengths")) {
+            report.keyLengths.put(bucket.get("maxLength").getLongValue(),
+                    bucket.get("keys").getLongValue());
+        }
+        report.keysTimed = keys.get("timed").getLongValue();
+        report.extractionNanos = keys.get("extractionNanos").getLongValue();
+        JsonNode reducers = root.get("reducers");
+        report.predictedBytes = readArray(reducers.get("predictedBytes"));
+        report.actualBytes = readArray(reducers.get("actualBytes"));
+        return report;
+    }
+
+    /**
+     * Read an array of numbers.
+     *
+     * @param node the array
+     * @return the numbers
+     */
+    private static long[] readArray(final JsonNode node) {
+        long[] values = new long[node.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = node.get(i).getLongValue();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileAsBinaryOutputFormat;
+
+/**
+ * The {@link org.apache.hadoop.io.RawComparator} for sorting sequence files, whose keys are
+ * shuffled as the {@link BytesWritable}s produced by
+ * {@link org.apache.hadoop.mapred.SequenceFileAsBinaryInputFormat}. Each key holds the
+ * serialized form of a key from the input files, which is compared by the
+ * {@link WritableComparator} registered for the input key class, so keys with a raw
+ * comparator are never deserialized. The key class is the one written to the output, as set
+ * with {@link SequenceFileAsBinaryOutputFormat#setSequenceFileOutputKeyClass}.
+ */
+public class SortSequenceFileComparator extends WritableComparator implements Configurable {
+
+    /**
+     * The size of the length which prefixes a serialized {@link BytesWritable}.
+     */
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * The configuration.
+     */
+    private Configuration conf;
+
+    /**
+     * The comparator registered for the input key class.
+     */
+    private WritableComparator comparator;
+
+    /**
+     * Whether the order is reversed.
+     */
+    private boolean reverse;
+
+    /**
+     * Constructor.
+     */
+    public SortSequenceFileComparator() {
+        super(BytesWritable.class);
+    }
+
+    @Override
+    public void setConf(final Configuration conf) {
+        this.conf = conf;
+        JobConf job = conf instanceof JobConf ? (JobConf) conf : new JobConf(conf);
+        comparator = WritableComparator.get(
+                SequenceFileAsBinaryOutputFormat.getSequenceFileOutputKeyClass(job));
+        reverse = new SortConfig(conf).getReverse();
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int compare(final byte[] b1, final int s1, final int l1,
+                       final byte[] b2, final int s2, final int l2) {
+        int cmp = comparator.compare(b1, s1 + LENGTH_SIZE, l1 - LENGTH_SIZE,
+                b2, s2 + LENGTH_SIZE, l2 - LENGTH_SIZE);
+        return reverse ? -cmp : cmp;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(final WritableComparable a, final WritableComparable b) {
+        BytesWritable k1 = (BytesWritable) a;
+        BytesWritable k2 = (BytesWritable) b;
+        int cmp = comparator.compare(k1.getBytes(), 0, k1.getLength(),
+                k2.getBytes(), 0, k2.getLength());
+        return reverse ? -cmp : cmp;
+    }
+}
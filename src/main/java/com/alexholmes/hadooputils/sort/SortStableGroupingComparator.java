@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The grouping comparator for stable sorts, which compares keys produced by
+ * {@link SortRecordReader} without the position suffix. Lines with equal sort keys are
+ * therefore passed to a single reduce call, in the order in which they were read, and
+ * unique sorts keep the first of them.
+ */
+public class SortStableGroupingComparator extends WritableComparator {
+
+    /**
+     * Constructor.
+     */
+    public SortStableGroupingComparator() {
+        super(Text.class);
+    }
+
+    @Override
+    public int compare(final byte[] b1, final int s1, final int l1,
+                       final byte[] b2, final int s2, final int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareBytes(b1, s1 + n1, keyLength(l1 - n1), b2, s2 + n2, keyLength(l2 - n2));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(final WritableComparable a, final WritableComparable b) {
+        Text t1 = (Text) a;
+        Text t2 = (Text) b;
+        return compareBytes(t1.getBytes(), 0, keyLength(t1.getLength()),
+                t2.getBytes(), 0, keyLength(t2.getLength()));
+    }
+
+    /**
+     * Get the length of a key without its position suffix.
+     *
+     * @param length the length of the key with its suffix
+     * @return the length of the sort key
+     */
+    static int keyLength(final int length) {
+        return Math.max(0, length - SortRecordReader.STABLE_SUFFIX_BYTES);
+    }
+}
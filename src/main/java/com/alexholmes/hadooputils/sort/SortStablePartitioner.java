@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/**
+ * The hash partitioner for stable sorts which aren't total-order, which hashes keys
+ * produced by {@link SortRecordReader} without their position suffix, so that every line
+ * with the same sort key goes to the same reducer.
+ */
+public class SortStablePartitioner implements Partitioner<Text, Writable> {
+
+    @Override
+    public void configure(final JobConf job) {
+    }
+
+    @Override
+    public int getPartition(final Text key, final Writable value, final int numPartitions) {
+        int hash = WritableComparator.hashBytes(key.getBytes(),
+                SortStableGroupingComparator.keyLength(key.getLength()));
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A mapper for {@code --head} and {@code --tail} sorts, which only emits the records that
+ * could be among the first (or last) N lines of the sorted output. The best N records are
+ * held in a bounded heap whose root is the worst of them, so each record is compared with
+ * the root and is either dropped or replaces it. The heap is emitted when the task closes,
+ * so at most N records per map task are shuffled to {@link SortTopReduce}.
+ * <p/>
+ * Of the records with equal keys the earliest are kept for {@code --head} and the latest
+ * for {@code --tail}. For unique sorts only one record is kept for each key.
+ */
+public class SortTopMapper extends MapReduceBase
+        implements Mapper<Text, Writable, Text, Writable> {
+
+    /**
+     * The number of records to keep.
+     */
+    private int limit;
+
+    /**
+     * Whether the last records are kept rather than the first.
+     */
+    private boolean tail;
+
+    /**
+     * Whether only one record is kept for each key.
+     */
+    private boolean unique;
+
+    /**
+     * The records kept so far, with the worst of them at the root.
+     */
+    private PriorityQueue<Entry> heap;
+
+    /**
+     * The keys in the heap, for unique sorts.
+     */
+    private final Set<Text> keys = new HashSet<Text>();
+
+    /**
+     * The number of records read, used to order records with equal keys.
+     */
+    private long records;
+
+    /**
+     * Where the heap is emitted, which is known once the first record has been read.
+     */
+    private OutputCollector<Text, Writable> output;
+
+    @Override
+    public void configure(final JobConf job) {
+        super.configure(job);
+        SortConfig sortConfig = new SortConfig(job);
+        tail = sortConfig.getTail() > 0;
+        limit = tail ? sortConfig.getTail() : sortConfig.getHead();
+        unique = sortConfig.getUnique();
+        heap = new PriorityQueue<Entry>(Math.max(1, limit), new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry a, final Entry b) {
+                // the root of the heap is the record which would be dropped first
+                //
+                return better(a, b);
+            }
+        });
+    }
+
+    @Override
+    public void map(final Text key, final Writable value,
+                    final OutputCollector<Text, Writable> collector, final Reporter reporter)
+            throws IOException {
+        output = collector;
+        records++;
+        if (unique && keys.contains(key)) {
+            reporter.incrCounter(SortCounter.MAP_DUPLICATES_REMOVED, 1);
+            return;
+        }
+        if (heap.size() >= limit) {
+            Entry worst = heap.peek();
+            if (better(key, records, worst.key, worst.record) <= 0) {
+                return;
+            }
+            heap.poll();
+            keys.remove(worst.key);
+        }
+
+        // the record reader reuses the key and value, so they have to be copied
+        //
+        Entry entry = new Entry(new Text(key),
+                value instanceof Text ? new Text((Text) value) : value, records);
+        heap.add(entry);
+        if (unique) {
+            keys.add(entry.key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            for (Entry entry : heap) {
+                output.collect(entry.key, entry.value);
+            }
+        }
+        heap.clear();
+        keys.clear();
+    }
+
+    /**
+     * Compare how much two records belong in the output.
+     *
+     * @param a the first record
+     * @param b the second record
+     * @return a positive number if the first record is better than the second
+     */
+    private int better(final Entry a, final Entry b) {
+        return better(a.key, a.record, b.key, b.record);
+    }
+
+    /**
+     * Compare how much two records belong in the output. For {@code --head} smaller keys
+     * are better and earlier records break ties, and for {@code --tail} larger keys are
+     * better and later records break ties.
+     *
+     * @param aKey    the key of the first record
+     * @param aRecord the position of the first record
+     * @param bKey    the key of the second record
+     * @param bRecord the position of the second record
+     * @return a positive number if the first record is better than the second
+     */
+    private int better(final Text aKey, final long aRecord, final Text bKey,
+                       final long bRecord) {
+        int cmp = WritableComparator.compareBytes(aKey.getBytes(), 0, aKey.getLength(),
+                bKey.getBytes(), 0, bKey.getLength());
+        if (cmp == 0) {
+            cmp = aRecord < bRecord ? -1 : (aRecord == bRecord ? 0 : 1);
+        }
+        return tail ? cmp : -cmp;
+    }
+
+    /**
+     * A record held in the heap.
+     */
+    private static final class Entry {
+
+        /**
+         * The sort key.
+         */
+        private final Text key;
+
+        /**
+         * The line, or a {@link org.apache.hadoop.io.NullWritable} if the key is the line.
+         */
+        private final Writable value;
+
+        /**
+         * The position of the record in the input.
+         */
+        private final long record;
+
+        /**
+         * Constructor.
+         *
+         * @param key    the sort key
+         * @param value  the line
+         * @param record the position of the record in the input
+         */
+        Entry(final Text key, final Writable value, final long record) {
+            this.key = key;
+            this.value = value;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The single reducer for {@code --head} and {@code --tail} sorts, which merges the records
+ * kept by each {@link SortTopMapper} and writes the first (or last) N lines. For
+ * {@code --head} the lines are written as they arrive until there are N of them; for
+ * {@code --tail} the last N lines are buffered and written when the task closes.
+ */
+public class SortTopReduce extends MapReduceBase
+        implements Reducer<Text, Writable, Text, NullWritable> {
+
+    /**
+     * The number of lines to write.
+     */
+    private int limit;
+
+    /**
+     * Whether the last lines are written rather than the first.
+     */
+    private boolean tail;
+
+    /**
+     * Whether only the first line of an equal run is written.
+     */
+    private boolean unique;
+
+    /**
+     * Whether the key is the entire sort line.
+     */
+    private boolean keyIsLine;
+
+    /**
+     * The number of lines written, for {@code --head}.
+     */
+    private long written;
+
+    /**
+     * The last lines seen, for {@code --tail}.
+     */
+    private final LinkedList<Text> last = new LinkedList<Text>();
+
+    /**
+     * Where the last lines are written, which is known once the first key has been read.
+     */
+    private OutputCollector<Text, NullWritable> output;
+
+    @Override
+    public void configure(final JobConf job) {
+        super.configure(job);
+        SortConfig sortConfig = new SortConfig(job);
+        tail = sortConfig.getTail() > 0;
+        limit = tail ? sortConfig.getTail() : sortConfig.getHead();
+        unique = sortConfig.getUnique();
+        keyIsLine = sortConfig.getKeyIsLine();
+    }
+
+    @Override
+    public void reduce(final Text key, final Iterator<Writable> values,
+                       final OutputCollector<Text, NullWritable> collector,
+                       final Reporter reporter)
+            throws IOException {
+        output = collector;
+        while (values.hasNext() && (tail || written < limit)) {
+            Writable value = values.next();
+            Text line = keyIsLine ? key : (Text) value;
+            if (tail) {
+                last.add(new Text(line));
+                if (last.size() > limit) {
+                    last.removeFirst();
+                }
+            } else {
+                collector.collect(line, NullWritable.get());
+                written++;
+            }
+            if (unique) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            for (Text line : last) {
+                output.collect(line, NullWritable.get());
+            }
+        }
+        last.clear();
+    }
+}
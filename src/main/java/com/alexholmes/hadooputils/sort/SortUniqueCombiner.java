@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A combiner for unique sorts, which only keeps the first value for each key so that
+ * duplicates are removed before they leave the map task.
+ */
+public class SortUniqueCombiner extends MapReduceBase
+        implements Reducer<Text, Writable, Text, Writable> {
+
+    @Override
+    public void reduce(final Text key, final Iterator<Writable> values,
+                       final OutputCollector<Text, Writable> output, final Reporter reporter)
+            throws IOException {
+        output.collect(key, values.next());
+        long duplicates = 0;
+        while (values.hasNext()) {
+            values.next();
+            duplicates++;
+        }
+        reporter.incrCounter(SortCounter.COMBINE_DUPLICATES_REMOVED, duplicates);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A mapper for unique sorts which drops keys that it has recently seen, so that duplicates
+ * are removed before they are spilled and shuffled. The keys are held in a bounded LRU cache,
+ * which means that duplicates which are far apart in the input can still get through, and
+ * are removed later by {@link SortUniqueCombiner} and {@link SortReduce}.
+ */
+public class SortUniqueMapper extends MapReduceBase
+        implements Mapper<Text, Writable, Text, Writable> {
+
+    /**
+     * The most recently seen keys.
+     */
+    private Map<Text, Boolean> seen;
+
+    @Override
+    public void configure(final JobConf job) {
+        super.configure(job);
+        final int maxEntries = new SortConfig(job).getUniqueCacheSize();
+        seen = new LinkedHashMap<Text, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Text, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public void map(final Text key, final Writable value,
+                    final OutputCollector<Text, Writable> output, final Reporter reporter)
+            throws IOException {
+        // the record reader reuses the key, so it has to be copied before it's cached
+        //
+        if (seen.get(key) != null) {
+            reporter.incrCounter(SortCounter.MAP_DUPLICATES_REMOVED, 1);
+            return;
+        }
+        seen.put(new Text(key), Boolean.TRUE);
+        output.collect(key, value);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.io;
+
+import com.alexholmes.hadooputils.TestBase;
+import com.alexholmes.hadooputils.sort.SortConfig;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SortedTextReaderTest extends TestBase {
+
+    @Test
+    public void testLookups() throws IOException {
+        JobConf job = new JobConf();
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            lines.add(String.format("%04d", i));
+        }
+        Path dir = new Path(TEST_ROOT_DIR.getAbsolutePath(), "sorted");
+        write(job, new Path(dir, "part-00000"), lines.subList(0, 150), "0150");
+        write(job, new Path(dir, "part-00001"), Arrays.asList("0150"));
+        write(job, new Path(dir, "part-00002"), new ArrayList<String>());
+        write(job, new Path(dir, "part-00003"), lines.subList(151, 300));
+
+        SortedTextReader reader = new SortedTextReader(job, dir, 16, 1024);
+        try {
+            assertEquals(Arrays.asList(new Text("0000")), reader.get(new Text("0000")));
+            assertEquals(Arrays.asList(new Text("0077")), reader.get(new Text("0077")));
+            long misses = reader.getCacheMisses();
+            reader.get(new Text("0077"));
+            assertEquals(misses, reader.getCacheMisses());
+            assertTrue(reader.getCacheHits() > 0);
+
+            assertEquals(Arrays.asList(new Text("0150"), new Text("0150")),
+                    reader.get(new Text("0150")));
+            assertEquals(Arrays.asList(new Text("0299")), reader.get(new Text("0299")));
+            assertTrue(reader.get(new Text("0300")).isEmpty());
+            assertTrue(reader.get(new Text("00")).isEmpty());
+
+            assertEquals(Arrays.asList("0148", "0149", "0150", "0150", "0151"),
+                    scan(reader, "0148", "0152"));
+            assertEquals(Arrays.asList("0000", "0001"), scan(reader, null, "0002"));
+            assertEquals(Arrays.asList("0298", "0299"), scan(reader, "0298", null));
+            assertEquals(301, scan(reader, null, null).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testKeysAndCompression() throws IOException {
+        JobConf job = new JobConf();
+        new SortConfig(job).setStartKey(2);
+        Path dir = new Path(TEST_ROOT_DIR.getAbsolutePath(), "sorted");
+        write(job, new Path(dir, "part-00000.gz"), Arrays.asList("z 1", "y 2", "x 2"));
+        write(job, new Path(dir, "part-00001"), Arrays.asList("w 3", "v 4"));
+
+        SortedTextReader reader = new SortedTextReader(job, dir, 4, 1024);
+        try {
+            Text key = reader.extractKey(new Text("? 2"));
+            assertEquals(Arrays.asList(new Text("y 2"), new Text("x 2")), reader.get(key));
+            assertEquals(Arrays.asList("y 2", "x 2", "w 3"), scan(reader, "- 2", "- 4"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> scan(SortedTextReader reader, String lower, String upper)
+            throws IOException {
+        SortedTextReader.Scanner scanner = reader.scan(
+                lower == null ? null : reader.extractKey(new Text(lower)),
+                upper == null ? null : reader.extractKey(new Text(upper)));
+        List<String> lines = new ArrayList<String>();
+        Text line = new Text();
+        while (scanner.next(line)) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static void write(JobConf job, Path file, List<String> lines, String... more)
+            throws IOException {
+        FileSystem fs = file.getFileSystem(job);
+        OutputStream out = fs.create(file);
+        if (file.getName().endsWith(".gz")) {
+            out = ReflectionUtils.newInstance(GzipCodec.class, job).createOutputStream(out);
+        }
+        try {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes("UTF-8"));
+            }
+            for (String line : more) {
+                out.write((line + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
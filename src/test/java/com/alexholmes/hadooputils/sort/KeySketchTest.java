@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class KeySketchTest {
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static int value(byte[] key) {
+        return ((key[0] & 0xff) << 24) | ((key[1] & 0xff) << 16) | ((key[2] & 0xff) << 8)
+                | (key[3] & 0xff);
+    }
+
+    private static void assertQuantiles(KeySketch sketch, int n, int max, int tolerance) {
+        byte[][] quantiles = sketch.getQuantiles(n);
+        assertEquals(n, quantiles.length);
+        for (int i = 0; i < n; i++) {
+            int expected = (int) ((long) i * max / n);
+            int actual = value(quantiles[i]);
+            assertTrue("quantile " + i + " was " + actual + " instead of about " + expected,
+                    Math.abs(actual - expected) <= tolerance);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, new KeySketch().getQuantiles(4).length);
+    }
+
+    @Test
+    public void testExact() {
+        KeySketch sketch = new KeySketch(16);
+        for (int i = 3; i >= 0; i--) {
+            sketch.add(key(i), 0, 4);
+        }
+        byte[][] quantiles = sketch.getQuantiles(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, value(quantiles[i]));
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        int max = 100000;
+        KeySketch sketch = new KeySketch(256);
+        for (int i = 0; i < max; i++) {
+            sketch.add(key((i * 7919) % max), 0, 4);
+        }
+        assertEquals(max, sketch.getCount());
+        assertTrue(sketch.getRetained() < 256 * 12);
+        assertQuantiles(sketch, 10, max, max / 50);
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        int max = 100000;
+        KeySketch merged = new KeySketch(256);
+        for (int part = 0; part < 10; part++) {
+            KeySketch sketch = new KeySketch(256);
+            for (int i = part; i < max; i += 10) {
+                sketch.add(key(i), 0, 4);
+            }
+
+            // round-trip the sketch, as happens between the map tasks and the client
+            //
+            DataOutputBuffer out = new DataOutputBuffer();
+            sketch.write(out);
+            DataInputBuffer in = new DataInputBuffer();
+            in.reset(out.getData(), out.getLength());
+            KeySketch copy = new KeySketch();
+            copy.readFields(in);
+            assertEquals(sketch.getCount(), copy.getCount());
+
+            merged.merge(copy);
+        }
+        assertEquals(max, merged.getCount());
+        assertQuantiles(merged, 10, max, max / 50);
+    }
+}
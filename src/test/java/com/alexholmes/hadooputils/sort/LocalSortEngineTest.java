@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.alexholmes.hadooputils.TestBase;
+import com.alexholmes.hadooputils.test.TextIOJobBuilder;
+import com.alexholmes.hadooputils.test.TextIOLocalJobBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalSortEngineTest extends TestBase {
+
+    @Test
+    public void testMultiPassMerge() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR);
+        for (int i = 99; i >= 0; i--) {
+            builder.addInput(String.format("%02d", i));
+        }
+        for (int i = 0; i < 100; i++) {
+            builder.addExpectedOutput(String.format("%02d", i));
+        }
+        builder.writeInputs();
+
+        JobConf jobConf = job(builder);
+        jobConf.setInt("io.sort.factor", 3);
+
+        // spill after every record, so that there are many runs to merge
+        //
+        LocalSortEngine engine = new LocalSortEngine(jobConf, 1);
+        assertEquals(100, engine.sort(builder.getOutputPath()));
+        assertTrue(engine.getRuns() > 100);
+        assertTrue(builder.getFs().exists(
+                new Path(builder.getOutputPath(), LocalSortEngine.SUCCESS_FILE)));
+
+        builder.verifyResults();
+    }
+
+    @Test
+    public void testUnique() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b")
+                .addInput("a")
+                .addInput("b")
+                .addInput("a")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .writeInputs();
+
+        JobConf jobConf = job(builder);
+        new SortConfig(jobConf).setUnique(true);
+
+        assertEquals(2, new LocalSortEngine(jobConf, 1).sort(builder.getOutputPath()));
+
+        builder.verifyResults();
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void testOutputExists() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a")
+                .writeInputs();
+        builder.getFs().mkdirs(builder.getOutputPath());
+
+        new LocalSortEngine(job(builder)).sort(builder.getOutputPath());
+    }
+
+    private static JobConf job(TextIOJobBuilder builder) {
+        JobConf jobConf = new JobConf(builder.getFs().getConf());
+        new SortConfig(jobConf).setLocalThreads(2);
+        FileInputFormat.setInputPaths(jobConf, builder.getInputPath());
+        return jobConf;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PartitionCacheTest {
+
+    private static PartitionCache sample(int numPartitions, String... keys) throws IOException {
+        return PartitionPlanTest.sample(new PartitionCache(
+                PartitionPlanTest.job(numPartitions, true), new Path("/tmp/cache"), "/input"),
+                keys);
+    }
+
+    @Test
+    public void testRefine() throws IOException {
+        PartitionCache cache = sample(4, PartitionPlanTest.range(100));
+
+        // the last partition received far more than its share, so its candidates should
+        // become heavier and the boundaries should move towards it
+        //
+        cache.refine(new long[]{100, 100, 100, 700});
+        int[] boundaries = cache.getBoundaries();
+        assertTrue(boundaries[0] > 25);
+        assertTrue(boundaries[1] > 50);
+        assertTrue(boundaries[2] > 75);
+
+        // a balanced job leaves the boundaries where they are
+        //
+        cache.refine(new long[]{100, 100, 100, 100});
+        assertArrayEquals(boundaries, cache.getBoundaries());
+    }
+
+    @Test
+    public void testRefineSplitKey() throws IOException {
+        PartitionCache cache = sample(3, "a", "b", "b", "b", "b", "b", "b", "c", "d");
+        assertArrayEquals(new int[]{1, 1}, cache.getBoundaries());
+
+        // the reducer in the middle only holds the heavy key, so its bytes are credited to
+        // the key, which remains split
+        //
+        cache.refine(new long[]{0, 120, 0});
+        assertArrayEquals(new int[]{1, 1}, cache.getBoundaries());
+    }
+}
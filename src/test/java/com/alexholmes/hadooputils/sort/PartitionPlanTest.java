@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.InputSampler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PartitionPlanTest {
+
+    static <T extends PartitionPlan> T sample(T plan, final String... keys) throws IOException {
+        plan.sample(new InputSampler.Sampler<Text, Text>() {
+            @Override
+            public Text[] getSample(InputFormat<Text, Text> inf, JobConf job) {
+                Text[] samples = new Text[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    samples[i] = new Text(keys[i]);
+                }
+                return samples;
+            }
+        });
+        return plan;
+    }
+
+    static JobConf job(int numPartitions, boolean splitHeavyKeys) {
+        JobConf job = new JobConf();
+        job.setNumReduceTasks(numPartitions);
+        job.setOutputKeyComparatorClass(SortKeyComparator.class);
+        new SortConfig(job).setSplitHeavyKeys(splitHeavyKeys);
+        return job;
+    }
+
+    static String[] range(int n) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = n - 1; i >= 0; i--) {
+            keys.add(String.format("k%03d", i));
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    @Test
+    public void testBoundaries() throws IOException {
+        assertArrayEquals(new int[]{25, 50, 75},
+                sample(new PartitionPlan(job(4, true)), range(100)).getBoundaries());
+        assertArrayEquals(new int[]{25, 50, 75},
+                sample(new PartitionPlan(job(4, false)), range(100)).getBoundaries());
+    }
+
+    @Test
+    public void testDuplicateSamplesAreWeighted() throws IOException {
+        // "b" was sampled six times, so it gets a partition to itself
+        //
+        PartitionPlan plan = sample(new PartitionPlan(job(3, false)),
+                "a", "b", "b", "b", "b", "b", "b", "c", "d");
+        assertArrayEquals(new int[]{1, 2}, plan.getBoundaries());
+        assertFalse(plan.hasSplitKeys());
+    }
+
+    @Test
+    public void testNotEnoughKeys() throws IOException {
+        try {
+            sample(new PartitionPlan(job(4, false)), "a", "a", "b").getBoundaries();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSplitHeavyKey() throws IOException {
+        // "b" is two thirds of the input, so it's spread over all three reducers
+        //
+        PartitionPlan plan = sample(new PartitionPlan(job(3, true)),
+                "a", "b", "b", "b", "b", "b", "b", "c", "d");
+        assertArrayEquals(new int[]{1, 1}, plan.getBoundaries());
+        assertEquals(Arrays.asList("key 'b' split across reducers 0-2"), plan.getSplitKeys());
+    }
+
+    @Test
+    public void testPartitionShares() throws IOException {
+        double[] shares = sample(new PartitionPlan(job(4, false)), range(100))
+                .getPartitionShares();
+        assertArrayEquals(new double[]{0.25, 0.25, 0.25, 0.25}, shares, 1e-9);
+
+        // the weight of "b" is shared between the reducers it's split across
+        //
+        shares = sample(new PartitionPlan(job(3, true)),
+                "a", "b", "b", "b", "b", "b", "b", "c", "d").getPartitionShares();
+        assertArrayEquals(new double[]{3.0 / 9, 2.0 / 9, 4.0 / 9}, shares, 1e-9);
+    }
+
+    @Test
+    public void testUniqueDoesNotSplitHeavyKeys() throws IOException {
+        JobConf job = job(3, true);
+        new SortConfig(job).setUnique(true);
+        PartitionPlan plan = sample(new PartitionPlan(job),
+                "a", "b", "b", "b", "b", "b", "b", "c", "d");
+        assertArrayEquals(new int[]{1, 2}, plan.getBoundaries());
+    }
+
+    @Test
+    public void testPrintable() {
+        assertEquals("a\\x00\\x5cb", PartitionPlan.printable(new Text("a\u0000\\b")));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReducerEstimatorTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    public void testEstimateDistinct() {
+        // the whole input was sampled
+        assertEquals(10, ReducerEstimator.estimateDistinct(100, 10, 0, 100));
+
+        // every sampled key was repeated, so there are few distinct keys
+        assertEquals(10, ReducerEstimator.estimateDistinct(1000, 10, 0, 1000000));
+
+        // every sampled key was a singleton, so there are many distinct keys
+        assertEquals(1000 * 31, ReducerEstimator.estimateDistinct(1000, 1000, 1000, 961000));
+
+        // a mix of singletons and repeated keys
+        assertEquals(1414 + 50, ReducerEstimator.estimateDistinct(1100, 1050, 1000, 2200));
+
+        // never more distinct keys than records, even when the record count undershoots
+        assertEquals(1000, ReducerEstimator.estimateDistinct(1000, 1000, 1000, 1001));
+        assertEquals(900, ReducerEstimator.estimateDistinct(1000, 1000, 1000, 900));
+
+        assertEquals(0, ReducerEstimator.estimateDistinct(0, 0, 0, 0));
+    }
+
+    @Test
+    public void testChoose() {
+        assertEquals(1, ReducerEstimator.choose(0, 1.0, 0, GB, 100));
+        assertEquals(1, ReducerEstimator.choose(GB / 2, 1.0, 1000, GB, 100));
+        assertEquals(10, ReducerEstimator.choose(10 * GB, 1.0, 1000, GB, 100));
+        assertEquals(11, ReducerEstimator.choose(10 * GB + 1, 1.0, 1000, GB, 100));
+
+        // capped by the cluster and by the distinct keys
+        assertEquals(100, ReducerEstimator.choose(1000 * GB, 1.0, 1000, GB, 100));
+        assertEquals(3, ReducerEstimator.choose(10 * GB, 1.0, 3, GB, 100));
+
+        // unique sorts only ship the distinct lines
+        assertEquals(2, ReducerEstimator.choose(10 * GB, 0.2, 1000, GB, 100));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SkewTotalOrderPartitionerTest {
+
+    private static SkewTotalOrderPartitioner partitioner(String... points) {
+        byte[][] splitPoints = new byte[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            Text point = new Text(points[i]);
+            splitPoints[i] = Arrays.copyOf(point.getBytes(), point.getLength());
+        }
+        return new SkewTotalOrderPartitioner(splitPoints);
+    }
+
+    private static Set<Integer> partitions(SkewTotalOrderPartitioner partitioner, String key) {
+        Set<Integer> partitions = new HashSet<Integer>();
+        for (int i = 0; i < 12; i++) {
+            partitions.add(partitioner.getPartition(new Text(key), NullWritable.get(), 5));
+        }
+        return partitions;
+    }
+
+    @Test
+    public void testSingleSplitPoints() {
+        SkewTotalOrderPartitioner partitioner = partitioner("b", "d", "d", "f");
+        assertEquals(Collections.singleton(0), partitions(partitioner, "a"));
+        assertEquals(Collections.singleton(1), partitions(partitioner, "b"));
+        assertEquals(Collections.singleton(1), partitions(partitioner, "c"));
+        assertEquals(Collections.singleton(4), partitions(partitioner, "f"));
+        assertEquals(Collections.singleton(4), partitions(partitioner, "g"));
+    }
+
+    @Test
+    public void testRepeatedSplitPoints() {
+        SkewTotalOrderPartitioner partitioner = partitioner("b", "d", "d", "f");
+        Set<Integer> expected = new HashSet<Integer>();
+        expected.add(1);
+        expected.add(2);
+        expected.add(3);
+        assertEquals(expected, partitions(partitioner, "d"));
+        assertEquals(Collections.singleton(3), partitions(partitioner, "e"));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SortAvroKeyTest {
+
+    private static final Schema SCHEMA = Schema.parse("{\"type\": \"record\", \"name\": \"Event\","
+            + " \"fields\": [{\"name\": \"user\", \"type\": [\"null\", {\"type\": \"record\","
+            + " \"name\": \"User\", \"fields\": [{\"name\": \"id\", \"type\": \"long\"}]}]}]}");
+
+    @Test
+    public void testExtract() {
+        SortAvroKey sortKey = new SortAvroKey(SCHEMA, "user.id", false);
+        Schema.Field field = sortKey.getSchema().getField(SortAvroKey.FIELD_NAME);
+        assertEquals(Schema.Type.UNION, field.schema().getType());
+        assertEquals(Schema.Field.Order.ASCENDING, field.order());
+
+        GenericRecord user = new GenericData.Record(
+                SCHEMA.getField("user").schema().getTypes().get(1));
+        user.put("id", 5L);
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("user", user);
+        assertEquals(5L, sortKey.extract(record).get(SortAvroKey.FIELD_NAME));
+
+        // a null record along the path gives a null key, which sorts first
+        //
+        GenericRecord orphan = new GenericData.Record(SCHEMA);
+        GenericRecord nullKey = sortKey.extract(orphan);
+        assertNull(nullKey.get(SortAvroKey.FIELD_NAME));
+        assertTrue(GenericData.get().compare(nullKey, sortKey.extract(record),
+                sortKey.getSchema()) < 0);
+    }
+
+    @Test
+    public void testReverse() {
+        SortAvroKey sortKey = new SortAvroKey(SCHEMA, "user.id", true);
+        assertEquals(Schema.Field.Order.DESCENDING,
+                sortKey.getSchema().getField(SortAvroKey.FIELD_NAME).order());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingField() {
+        new SortAvroKey(SCHEMA, "user.name", false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotARecord() {
+        new SortAvroKey(SCHEMA, "user.id.value", false);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SortCaseFoldingComparatorTest {
+
+    private static final String[] LINES = {"", "a", "A", "B", "[", "`", "@", "z", "Z",
+            "abcdefgh", "ABCDEFGH", "abcdefghi", "ABCDEFGHI", "abcdefgH", "ABCDEFGh12",
+            "The Quick Brown Fox", "the quick brown fox jumps", "THE QUICK BROWN FOX",
+            "straße", "STRASSE", "École", "école", "ecole", "Ecole normale",
+            "cafÉ au lait", "CAFé AU LAIT", "İstanbul", "istanbul",
+            "abcdefghÉ", "ABCDEFGHéx", "ABCDEFGH"};
+
+    private static int signum(int n) {
+        return n < 0 ? -1 : (n > 0 ? 1 : 0);
+    }
+
+    private static Text fold(String line) {
+        Text key = new Text(line);
+        SortKeyExtractor.foldCase(key);
+        return key;
+    }
+
+    @Test
+    public void testMatchesLowerCasedKeys() {
+        SortCaseFoldingComparator comparator = new SortCaseFoldingComparator();
+        for (String a : LINES) {
+            for (String b : LINES) {
+                Text fa = fold(a);
+                Text fb = fold(b);
+                int expected = signum(WritableComparator.compareBytes(fa.getBytes(), 0,
+                        fa.getLength(), fb.getBytes(), 0, fb.getLength()));
+                assertEquals(a + " vs " + b, expected,
+                        signum(comparator.compare(new Text(a), new Text(b))));
+            }
+        }
+    }
+
+    @Test
+    public void testSerializedKeys() throws Exception {
+        SortCaseFoldingComparator comparator = new SortCaseFoldingComparator();
+        byte[] a = serialize(new Text("Hello, World!"));
+        byte[] b = serialize(new Text("hello, world"));
+        assertTrue(comparator.compare(a, 0, a.length, b, 0, b.length) > 0);
+        assertTrue(comparator.compare(b, 0, b.length, a, 0, a.length) < 0);
+        assertEquals(0, comparator.compare(a, 0, a.length, a, 0, a.length));
+    }
+
+    @Test
+    public void testFoldWord() {
+        // "AbzZz[@a"
+        assertEquals(0x61627a7a7a5b4061L, SortCaseFoldingComparator.foldWord(0x41627a5a7a5b4061L));
+        for (int b = 0; b < 0x80; b++) {
+            long word = b * 0x0101010101010101L;
+            int folded = b >= 'A' && b <= 'Z' ? b + 'a' - 'A' : b;
+            assertEquals(folded * 0x0101010101010101L, SortCaseFoldingComparator.foldWord(word));
+        }
+    }
+
+    @Test
+    public void testWordsMatchBytes() {
+        SortKeyComparator comparator = new SortKeyComparator();
+        for (String a : LINES) {
+            for (String b : LINES) {
+                Text ta = new Text(a);
+                Text tb = new Text(b);
+                assertEquals(a + " vs " + b,
+                        signum(WritableComparator.compareBytes(ta.getBytes(), 0,
+                                ta.getLength(), tb.getBytes(), 0, tb.getLength())),
+                        signum(comparator.compare(ta, tb)));
+            }
+        }
+    }
+
+    @Test
+    public void testPartitionerIgnoresCase() {
+        SortCaseFoldingPartitioner partitioner = new SortCaseFoldingPartitioner();
+        for (String line : LINES) {
+            Text key = fold(line);
+            assertEquals(line, WritableComparator.hashBytes(key.getBytes(), key.getLength()),
+                    partitioner.hash(new Text(line)));
+        }
+    }
+
+    private static byte[] serialize(Text text) throws Exception {
+        DataOutputBuffer out = new DataOutputBuffer();
+        text.write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, out.getLength());
+        return bytes;
+    }
+}
@@ -22,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -48,6 +49,95 @@ public class SortConfigTest {
         assertFalse(config.setUnique(false).getUnique());
     }
 
+    @Test
+    public void testUniqueCacheSize() throws IOException {
+        assertEquals(SortConfig.DEFAULT_UNIQUE_CACHE_SIZE, config.getUniqueCacheSize());
+        assertEquals(0, config.setUniqueCacheSize(0).getUniqueCacheSize());
+    }
+
+    @Test
+    public void testLocalSort() throws IOException {
+        assertEquals(0, config.getLocalThreshold());
+        assertEquals(1024, config.setLocalThreshold(1024).getLocalThreshold());
+        assertEquals(Runtime.getRuntime().availableProcessors(), config.getLocalThreads());
+        assertEquals(3, config.setLocalThreads(3).getLocalThreads());
+    }
+
+    @Test
+    public void testAutoReducers() throws IOException {
+        assertFalse(config.getAutoReducers());
+        assertTrue(config.setAutoReducers(true).getAutoReducers());
+        assertEquals(SortConfig.DEFAULT_BYTES_PER_REDUCER, config.getBytesPerReducer());
+        assertEquals(4096, config.setBytesPerReducer(4096).getBytesPerReducer());
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        assertFalse(config.getMerge());
+        assertTrue(config.setMerge(true).getMerge());
+        assertNull(config.getMergePartitionFile());
+        assertEquals("/tmp/points", config.setMergePartitionFile("/tmp/points")
+                .getMergePartitionFile());
+    }
+
+    @Test
+    public void testCheck() throws IOException {
+        assertFalse(config.getCheck());
+        assertTrue(config.setCheck(true).getCheck());
+    }
+
+    @Test
+    public void testTop() throws IOException {
+        assertEquals(0, config.getHead());
+        assertEquals(10, config.setHead(10).getHead());
+        assertEquals(0, config.getTail());
+        assertEquals(5, config.setTail(5).getTail());
+    }
+
+    @Test
+    public void testStable() throws IOException {
+        assertFalse(config.getStable());
+        assertTrue(config.setStable(true).getStable());
+        assertFalse(config.createKeyExtractor().isKeyWholeLine());
+    }
+
+    @Test
+    public void testCount() throws IOException {
+        assertFalse(config.getCount());
+        assertTrue(config.setCount(true).getCount());
+        assertEquals(SortConfig.DEFAULT_COUNT_CACHE_BYTES, config.getCountCacheBytes());
+        assertEquals(100, config.setCountCacheBytes(100).getCountCacheBytes());
+    }
+
+    @Test
+    public void testIndexedOutput() throws IOException {
+        assertEquals(0, config.getKeyIndexInterval());
+        assertEquals(SortIndexedOutputFormat.Layout.TEXT, config.getOutputLayout());
+        assertFalse(config.getIndexedOutput());
+        assertTrue(config.setKeyIndexInterval(64).getIndexedOutput());
+        config.setKeyIndexInterval(0).setOutputLayout(SortIndexedOutputFormat.Layout.MAP_FILE);
+        assertEquals(SortIndexedOutputFormat.Layout.MAP_FILE, config.getOutputLayout());
+        assertTrue(config.getIndexedOutput());
+    }
+
+    @Test
+    public void testCombineSplitBytes() throws IOException {
+        assertEquals(4096, config.getCombineSplitBytes(4096));
+        assertEquals(0, config.setCombineSplitBytes(0).getCombineSplitBytes(4096));
+    }
+
+    @Test
+    public void testSequenceFile() throws IOException {
+        assertFalse(config.getSequenceFile());
+        assertTrue(config.setSequenceFile(true).getSequenceFile());
+    }
+
+    @Test
+    public void testAvroKey() throws IOException {
+        assertNull(config.getAvroKey());
+        assertEquals("user.id", config.setAvroKey("user.id").getAvroKey());
+    }
+
     @Test
     public void testStartKey() throws IOException {
         assertNull(config.getStartKey());
@@ -65,4 +155,49 @@ public class SortConfigTest {
         assertEquals(" ", config.getFieldSeparator(" "));
         assertEquals("-", config.setFieldSeparator("-").getFieldSeparator(" "));
     }
+
+    @Test
+    public void testIgnoreLeadingBlanks() throws IOException {
+        assertFalse(config.getIgnoreLeadingBlanks());
+        assertTrue(config.setIgnoreLeadingBlanks(true).getIgnoreLeadingBlanks());
+    }
+
+    @Test
+    public void testKeySpecs() throws IOException {
+        assertTrue(config.getKeySpecs().isEmpty());
+        assertEquals(Arrays.asList(SortKeySpec.parse("3")),
+                config.setStartKey(3).getKeySpecs());
+        assertEquals(Arrays.asList(SortKeySpec.parse("2,2f"), SortKeySpec.parse("1.2,1.4")),
+                config.setKeySpecs(Arrays.asList(SortKeySpec.parse("2,2f"),
+                        SortKeySpec.parse("1.2,1.4"))).getKeySpecs());
+    }
+
+    @Test
+    public void testGlobalModifiers() throws IOException {
+        config.setIgnoreCase(true);
+        config.setKeySpecs(Arrays.asList(SortKeySpec.parse("1,1"), SortKeySpec.parse("2,2b")));
+        assertEquals(Arrays.asList(SortKeySpec.parse("1,1f"), SortKeySpec.parse("2,2b")),
+                config.createKeyExtractor().getKeys());
+    }
+
+    @Test
+    public void testKeyIsWholeLine() throws IOException {
+        assertFalse(config.getKeyIsLine());
+        assertTrue(config.createKeyExtractor().isKeyWholeLine());
+        assertFalse(config.setIgnoreCase(true).createKeyExtractor().isKeyWholeLine());
+        config.setIgnoreCase(false).setKeySpecs(Arrays.asList(SortKeySpec.parse("1")));
+        assertFalse(config.createKeyExtractor().isKeyWholeLine());
+    }
+
+    @Test
+    public void testComparatorFoldsCase() throws IOException {
+        assertFalse(config.canFoldCaseInComparator());
+        assertTrue(config.setIgnoreCase(true).canFoldCaseInComparator());
+        assertFalse(config.getComparatorFoldsCase());
+        assertTrue(config.setComparatorFoldsCase(true).getComparatorFoldsCase());
+        assertTrue(config.createKeyExtractor().isKeyWholeLine());
+        assertFalse(config.setReverse(true).canFoldCaseInComparator());
+        config.setReverse(false).setKeySpecs(Arrays.asList(SortKeySpec.parse("1")));
+        assertFalse(config.canFoldCaseInComparator());
+    }
 }
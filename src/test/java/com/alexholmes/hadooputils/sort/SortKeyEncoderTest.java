@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SortKeyEncoderTest {
+
+    @Test
+    public void testNumeric() throws IOException {
+        assertOrdered("1n", "-1000", "-2.5", "-0", "0.5", "2", "10", "10.01", "1000");
+        assertEquals(0, compare("1n", "0", "-0"));
+        assertEquals(0, compare("1n", "abc", "0"));
+        assertEquals(0, compare("1n", "1e3", "1"));
+        assertEquals(8, key("1n", "12345").getLength());
+    }
+
+    @Test
+    public void testGeneralNumeric() throws IOException {
+        assertOrdered("1g", "abc", "nan", "-inf", "-1e10", "-1", "0", "1e-3", "2", "1.5e3", "inf");
+    }
+
+    @Test
+    public void testHumanNumeric() throws IOException {
+        assertOrdered("1h", "-1G", "-2K", "-1", "0", "999", "1K", "1500K", "1M", "1.5M", "1G");
+    }
+
+    @Test
+    public void testMonth() throws IOException {
+        assertOrdered("1M", "foo", "jan", "FEB", "Mar", "dec");
+    }
+
+    @Test
+    public void testReverse() throws IOException {
+        assertOrdered("1r", "b", "ab", "a");
+        assertOrdered("1nr", "10", "2", "-1");
+    }
+
+    @Test
+    public void testMixedKeys() throws IOException {
+        assertOrdered(new String[]{"2,2n", "1,1r"}, "b 1", "a 1", "c 2", "b 10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleModifiers() {
+        new SortKeyExtractor(Arrays.asList(SortKeySpec.parse("1,1ng")), " ");
+    }
+
+    @Test
+    public void testRawComparator() throws IOException {
+        SortKeyComparator comparator = new SortKeyComparator();
+        Text a = key("1n", "2");
+        Text b = key("1n", "10");
+        assertTrue(comparator.compare(a, b) < 0);
+
+        DataOutputBuffer buf1 = new DataOutputBuffer();
+        a.write(buf1);
+        DataOutputBuffer buf2 = new DataOutputBuffer();
+        b.write(buf2);
+        assertTrue(comparator.compare(buf1.getData(), 0, buf1.getLength(),
+                buf2.getData(), 0, buf2.getLength()) < 0);
+        assertEquals(0, comparator.compare(buf1.getData(), 0, buf1.getLength(),
+                buf1.getData(), 0, buf1.getLength()));
+    }
+
+    private static void assertOrdered(String spec, String... lines) throws IOException {
+        assertOrdered(new String[]{spec}, lines);
+    }
+
+    private static void assertOrdered(String[] specs, String... lines) throws IOException {
+        for (int i = 0; i < lines.length - 1; i++) {
+            assertTrue(lines[i] + " should sort before " + lines[i + 1],
+                    key(specs, lines[i]).compareTo(key(specs, lines[i + 1])) < 0);
+        }
+    }
+
+    private static int compare(String spec, String a, String b) throws IOException {
+        return key(spec, a).compareTo(key(spec, b));
+    }
+
+    private static Text key(String spec, String line) throws IOException {
+        return key(new String[]{spec}, line);
+    }
+
+    private static Text key(String[] specs, String line) throws IOException {
+        SortKeySpec[] keys = new SortKeySpec[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            keys[i] = SortKeySpec.parse(specs[i]);
+        }
+        Text key = new Text();
+        new SortKeyExtractor(Arrays.asList(keys), " ").extract(new Text(line), key);
+        return key;
+    }
+}
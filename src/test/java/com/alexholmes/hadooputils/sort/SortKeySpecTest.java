@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SortKeySpecTest {
+
+    @Test
+    public void testParse() {
+        SortKeySpec spec = SortKeySpec.parse("3.4,3.9");
+        assertEquals(3, spec.getStartField());
+        assertEquals(4, spec.getStartChar());
+        assertEquals(3, spec.getEndField());
+        assertEquals(9, spec.getEndChar());
+        assertEquals("", spec.getModifiers());
+
+        spec = SortKeySpec.parse("2");
+        assertEquals(2, spec.getStartField());
+        assertEquals(0, spec.getEndField());
+    }
+
+    @Test
+    public void testParseModifiers() {
+        assertEquals("bf", SortKeySpec.parse("1f,2b").getModifiers());
+        assertEquals("f", SortKeySpec.parse("1ff").getModifiers());
+        assertTrue(SortKeySpec.parse("1,1r").hasModifier(SortKeySpec.REVERSE));
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("3.4,3.9", SortKeySpec.parse("3.4,3.9").toString());
+        assertEquals("2,2bf", SortKeySpec.parse("2f,2b").toString());
+        assertEquals("1", SortKeySpec.parse("1").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroField() {
+        SortKeySpec.parse("0,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownModifier() {
+        SortKeySpec.parse("1,1z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyPositions() {
+        SortKeySpec.parse("1,2,3");
+    }
+
+    @Test
+    public void testWithDefaults() {
+        assertEquals("f", SortKeySpec.parse("1,1").withDefaults("f").getModifiers());
+        assertEquals("b", SortKeySpec.parse("1,1b").withDefaults("f").getModifiers());
+    }
+
+    @Test
+    public void testCharacterPositions() throws IOException {
+        assertEquals("3456", extract("abc 123456789 def", " ", "2.3,2.6"));
+        assertEquals("3456789 def", extract("abc 123456789 def", " ", "2.3"));
+        assertEquals("\u00e9f", extract("\u00e0b\u00e9f", " ", "1.3"));
+        assertEquals("bc", extract("a,  bc", ",", "2b,2"));
+        assertEquals("c", extract("a,  bc", ",", "2.2b,2"));
+        assertEquals(" bc", extract("a,  bc", ",", "2.2,2"));
+    }
+
+    @Test
+    public void testMultipleKeys() throws IOException {
+        Text a = extractText("b x", " ", "2,2", "1,1");
+        Text b = extractText("a x", " ", "2,2", "1,1");
+        Text c = extractText("c w", " ", "2,2", "1,1");
+        assertTrue(c.compareTo(a) < 0);
+        assertTrue(b.compareTo(a) < 0);
+        assertTrue(c.compareTo(b) < 0);
+    }
+
+    @Test
+    public void testMultipleKeysWithPrefix() throws IOException {
+        Text shorter = extractText("a z", " ", "1,1", "2,2");
+        Text longer = extractText("ab a", " ", "1,1", "2,2");
+        assertTrue(shorter.compareTo(longer) < 0);
+    }
+
+    @Test
+    public void testMultipleKeysEscapesZeroBytes() throws IOException {
+        Text zero = extractText("a\u0000 b", " ", "1,1", "2,2");
+        Text plain = extractText("a z", " ", "1,1", "2,2");
+        assertTrue(plain.compareTo(zero) < 0);
+    }
+
+    private static String extract(String line, String separator, String... specs)
+            throws IOException {
+        return extractText(line, separator, specs).toString();
+    }
+
+    private static Text extractText(String line, String separator, String... specs)
+            throws IOException {
+        SortKeySpec[] keys = new SortKeySpec[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            keys[i] = SortKeySpec.parse(specs[i]);
+        }
+        Text key = new Text();
+        new SortKeyExtractor(Arrays.asList(keys), separator).extract(new Text(line), key);
+        return key;
+    }
+}
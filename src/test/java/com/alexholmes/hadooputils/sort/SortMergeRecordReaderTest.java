@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alexholmes.hadooputils.sort;
+
+import com.alexholmes.hadooputils.TestBase;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SortMergeRecordReaderTest extends TestBase {
+
+    @Test
+    public void testMerge() throws IOException {
+        JobConf job = new JobConf();
+        String[] files = {
+                write(job, "a", "aa", "c", "e", "g"),
+                write(job, "b", "c", "d", "h"),
+                write(job)
+        };
+        assertEquals(Arrays.asList("a", "aa", "b", "c", "c", "d", "e", "g", "h"),
+                merge(job, null, null, files));
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        JobConf job = new JobConf();
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(String.format("%04d", i));
+        }
+        String[] files = {
+                write(job, lines.subList(0, 500).toArray(new String[500])),
+                write(job, lines.subList(250, 1000).toArray(new String[750]))
+        };
+
+        List<String> range = merge(job, "0300", "0302", files);
+        assertEquals(Arrays.asList("0300", "0300", "0301", "0301"), range);
+
+        assertEquals(Arrays.asList("0998", "0999"), merge(job, "0998", null, files));
+        assertEquals(Arrays.asList("0000"), merge(job, null, "0001", files));
+        assertEquals(new ArrayList<String>(), merge(job, "1000", null, files));
+        assertEquals(1250, merge(job, null, null, files).size());
+    }
+
+    @Test
+    public void testUnique() throws IOException {
+        JobConf job = new JobConf();
+        new SortConfig(job).setStartKey(2).setUnique(true);
+        String[] files = {
+                write(job, "x 1", "x 2", "x 3"),
+                write(job, "y 1", "y 3")
+        };
+        assertEquals(Arrays.asList("x 1", "x 2", "x 3"), merge(job, null, null, files));
+        assertEquals(Arrays.asList("x 3"), merge(job, "z 3", null, files));
+    }
+
+    private static int fileCount;
+
+    private static String write(JobConf job, String... lines) throws IOException {
+        Path path = new Path(TEST_ROOT_DIR.getAbsolutePath(), "part-" + fileCount++);
+        FileSystem fs = path.getFileSystem(job);
+        DataOutputStream out = fs.create(path);
+        for (String line : lines) {
+            out.write((line + "\n").getBytes("UTF-8"));
+        }
+        out.close();
+        return path.toString();
+    }
+
+    private static List<String> merge(JobConf job, String lower, String upper, String[] files)
+            throws IOException {
+        SortMergeRecordReader reader = new SortMergeRecordReader(job,
+                new SortMergeInputFormat.MergeSplit(0, 1, key(job, lower), key(job, upper),
+                        files));
+        List<String> lines = new ArrayList<String>();
+        Text line = reader.createKey();
+        while (reader.next(line, NullWritable.get())) {
+            lines.add(line.toString());
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static Text key(JobConf job, String bound) throws IOException {
+        if (bound == null) {
+            return null;
+        }
+        Text key = new Text();
+        new SortConfig(job).createKeyExtractor().extract(new Text(bound), key);
+        return key;
+    }
+}
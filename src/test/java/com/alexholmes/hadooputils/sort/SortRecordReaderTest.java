@@ -16,12 +16,20 @@
 
 package com.alexholmes.hadooputils.sort;
 
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class SortRecordReaderTest {
 
@@ -164,4 +172,134 @@ public class SortRecordReaderTest {
                 true // ignore case
         ).toString());
     }
+
+    @Test
+    public void testDefaultSeparatorIsWhitespace() throws IOException {
+        assertEquals("def\tfeg", SortRecordReader.extractKey(new Text("  asd \t def\tfeg"),
+                2, // start key
+                null, // end key
+                null, // separator
+                false // ignore case
+        ).toString());
+    }
+
+    @Test
+    public void testAdjacentSeparators() throws IOException {
+        assertEquals("def", SortRecordReader.extractKey(new Text("~asd~~def~"),
+                2, // start key
+                2, // end key
+                "~", // separator
+                false // ignore case
+        ).toString());
+    }
+
+    @Test
+    public void testMultiByteCharacters() throws IOException {
+        assertEquals("d\u00e9f", SortRecordReader.extractKey(new Text("\u00e0sd\u00b7d\u00e9f"),
+                2, // start key
+                2, // end key
+                "\u00b7", // separator
+                false // ignore case
+        ).toString());
+    }
+
+    @Test
+    public void testIgnoreCaseNonAscii() throws IOException {
+        assertEquals("\u00e0bc", SortRecordReader.extractKey(new Text("\u00c0BC"),
+                null, // start key
+                null, // end key
+                null, // separator
+                true // ignore case
+        ).toString());
+    }
+
+    @Test
+    public void testStableSuffix() throws IOException {
+        JobConf job = new JobConf();
+        new SortConfig(job).setStable(true);
+        SortRecordReader reader = new SortRecordReader(job,
+                new ListRecordReader(Arrays.asList("ab", "a", "a")), 3);
+        Text ab = reader.createKey();
+        Text a1 = reader.createKey();
+        Text a2 = reader.createKey();
+        Text value = reader.createValue();
+        assertTrue(reader.next(ab, value));
+        assertTrue(reader.next(a1, value));
+        assertTrue(reader.next(a2, value));
+        assertFalse(reader.next(a2, value));
+
+        // the key is terminated, then followed by the file index and the line offset
+        //
+        assertEquals(1 + 2 + SortRecordReader.STABLE_SUFFIX_BYTES, a2.getLength());
+        assertEquals(3, a2.getBytes()[6]);
+        assertEquals(2, a2.getBytes()[a2.getLength() - 1]);
+
+        SortKeyComparator comparator = new SortKeyComparator();
+        assertTrue(comparator.compare(a1, a2) < 0);
+        assertTrue(comparator.compare(a2, ab) < 0);
+
+        SortStableGroupingComparator grouping = new SortStableGroupingComparator();
+        assertEquals(0, grouping.compare(a1, a2));
+        assertTrue(grouping.compare(a2, ab) < 0);
+
+        SortStablePartitioner partitioner = new SortStablePartitioner();
+        assertEquals(partitioner.getPartition(a1, value, 7),
+                partitioner.getPartition(a2, value, 7));
+    }
+
+    /**
+     * Returns lines from a list, with the index of each line as its offset.
+     */
+    private static class ListRecordReader implements RecordReader<LongWritable, Text> {
+        private final Iterator<String> lines;
+        private long pos;
+
+        ListRecordReader(List<String> lines) {
+            this.lines = lines.iterator();
+        }
+
+        @Override
+        public boolean next(LongWritable key, Text value) {
+            if (!lines.hasNext()) {
+                return false;
+            }
+            key.set(pos++);
+            value.set(lines.next());
+            return true;
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return new LongWritable();
+        }
+
+        @Override
+        public Text createValue() {
+            return new Text();
+        }
+
+        @Override
+        public long getPos() {
+            return pos;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testExtractorReusesKey() throws IOException {
+        SortKeyExtractor extractor = new SortKeyExtractor(2, 2, " ", false);
+        Text key = new Text();
+        extractor.extract(new Text("aaa bbbbbb ccc"), key);
+        assertEquals("bbbbbb", key.toString());
+        extractor.extract(new Text("aaa bb ccc"), key);
+        assertEquals("bb", key.toString());
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Alex Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.alexholmes.hadooputils.sort;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SortReportTest {
+
+    @Test
+    public void testReducerBytes() {
+        SortReport report = new SortReport()
+                .setReducerBytes(new double[]{0.5, 0.25, 0.25}, new long[]{100, 200, 100});
+        assertArrayEquals(new long[]{200, 100, 100}, report.getPredictedBytes());
+        assertArrayEquals(new long[]{100, 200, 100}, report.getActualBytes());
+        assertEquals(1.5, report.getSkew(), 1e-9);
+
+        // without total order every reducer is expected to get an equal share
+        //
+        report.setReducerBytes(null, new long[]{30, 10});
+        assertArrayEquals(new long[]{20, 20}, report.getPredictedBytes());
+        assertEquals(1.5, report.getSkew(), 1e-9);
+
+        assertEquals(0, new SortReport().setReducerBytes(null, new long[]{0, 0}).getSkew(),
+                1e-9);
+    }
+
+    @Test
+    public void testKeyLengthBuckets() {
+        assertEquals(0, SortKeyStats.getBucket(0));
+        assertEquals(0, SortKeyStats.getBucket(1));
+        assertEquals(1, SortKeyStats.getBucket(2));
+        assertEquals(2, SortKeyStats.getBucket(3));
+        assertEquals(2, SortKeyStats.getBucket(4));
+        assertEquals(3, SortKeyStats.getBucket(5));
+        assertEquals(31, SortKeyStats.getBucket(Integer.MAX_VALUE));
+    }
+}
@@ -19,11 +19,40 @@ package com.alexholmes.hadooputils.sort;
 import com.alexholmes.hadooputils.TestBase;
 import com.alexholmes.hadooputils.test.TextIOJobBuilder;
 import com.alexholmes.hadooputils.test.TextIOLocalJobBuilder;
+import com.alexholmes.hadooputils.util.AvroFiles;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.FsInput;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.lib.InputSampler;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
 import org.junit.Test;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SortTest extends TestBase {
@@ -98,6 +127,31 @@ public class SortTest extends TestBase {
         run(new SortConfig(builder.getFs().getConf()).setIgnoreCase(true), builder);
     }
 
+    @Test
+    public void runIgnoreCaseInComparator() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("The Quick Brown Fox")
+                .addInput("the quick brown cat")
+                .addInput("École")
+                .addInput("ecole")
+                .addInput("APPLE")
+                .addInput("apple pie")
+                .addExpectedOutput("APPLE")
+                .addExpectedOutput("apple pie")
+                .addExpectedOutput("ecole")
+                .addExpectedOutput("the quick brown cat")
+                .addExpectedOutput("The Quick Brown Fox")
+                .addExpectedOutput("École")
+                .writeInputs();
+
+        SortConfig sortConfig = new SortConfig(builder.getFs().getConf()).setIgnoreCase(true);
+        JobConf jobConf = new JobConf(sortConfig.getConfig());
+        run(jobConf, builder);
+        assertTrue(new SortConfig(jobConf).getComparatorFoldsCase());
+        assertTrue(new SortConfig(jobConf).getKeyIsLine());
+    }
+
     @Test
     public void runNonUnique() throws Exception {
 
@@ -123,6 +177,269 @@ public class SortTest extends TestBase {
         run(new SortConfig(builder.getFs().getConf()).setUnique(true), builder);
     }
 
+    @Test
+    public void runUniqueKey() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 2")
+                .addInput("b 1")
+                .addInput("c 2")
+                .addInput("d 1")
+                .addExpectedOutput("b 1")
+                .addExpectedOutput("a 2")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setStartKey(2).setUnique(true), builder);
+    }
+
+    @Test
+    public void runLocal() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b 10")
+                .addInput("a 2")
+                .addInput("a 2")
+                .addInput("d 1")
+                .addExpectedOutput("d 1")
+                .addExpectedOutput("a 2")
+                .addExpectedOutput("b 10")
+                .writeInputs();
+
+        JobConf jobConf = new JobConf(builder.getFs().getConf());
+        new SortConfig(jobConf).setKeySpecs(Arrays.asList(SortKeySpec.parse("2,2n")))
+                .setUnique(true).setLocalThreshold(Long.MAX_VALUE);
+
+        Sort sort = new Sort();
+        assertTrue(sort.runJob(jobConf, 1, 1, null, null, null, false,
+                builder.getInputPath().toUri().getPath(),
+                builder.getOutputPath().toUri().getPath()));
+        assertNull(sort.getResult());
+
+        builder.verifyResults();
+
+        // the output is described in the same way as a job's
+        //
+        SortManifest manifest = SortManifest.read(jobConf, builder.getOutputPath());
+        assertEquals(1, manifest.getParts().size());
+        assertEquals(LocalSortEngine.PART_FILE, manifest.getParts().get(0).getName());
+        assertEquals(3, manifest.getParts().get(0).getRecords());
+        assertNotNull(sort.getReport());
+        assertNotNull(SortReport.read(jobConf, builder.getOutputPath()).getPhases()
+                .get(SortReport.JOB));
+    }
+
+    @Test
+    public void runMerge() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 1")
+                .addInput("c 3")
+                .addInput("e 3")
+                .addExpectedOutput("a 1")
+                .addExpectedOutput("b 2")
+                .addExpectedOutput("c 3")
+                .addExpectedOutput("e 3")
+                .addExpectedOutput("d 3")
+                .writeInputs();
+
+        DataOutputStream out = builder.getFs().create(
+                new Path(builder.getInputPath(), "part-1"));
+        out.write("b 2\nd 3\n".getBytes("UTF-8"));
+        out.close();
+
+        run(new SortConfig(new JobConf(builder.getFs().getConf())).setStartKey(2).setMerge(true),
+                builder);
+    }
+
+    @Test
+    public void runMergeRanges() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 1")
+                .addInput("c 3")
+                .addInput("e 5")
+                .addInput("g 7")
+                .addExpectedOutput("a 1")
+                .addExpectedOutput("b 2")
+                .addExpectedOutput("c 3")
+                .addExpectedOutput("d 4")
+                .addExpectedOutput("e 5")
+                .addExpectedOutput("f 6")
+                .addExpectedOutput("g 7")
+                .addExpectedOutput("h 8")
+                .writeInputs();
+
+        DataOutputStream out = builder.getFs().create(
+                new Path(builder.getInputPath(), "part-1"));
+        out.write("b 2\nd 4\nf 6\nh 8\n".getBytes("UTF-8"));
+        out.close();
+
+        // the output files are named after their key ranges, so they're read back in order
+        //
+        JobConf jobConf = new JobConf(builder.getFs().getConf());
+        new SortConfig(jobConf).setStartKey(2).setMerge(true);
+        run(jobConf, builder, 1, 3, new InputSampler.RandomSampler(1.0, 100, 10));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(builder.getFs().exists(new Path(builder.getOutputPath(),
+                    String.format("part-%05d", i))));
+        }
+    }
+
+    @Test
+    public void runCheck() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 1")
+                .addInput("b 2")
+                .writeInputs();
+
+        DataOutputStream out = builder.getFs().create(
+                new Path(builder.getInputPath(), "part-1"));
+        out.write("c 1\nd 2\n".getBytes("UTF-8"));
+        out.close();
+
+        Sort sort = new Sort();
+        String input = builder.getInputPath().toUri().getPath();
+        assertTrue(sort.runCheck(new JobConf(builder.getFs().getConf()), input));
+        assertNull(sort.getDisorder());
+
+        // the last line of part-1 is after the first line of part-2, which is reported
+        // rather than the later disorder within part-3
+        //
+        out = builder.getFs().create(new Path(builder.getInputPath(), "part-2"));
+        out.write("c 0\n".getBytes("UTF-8"));
+        out.close();
+        out = builder.getFs().create(new Path(builder.getInputPath(), "part-3"));
+        out.write("z 1\ny 1\n".getBytes("UTF-8"));
+        out.close();
+
+        assertFalse(sort.runCheck(new JobConf(builder.getFs().getConf()), input));
+        assertTrue(sort.getDisorder(), sort.getDisorder().endsWith("part-2:1: disorder: c 0"));
+
+        // the configured key is used, so on the second field the first violation is at the
+        // boundary between part-0 and part-1
+        //
+        JobConf jobConf = new JobConf(builder.getFs().getConf());
+        new SortConfig(jobConf).setStartKey(2);
+        assertFalse(sort.runCheck(jobConf, input));
+        assertTrue(sort.getDisorder(), sort.getDisorder().endsWith("part-1:1: disorder: c 1"));
+    }
+
+    @Test
+    public void runHead() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("d")
+                .addInput("b")
+                .addInput("e")
+                .addInput("b")
+                .addInput("a")
+                .addInput("c")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .addExpectedOutput("c")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setHead(3).setUnique(true), builder);
+    }
+
+    @Test
+    public void runTail() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("d 4")
+                .addInput("b 2")
+                .addInput("e 5")
+                .addInput("a 1")
+                .addInput("c 3")
+                .addExpectedOutput("d 4")
+                .addExpectedOutput("e 5")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setStartKey(2).setTail(2), builder);
+    }
+
+    @Test
+    public void runStable() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b 2")
+                .addInput("a 1")
+                .addInput("b 1")
+                .addInput("a 2")
+                .addExpectedOutput("a 1")
+                .addExpectedOutput("a 2")
+                .addExpectedOutput("b 2")
+                .addExpectedOutput("b 1")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setStartKey(1).setEndKey(1)
+                .setStable(true), builder);
+    }
+
+    @Test
+    public void runStableUnique() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b 2")
+                .addInput("a 1")
+                .addInput("b 1")
+                .addInput("a 2")
+                .addExpectedOutput("a 1")
+                .addExpectedOutput("b 2")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setStartKey(1).setEndKey(1)
+                .setStable(true).setUnique(true), builder);
+    }
+
+    @Test
+    public void runCount() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b")
+                .addInput("a")
+                .addInput("b")
+                .addInput("c")
+                .addInput("b")
+                .addExpectedOutput("      1 a")
+                .addExpectedOutput("      3 b")
+                .addExpectedOutput("      1 c")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setCount(true), builder);
+    }
+
+    @Test
+    public void runCountWithoutMapCache() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("x 2")
+                .addInput("y 1")
+                .addInput("z 2")
+                .addExpectedOutput("      1 y 1")
+                .addExpectedOutput("      2 x 2")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setStartKey(2).setCount(true)
+                .setCountCacheBytes(0), builder);
+    }
+
+    @Test
+    public void runUniqueWithoutMapCache() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("foobar")
+                .addInput("abc")
+                .addInput("foobar")
+                .addExpectedOutput("abc")
+                .addExpectedOutput("foobar")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setUnique(true).setUniqueCacheSize(0),
+                builder);
+    }
+
     @Test
     public void runStartScenario1() throws Exception {
 
@@ -200,4 +517,294 @@ public class SortTest extends TestBase {
 
         run(new SortConfig(builder.getFs().getConf()).setStartKey(2).setEndKey(2).setFieldSeparator("-"), builder);
     }
+
+    @Test
+    public void runMultipleKeys() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("b x")
+                .addInput("a x")
+                .addInput("c w")
+                .addExpectedOutput("c w")
+                .addExpectedOutput("a x")
+                .addExpectedOutput("b x")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setKeySpecs(
+                Arrays.asList(SortKeySpec.parse("2,2"), SortKeySpec.parse("1,1"))), builder);
+    }
+
+    @Test
+    public void runNumericReverse() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 9")
+                .addInput("b 10")
+                .addInput("c -2.5")
+                .addInput("d 100")
+                .addExpectedOutput("d 100")
+                .addExpectedOutput("b 10")
+                .addExpectedOutput("a 9")
+                .addExpectedOutput("c -2.5")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf())
+                .setKeySpecs(Arrays.asList(SortKeySpec.parse("2,2"))).setNumeric(true)
+                .setReverse(true), builder);
+    }
+
+    @Test
+    public void runKeyIndex() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("e")
+                .addInput("d")
+                .addInput("c")
+                .addInput("b")
+                .addInput("a")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .addExpectedOutput("c")
+                .addExpectedOutput("d")
+                .addExpectedOutput("e")
+                .writeInputs();
+
+        run(new SortConfig(builder.getFs().getConf()).setKeyIndexInterval(2), builder);
+
+        Path part = new Path(builder.getOutputPath(), "part-00000");
+        SequenceFile.Reader index = new SequenceFile.Reader(builder.getFs(),
+                SortIndexedOutputFormat.getKeyIndexPath(part), builder.getFs().getConf());
+        Text key = new Text();
+        LongWritable offset = new LongWritable();
+        for (String[] entry : new String[][]{{"a", "0"}, {"c", "4"}, {"e", "8"}}) {
+            assertTrue(index.next(key, offset));
+            assertEquals(entry[0], key.toString());
+            assertEquals(Long.parseLong(entry[1]), offset.get());
+        }
+        assertFalse(index.next(key, offset));
+        index.close();
+
+        DynamicBloomFilter bloomFilter = new DynamicBloomFilter();
+        FSDataInputStream in = builder.getFs().open(
+                SortIndexedOutputFormat.getBloomFilterPath(part));
+        bloomFilter.readFields(in);
+        in.close();
+        for (String line : new String[]{"a", "b", "c", "d", "e"}) {
+            assertTrue(bloomFilter.membershipTest(new Key(line.getBytes("UTF-8"))));
+        }
+    }
+
+    @Test
+    public void runManifest() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("c")
+                .addInput("a")
+                .addInput("b")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .addExpectedOutput("c")
+                .writeInputs();
+
+        run(builder);
+
+        JobConf jobConf = new JobConf(builder.getFs().getConf());
+        SortManifest manifest = SortManifest.read(jobConf, builder.getOutputPath());
+        assertEquals(1, manifest.getParts().size());
+        SortManifest.Part part = manifest.getParts().get(0);
+        assertEquals("part-00000", part.getName());
+        assertEquals(3, part.getRecords());
+        assertEquals(6, part.getBytes());
+        assertNull(part.getCodec());
+        assertEquals(new Text("a"), part.getFirstKey());
+        assertEquals(new Text("c"), part.getLastKey());
+        assertFalse(builder.getFs().exists(
+                SortManifest.getStatsPath(builder.getOutputPath(), "part-00000")));
+    }
+
+    @Test
+    public void runCombined() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("e")
+                .addInput("a")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .addExpectedOutput("c")
+                .addExpectedOutput("d")
+                .addExpectedOutput("e")
+                .addExpectedOutput("f")
+                .writeInputs();
+
+        DataOutputStream out = builder.getFs().create(
+                new Path(builder.getInputPath(), "part-1"));
+        out.write("d\nb\n".getBytes("UTF-8"));
+        out.close();
+
+        OutputStream gzipOut = ReflectionUtils.newInstance(GzipCodec.class,
+                builder.getFs().getConf()).createOutputStream(builder.getFs().create(
+                new Path(builder.getInputPath(), "part-2.gz")));
+        gzipOut.write("f\nc\n".getBytes("UTF-8"));
+        gzipOut.close();
+
+        JobConf jobConf = new JobConf(new SortConfig(builder.getFs().getConf())
+                .setCombineSplitBytes(1024 * 1024).getConfig());
+        run(jobConf, builder);
+        assertTrue(jobConf.getInputFormat() instanceof SortCombineInputFormat);
+    }
+
+    @Test
+    public void runSequenceFile() throws Exception {
+        runSequenceFile(null, null);
+    }
+
+    @Test
+    public void runSequenceFileCompressed() throws Exception {
+        runSequenceFile(DefaultCodec.class, null);
+    }
+
+    @Test
+    public void runSequenceFileTotalOrder() throws Exception {
+        runSequenceFile(null, new InputSampler.RandomSampler(1.0, 100, 10));
+    }
+
+    private void runSequenceFile(Class<? extends CompressionCodec> codec,
+                                 InputSampler.Sampler sampler) throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR);
+        builder.getFs().delete(builder.getInputPath(), true);
+        builder.getFs().delete(builder.getOutputPath(), true);
+
+        // negative keys sort after positive ones by their bytes, so they're only in order
+        // if the IntWritable comparator is used
+        //
+        int[][] inputs = {{3, -7, 12}, {0, -1}};
+        for (int i = 0; i < inputs.length; i++) {
+            SequenceFile.Writer writer = SequenceFile.createWriter(builder.getFs(),
+                    builder.getFs().getConf(), new Path(builder.getInputPath(), "part-" + i),
+                    IntWritable.class, Text.class);
+            for (int key : inputs[i]) {
+                writer.append(new IntWritable(key), new Text("v" + key));
+            }
+            writer.close();
+        }
+
+        Sort sort = new Sort();
+        assertTrue(sort.runJob(
+                new JobConf(new SortConfig(builder.getFs().getConf())
+                        .setSequenceFile(true).setReverse(true).getConfig()),
+                1, 1, sampler, codec, null, false,
+                builder.getInputPath().toUri().getPath(),
+                builder.getOutputPath().toUri().getPath()));
+
+        // the partition file is removed once the job has run
+        //
+        assertFalse(builder.getFs().exists(
+                new Path(builder.getInputPath(), "_sortPartitioning")));
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(builder.getFs(),
+                new Path(builder.getOutputPath(), "part-00000"), builder.getFs().getConf());
+        assertEquals(IntWritable.class, reader.getKeyClass());
+        assertEquals(Text.class, reader.getValueClass());
+        assertEquals(codec != null, reader.isBlockCompressed());
+        IntWritable key = new IntWritable();
+        Text value = new Text();
+        for (int expected : new int[]{12, 3, 0, -1, -7}) {
+            assertTrue(reader.next(key, value));
+            assertEquals(expected, key.get());
+            assertEquals("v" + expected, value.toString());
+        }
+        assertFalse(reader.next(key, value));
+        reader.close();
+    }
+
+    @Test
+    public void runAvro() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR);
+        builder.getFs().delete(builder.getInputPath(), true);
+        builder.getFs().delete(builder.getOutputPath(), true);
+        builder.getFs().mkdirs(builder.getInputPath());
+
+        Schema schema = Schema.parse("{\"type\": \"record\", \"name\": \"Event\", \"fields\": ["
+                + "{\"name\": \"action\", \"type\": \"string\"},"
+                + "{\"name\": \"user\", \"type\": {\"type\": \"record\", \"name\": \"User\","
+                + " \"fields\": [{\"name\": \"id\", \"type\": \"long\"}]}}]}");
+        long[][] inputs = {{3, 1}, {2, 1}};
+        for (int i = 0; i < inputs.length; i++) {
+            GenericRecord[] records = new GenericRecord[inputs[i].length];
+            for (int j = 0; j < records.length; j++) {
+                GenericRecord user = new GenericData.Record(schema.getField("user").schema());
+                user.put("id", inputs[i][j]);
+                records[j] = new GenericData.Record(schema);
+                records[j].put("action", "a" + inputs[i][j]);
+                records[j].put("user", user);
+            }
+            AvroFiles.createFile(new File(builder.getInputPath().toUri().getPath(),
+                    "part-" + i + ".avro"), schema, records);
+        }
+
+        Sort sort = new Sort();
+        assertTrue(sort.runJob(
+                new JobConf(new SortConfig(builder.getFs().getConf())
+                        .setAvroKey("user.id").setUnique(true).getConfig()),
+                1, 1, null, null, null, false,
+                builder.getInputPath().toUri().getPath(),
+                builder.getOutputPath().toUri().getPath()));
+
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(
+                new FsInput(new Path(builder.getOutputPath(), "part-00000.avro"),
+                        builder.getFs().getConf()), new GenericDatumReader<GenericRecord>());
+        for (long expected : new long[]{1, 2, 3}) {
+            assertTrue(reader.hasNext());
+            GenericRecord record = reader.next();
+            assertEquals(expected, ((GenericRecord) record.get("user")).get("id"));
+            assertEquals("a" + expected, record.get("action").toString());
+        }
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void runReport() throws Exception {
+
+        TextIOJobBuilder builder = new TextIOLocalJobBuilder(new Configuration(), TEST_ROOT_DIR)
+                .addInput("a 3")
+                .addInput("b 1")
+                .addInput("c 2")
+                .addExpectedOutput("b 1")
+                .addExpectedOutput("c 2")
+                .addExpectedOutput("a 3")
+                .writeInputs();
+
+        JobConf jobConf = new JobConf(new SortConfig(builder.getFs().getConf())
+                .setStartKey(2).getConfig());
+        Sort sort = new Sort();
+        assertTrue(sort.runJob(jobConf, 1, 1, null, null, null, false,
+                builder.getInputPath().toUri().getPath(),
+                builder.getOutputPath().toUri().getPath()));
+        builder.verifyResults();
+
+        SortReport report = sort.getReport();
+        assertNotNull(report);
+        assertTrue(report.getPhases().containsKey(SortReport.SUBMIT));
+        assertTrue(report.getPhases().containsKey(SortReport.JOB));
+        long keys = 0;
+        for (long count : report.getKeyLengths().values()) {
+            keys += count;
+        }
+        assertEquals(3, keys);
+
+        // the first key of each map task is timed
+        //
+        assertEquals(1, report.getKeysTimed());
+        assertEquals(1, report.getActualBytes().length);
+        assertArrayEquals(report.getActualBytes(), report.getPredictedBytes());
+        assertEquals(1.0, report.getSkew(), 1e-9);
+
+        SortReport written = SortReport.read(jobConf, builder.getOutputPath());
+        assertEquals(report.getPhases(), written.getPhases());
+        assertEquals(report.getKeyLengths(), written.getKeyLengths());
+        assertArrayEquals(report.getActualBytes(), written.getActualBytes());
+    }
 }
@@ -58,4 +58,84 @@ public class TotalOrderSortTest extends MiniHadoopTestCase {
                 2,
                 sampler);
     }
+
+    @Test
+    public void testParallelSampler() throws Exception {
+
+        ParallelSampler sampler = new ParallelSampler(1.0, 6, 2, 2, 60000);
+
+        JobConf jobConf = super.getMiniHadoop().createJobConf();
+
+        TextIOJobBuilder builder = new TextIOJobBuilder(
+                super.getMiniHadoop().getFileSystem())
+                .addInput("b 2")
+                .addInput("d 4")
+                .addInput("a 1")
+                .addInput("c 3")
+                .addExpectedOutput("a 1")
+                .addExpectedOutput("b 2")
+                .addExpectedOutput("c 3")
+                .addExpectedOutput("d 4")
+                .writeInputs();
+
+        new SortConfig(jobConf).setStartKey(2);
+
+        SortTest.run(
+                jobConf,
+                builder,
+                2,
+                2,
+                sampler);
+    }
+
+    @Test
+    public void testSketchSampler() throws Exception {
+
+        SketchSampler sampler = new SketchSampler(16);
+
+        JobConf jobConf = super.getMiniHadoop().createJobConf();
+
+        TextIOJobBuilder builder = new TextIOJobBuilder(
+                super.getMiniHadoop().getFileSystem())
+                .addInput("d")
+                .addInput("b")
+                .addInput("c")
+                .addInput("a")
+                .addExpectedOutput("a")
+                .addExpectedOutput("b")
+                .addExpectedOutput("c")
+                .addExpectedOutput("d")
+                .writeInputs();
+
+        SortTest.run(
+                jobConf,
+                builder,
+                2,
+                2,
+                sampler);
+    }
+
+    @Test
+    public void testHeavyKey() throws Exception {
+
+        ParallelSampler sampler = new ParallelSampler(1.0, 100, 10, 2, 0);
+
+        JobConf jobConf = super.getMiniHadoop().createJobConf();
+
+        TextIOJobBuilder builder = new TextIOJobBuilder(
+                super.getMiniHadoop().getFileSystem());
+        builder.addInput("a").addExpectedOutput("a");
+        for (int i = 0; i < 10; i++) {
+            builder.addInput("b").addExpectedOutput("b");
+        }
+        builder.addInput("c").addExpectedOutput("c");
+        builder.writeInputs();
+
+        SortTest.run(
+                jobConf,
+                builder,
+                2,
+                3,
+                sampler);
+    }
 }